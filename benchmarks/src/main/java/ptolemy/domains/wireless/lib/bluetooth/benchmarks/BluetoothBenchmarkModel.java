@@ -0,0 +1,249 @@
+package ptolemy.domains.wireless.lib.bluetooth.benchmarks;
+
+import ptolemy.actor.Actor;
+import ptolemy.actor.IOPort;
+import ptolemy.actor.Manager;
+import ptolemy.actor.Receiver;
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedCompositeActor;
+import ptolemy.actor.TypedIOPort;
+import ptolemy.actor.util.Time;
+import ptolemy.data.IntToken;
+import ptolemy.data.StringToken;
+import ptolemy.data.Token;
+import ptolemy.data.type.BaseType;
+import ptolemy.domains.wireless.kernel.WirelessDirector;
+import ptolemy.domains.wireless.lib.bluetooth.BluetoothChannel;
+import ptolemy.domains.wireless.lib.bluetooth.BluetoothCommand;
+import ptolemy.domains.wireless.lib.bluetooth.BluetoothCommandToken;
+import ptolemy.domains.wireless.lib.bluetooth.BluetoothDevice;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.KernelException;
+import ptolemy.kernel.util.NameDuplicationException;
+import ptolemy.kernel.util.Workspace;
+
+/**
+ * A model holding two BluetoothDevice actors, "device" and "peer", on a single BluetoothChannel, for the benchmarks of this package.
+ * <p>
+ * The actors are fired directly by the benchmarks instead of by the director. The director of the model discards the events
+ * scheduled by the actors and the tokens put in their receivers, so that the event queue does not grow while a benchmark runs
+ * and the measured cost is that of the actors alone. The wired inputs of each device are fed by a driver actor.
+ * 
+ * @author Phillip Azar
+ */
+public class BluetoothBenchmarkModel {
+
+    /** Build the model. The model must be initialized before the devices are fired.
+     *  @exception KernelException If the model cannot be built.
+     */
+    public BluetoothBenchmarkModel() throws KernelException {
+        Workspace workspace = new Workspace("benchmark");
+        _top = new TypedCompositeActor(workspace);
+        _top.setName("top");
+        new UnscheduledDirector(_top, "director");
+        _manager = new Manager(workspace, "manager");
+        _top.setManager(_manager);
+        new BluetoothChannel(_top, CHANNEL);
+        
+        device = _newDevice("device");
+        peer = _newDevice("peer");
+        _deviceDriver = _newDriver(device);
+        _peerDriver = _newDriver(peer);
+        
+        _deviceName = new StringToken(device.getName());
+        _peerName = new StringToken(peer.getName());
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public variables                  ////
+    
+    /** The name of the channel of the model. */
+    public static final String CHANNEL = "channel";
+    
+    /** The device measured by the benchmarks. */
+    public final BluetoothDevice device;
+    
+    /** The device the measured device talks to. */
+    public final BluetoothDevice peer;
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+    
+    /** Discard the tokens pending in the wireless receivers of the peer.
+     *  @exception IllegalActionException If a receiver cannot be cleared.
+     */
+    public void clearPeer() throws IllegalActionException {
+        _clear(peer.wirelessInput);
+    }
+    
+    /** Issue a command to the measured device, and fire it.
+     *  @param command The command.
+     *  @param details The details of the command, or null to leave the details port empty.
+     *  @param data The data of the command, or null to leave the data port empty.
+     *  @exception IllegalActionException If the device throws it.
+     */
+    public void command(BluetoothCommand command, Token details, Token data) throws IllegalActionException {
+        _command(_deviceDriver, device, command, details, data);
+    }
+    
+    /** Switch both devices on and bring the measured device to the given state. In the connected state, the measured device
+     *  has found, paired and connected with the peer through the usual handshakes.
+     *  @param state One of "STATE_IDLE", "STATE_SCANNING" or "STATE_CONNECTED".
+     *  @exception IllegalActionException If a handshake fails, or if the state is not one of these states.
+     */
+    public void enterState(String state) throws IllegalActionException {
+        _command(_deviceDriver, device, BluetoothCommand.COMMAND_SWITCHON, null, null);
+        _command(_peerDriver, peer, BluetoothCommand.COMMAND_SWITCHON, null, null);
+        if (state.equals("STATE_IDLE")) {
+            // Nothing more to do.
+        }
+        else if (state.equals("STATE_SCANNING")) {
+            command(BluetoothCommand.COMMAND_SCAN, null, null);
+        }
+        else if (state.equals("STATE_CONNECTED")) {
+            _command(_peerDriver, peer, BluetoothCommand.COMMAND_DISCOVERABLE, null, null);
+            command(BluetoothCommand.COMMAND_SCAN, null, null);
+            peer.fire();
+            device.fire();
+            command(BluetoothCommand.COMMAND_STOPSCAN, null, null);
+            command(BluetoothCommand.COMMAND_PAIR, _peerName, null);
+            peer.fire();
+            device.fire();
+            command(BluetoothCommand.COMMAND_CONNECT, _peerName, null);
+            peer.fire();
+            device.fire();
+            // Sending data throws unless the handshakes succeeded.
+            command(BluetoothCommand.COMMAND_SENDDATA, _peerName, new IntToken(0));
+        }
+        else {
+            throw new IllegalActionException(device, "Unknown state: " + state);
+        }
+        _clear(device.wirelessInput);
+        clearPeer();
+    }
+    
+    /** Return the name of the measured device as a token.
+     *  @return The name of the measured device.
+     */
+    public StringToken getDeviceName() {
+        return _deviceName;
+    }
+    
+    /** Return the name of the peer as a token.
+     *  @return The name of the peer.
+     */
+    public StringToken getPeerName() {
+        return _peerName;
+    }
+    
+    /** Initialize the model, creating the receivers of the actors.
+     *  @exception KernelException If the model cannot be initialized.
+     */
+    public void initialize() throws KernelException {
+        _manager.initialize();
+    }
+    
+    /** Wrap up the model.
+     *  @exception KernelException If the model cannot be wrapped up.
+     */
+    public void wrapup() throws KernelException {
+        _manager.wrapup();
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+    
+    private static void _clear(IOPort port) throws IllegalActionException {
+        for (Receiver[] receivers : port.getReceivers()) {
+            for (Receiver receiver : receivers) {
+                receiver.clear();
+            }
+        }
+    }
+    
+    private static void _command(Driver driver, BluetoothDevice target, BluetoothCommand command, Token details, Token data)
+            throws IllegalActionException {
+        driver.command.send(0, BluetoothCommandToken.getInstance(command));
+        if (details != null) {
+            driver.details.send(0, details);
+        }
+        if (data != null) {
+            driver.data.send(0, data);
+        }
+        target.fire();
+    }
+    
+    private BluetoothDevice _newDevice(String name) throws IllegalActionException, NameDuplicationException {
+        BluetoothDevice result = new BluetoothDevice(_top, name);
+        result.wirelessInputChannelName.setExpression(CHANNEL);
+        result.wirelessOutputChannelName.setExpression(CHANNEL);
+        return result;
+    }
+    
+    private Driver _newDriver(BluetoothDevice target) throws IllegalActionException, NameDuplicationException {
+        Driver driver = new Driver(_top, target.getName() + "Driver");
+        _top.connect(driver.command, target.wiredInput);
+        _top.connect(driver.details, target.wiredInputDetails);
+        _top.connect(driver.data, target.wiredInputData);
+        return driver;
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private final StringToken _deviceName;
+    private final Driver _deviceDriver;
+    private final Manager _manager;
+    private final StringToken _peerName;
+    private final Driver _peerDriver;
+    private final TypedCompositeActor _top;
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         inner classes                     ////
+    
+    /** An actor whose outputs feed the wired inputs of a device. */
+    private static class Driver extends TypedAtomicActor {
+        
+        public Driver(CompositeEntity container, String name) throws IllegalActionException, NameDuplicationException {
+            super(container, name);
+            command = new TypedIOPort(this, "command", false, true);
+            command.setTypeEquals(BaseType.GENERAL);
+            details = new TypedIOPort(this, "details", false, true);
+            details.setTypeEquals(BaseType.STRING);
+            data = new TypedIOPort(this, "data", false, true);
+            data.setTypeEquals(BaseType.GENERAL);
+        }
+        
+        public TypedIOPort command;
+        public TypedIOPort details;
+        public TypedIOPort data;
+    }
+    
+    /** A WirelessDirector that does not schedule any event. */
+    private static class UnscheduledDirector extends WirelessDirector {
+        
+        public UnscheduledDirector(CompositeEntity container, String name) throws IllegalActionException, NameDuplicationException {
+            super(container, name);
+        }
+        
+        @Override
+        public Time fireAt(Actor actor, Time time) {
+            return time;
+        }
+        
+        @Override
+        public Time fireAt(Actor actor, Time time, int microstep) {
+            return time;
+        }
+        
+        @Override
+        public Time fireAtCurrentTime(Actor actor) {
+            return getModelTime();
+        }
+        
+        @Override
+        protected void _enqueueTriggerEvent(IOPort port, Time time) {
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ptolemy.domains.wireless.lib.bluetooth.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the Bluetooth benchmarks with the allocation profiler of JMH, so that the allocation rate per operation is reported
+ * along with the time per operation. The usual JMH command line options may be given, for example a regular expression
+ * selecting the benchmarks to run.
+ * <pre>
+ * java -cp target/benchmarks.jar:$PTII/ptolemy/ptII.jar ptolemy.domains.wireless.lib.bluetooth.benchmarks.BluetoothBenchmarks
+ * </pre>
+ * 
+ * @author Phillip Azar
+ */
+public class BluetoothBenchmarks {
+
+    /** Run the benchmarks.
+     *  @param args The JMH command line options.
+     *  @exception Exception If the options are invalid or a benchmark fails.
+     */
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
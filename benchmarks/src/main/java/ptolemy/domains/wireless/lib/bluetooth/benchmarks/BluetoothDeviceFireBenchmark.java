@@ -0,0 +1,105 @@
+package ptolemy.domains.wireless.lib.bluetooth.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ptolemy.data.IntToken;
+import ptolemy.data.StringToken;
+import ptolemy.domains.wireless.lib.bluetooth.BluetoothCommand;
+import ptolemy.kernel.util.KernelException;
+
+/**
+ * Measure BluetoothDevice.fire() for each command issued in each state of the device.
+ * <p>
+ * A command that leaves the state of the device is followed, in the same operation, by the command that brings it back,
+ * so that every operation starts from the same state: COMMAND_SCAN is followed by COMMAND_STOPSCAN outside of the scanning
+ * state, and COMMAND_STOPSCAN by COMMAND_SCAN in it. COMMAND_SENDDATA always sends to the peer, and is only carried out in the
+ * connected state. Each operation also discards the responses the device sent to the peer. Each case is measured with the metrics
+ * of the device disabled and enabled.
+ * 
+ * @author Phillip Azar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BluetoothDeviceFireBenchmark {
+
+    /** The state of the device. */
+    @Param({"STATE_IDLE", "STATE_SCANNING", "STATE_CONNECTED"})
+    public String state;
+    
+    /** The command issued to the device, in its string form. */
+    @Param({"nocommand", "discoverable", "hide", "scan", "stopscan", "senddata"})
+    public String command;
+    
+    /** True to measure with the metrics of the device enabled. */
+    @Param({"false", "true"})
+    public boolean metrics;
+    
+    /** Build the model and bring the device to the state under measurement.
+     *  @exception KernelException If the model cannot be built or initialized.
+     */
+    @Setup
+    public void setup() throws KernelException {
+        _model = new BluetoothBenchmarkModel();
+        _model.device.metricsEnabled.setExpression(Boolean.toString(metrics));
+        _model.initialize();
+        _model.enterState(state);
+        
+        _command = BluetoothCommand.fromString(command);
+        if (_command == BluetoothCommand.COMMAND_SCAN && !state.equals("STATE_SCANNING")) {
+            _restore = BluetoothCommand.COMMAND_STOPSCAN;
+        }
+        else if (_command == BluetoothCommand.COMMAND_STOPSCAN && state.equals("STATE_SCANNING")) {
+            _restore = BluetoothCommand.COMMAND_SCAN;
+        }
+        if (_command == BluetoothCommand.COMMAND_SENDDATA) {
+            _details = _model.getPeerName();
+            _data = new IntToken(42);
+        }
+    }
+    
+    /** Wrap up the model.
+     *  @exception KernelException If the model cannot be wrapped up.
+     */
+    @TearDown
+    public void tearDown() throws KernelException {
+        _model.wrapup();
+    }
+    
+    /** Issue the command and fire the device.
+     *  @exception KernelException If the device throws it.
+     */
+    @Benchmark
+    public void fire() throws KernelException {
+        _model.command(_command, _details, _data);
+        if (_restore != null) {
+            _model.command(_restore, null, null);
+        }
+        _model.clearPeer();
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private BluetoothCommand _command;
+    private IntToken _data;
+    private StringToken _details;
+    private BluetoothBenchmarkModel _model;
+    private BluetoothCommand _restore;
+}
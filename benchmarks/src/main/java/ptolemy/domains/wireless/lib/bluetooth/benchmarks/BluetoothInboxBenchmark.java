@@ -0,0 +1,109 @@
+package ptolemy.domains.wireless.lib.bluetooth.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ptolemy.actor.Receiver;
+import ptolemy.data.IntToken;
+import ptolemy.domains.wireless.lib.bluetooth.BluetoothDeviceRegistry;
+import ptolemy.domains.wireless.lib.bluetooth.BluetoothResponse;
+import ptolemy.domains.wireless.lib.bluetooth.BluetoothResponseToken;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.KernelException;
+
+/**
+ * Measure the processing of a backlog of wireless responses by a connected BluetoothDevice, with the arrival order processing
+ * and with the prioritized inbox. Every eighth response of the backlog is a broadcast scan request, the others are data sent
+ * by the peer. The backlog is put in the wireless receiver of the device before each operation, and the whole backlog is
+ * processed by the operation.
+ * 
+ * @author Phillip Azar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BluetoothInboxBenchmark {
+
+    /** The number of responses pending when the device is fired. */
+    @Param({"1", "16", "256", "4096"})
+    public int backlog;
+    
+    /** True to stage the responses in the prioritized inbox, false to process them in arrival order. */
+    @Param({"false", "true"})
+    public boolean prioritized;
+    
+    /** Build the model and connect the device to the peer.
+     *  @exception KernelException If the model cannot be built or initialized.
+     */
+    @Setup
+    public void setup() throws KernelException {
+        _model = new BluetoothBenchmarkModel();
+        if (prioritized) {
+            _model.device.inboxCapacity.setExpression(Integer.toString(backlog));
+        }
+        _model.initialize();
+        _model.enterState("STATE_CONNECTED");
+        
+        int device = BluetoothDeviceRegistry.intern(_model.device.getName());
+        int peer = BluetoothDeviceRegistry.intern(_model.peer.getName());
+        _backlog = new BluetoothResponseToken[backlog];
+        for (int i = 0; i < backlog; i++) {
+            if (i % 8 == 7) {
+                _backlog[i] = BluetoothResponseToken.getControlToken(BluetoothResponse.COMMAND_SCAN, BluetoothDeviceRegistry.BROADCAST, peer);
+            }
+            else {
+                _backlog[i] = new BluetoothResponseToken<IntToken>(BluetoothResponse.RESPONSE_OK, device, peer, new IntToken(i));
+            }
+        }
+        _receiver = _model.device.wirelessInput.getReceivers()[0][0];
+    }
+    
+    /** Put the backlog in the wireless receiver of the device.
+     *  @exception IllegalActionException If the receiver rejects a token.
+     */
+    @Setup(Level.Invocation)
+    public void fill() throws IllegalActionException {
+        for (BluetoothResponseToken response : _backlog) {
+            _receiver.put(response);
+        }
+    }
+    
+    /** Wrap up the model.
+     *  @exception KernelException If the model cannot be wrapped up.
+     */
+    @TearDown
+    public void tearDown() throws KernelException {
+        _model.wrapup();
+    }
+    
+    /** Fire the device, processing the backlog.
+     *  @exception IllegalActionException If the device throws it.
+     */
+    @Benchmark
+    public void process() throws IllegalActionException {
+        _model.device.fire();
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private BluetoothResponseToken[] _backlog;
+    private BluetoothBenchmarkModel _model;
+    private Receiver _receiver;
+}
@@ -0,0 +1,100 @@
+package ptolemy.domains.wireless.lib.bluetooth.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ptolemy.data.BooleanToken;
+import ptolemy.domains.wireless.lib.bluetooth.BluetoothDeviceRegistry;
+import ptolemy.domains.wireless.lib.bluetooth.BluetoothResponse;
+import ptolemy.domains.wireless.lib.bluetooth.BluetoothResponseToken;
+import ptolemy.domains.wireless.lib.bluetooth.BluetoothStatus;
+import ptolemy.domains.wireless.lib.bluetooth.BluetoothStatusToken;
+import ptolemy.kernel.util.IllegalActionException;
+
+/**
+ * Measure the construction, toString() and isEqualTo() of BluetoothResponseToken and BluetoothStatusToken.
+ * 
+ * @author Phillip Azar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BluetoothTokenBenchmark {
+
+    /** Intern the device names and build the tokens that are compared and printed. */
+    @Setup
+    public void setup() {
+        _device = BluetoothDeviceRegistry.intern(_DEVICE_NAME);
+        _source = BluetoothDeviceRegistry.intern(_SOURCE_NAME);
+        _response = new BluetoothResponseToken<String>(BluetoothResponse.RESPONSE_OK, _device, _source, "data");
+        _sameResponse = new BluetoothResponseToken<String>(BluetoothResponse.RESPONSE_OK, _device, _source, "data");
+        _status = new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, "data");
+        _sameStatus = new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, "data");
+    }
+    
+    @Benchmark
+    public BluetoothResponseToken<String> responseByName() {
+        return new BluetoothResponseToken<String>(BluetoothResponse.RESPONSE_OK, _DEVICE_NAME, _SOURCE_NAME, "data");
+    }
+    
+    @Benchmark
+    public BluetoothResponseToken<String> responseByHandle() {
+        return new BluetoothResponseToken<String>(BluetoothResponse.RESPONSE_OK, _device, _source, "data");
+    }
+    
+    @Benchmark
+    public BluetoothResponseToken<String> responseControlToken() {
+        return BluetoothResponseToken.getControlToken(BluetoothResponse.COMMAND_REQUESTCONNECT, _device, _source);
+    }
+    
+    @Benchmark
+    public String responseToString() {
+        return _response.toString();
+    }
+    
+    @Benchmark
+    public BooleanToken responseIsEqualTo() throws IllegalActionException {
+        return _response.isEqualTo(_sameResponse);
+    }
+    
+    @Benchmark
+    public BluetoothStatusToken<String> status() {
+        return new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, "data");
+    }
+    
+    @Benchmark
+    public String statusToString() {
+        return _status.toString();
+    }
+    
+    @Benchmark
+    public BooleanToken statusIsEqualTo() throws IllegalActionException {
+        return _status.isEqualTo(_sameStatus);
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private static final String _DEVICE_NAME = "device";
+    private static final String _SOURCE_NAME = "peer";
+    
+    private int _device;
+    private BluetoothResponseToken<String> _response;
+    private BluetoothResponseToken<String> _sameResponse;
+    private BluetoothStatusToken<String> _sameStatus;
+    private int _source;
+    private BluetoothStatusToken<String> _status;
+}
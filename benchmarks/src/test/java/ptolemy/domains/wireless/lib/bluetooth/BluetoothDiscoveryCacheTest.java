@@ -0,0 +1,258 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of BluetoothDiscoveryCache, which check it against a simple model of a cache built on a LinkedHashMap.
+ *
+ * @author Phillip Azar
+ * @see BluetoothDiscoveryCache
+ */
+public class BluetoothDiscoveryCacheTest {
+
+    /** The least recently seen device is evicted, and seeing a device makes it the most recently seen. */
+    @Test
+    public void eviction() {
+        BluetoothDiscoveryCache cache = new BluetoothDiscoveryCache(2, 0.0);
+        assertTrue(cache.see(1, 0.0));
+        assertTrue(cache.see(2, 1.0));
+        assertFalse(cache.see(1, 2.0));
+        assertTrue(cache.see(3, 3.0));
+        assertArrayEquals(new int[] { 3, 1 }, cache.snapshot(3.0));
+        assertEquals(3, cache.getAdditionCount());
+    }
+
+    /** A device expires once it has not been seen for longer than the time to live, and not at the time to live. */
+    @Test
+    public void expiry() {
+        BluetoothDiscoveryCache cache = new BluetoothDiscoveryCache(0, 5.0);
+        cache.see(1, 0.0);
+        cache.see(2, 1.0);
+        assertTrue(cache.contains(1, 5.0));
+        assertEquals(0.0, cache.getLastSeen(1), 0.0);
+        assertFalse(cache.contains(1, 5.5));
+        assertEquals(1, cache.size());
+        assertTrue(Double.isNaN(cache.getLastSeen(1)));
+        assertArrayEquals(new int[0], cache.snapshot(6.5));
+        assertEquals(0, cache.size());
+    }
+
+    /** An unbounded cache grows past its initial size, and removes devices from the middle of probe sequences. */
+    @Test
+    public void growthAndRemoval() {
+        BluetoothDiscoveryCache cache = new BluetoothDiscoveryCache(0, 0.0);
+        _Model model = new _Model(0, 0.0);
+        // Handles spread over every int, so that many share their slot, or their probe sequence, in the table.
+        int[] handles = new int[1000];
+        Random random = new Random(1);
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = random.nextInt();
+            assertEquals(model.see(handles[i], i), cache.see(handles[i], i));
+        }
+        _assertSame(model, cache, 1000.0);
+        for (int i = 0; i < handles.length; i += 3) {
+            model.remove(handles[i]);
+            cache.remove(handles[i]);
+        }
+        _assertSame(model, cache, 1000.0);
+        for (int handle : handles) {
+            assertEquals(model.contains(handle, 1000.0), cache.contains(handle, 1000.0));
+        }
+        model.clear();
+        cache.clear();
+        for (int i = handles.length - 1; i >= 0; i--) {
+            assertEquals(model.see(handles[i], 1000.0 + i), cache.see(handles[i], 1000.0 + i));
+        }
+        _assertSame(model, cache, 2000.0);
+    }
+
+    /** The cache agrees with the model over random operations, for several capacities and times to live. */
+    @Test
+    public void randomOperations() {
+        for (int capacity : new int[] { 0, 1, 7, 64 }) {
+            for (double timeToLive : new double[] { 0.0, 5.0 }) {
+                for (long seed = 0; seed < 5; seed++) {
+                    _randomOperations(capacity, timeToLive, new Random(seed));
+                }
+            }
+        }
+    }
+
+    /** A negative capacity is rejected. */
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCapacity() {
+        new BluetoothDiscoveryCache(-1, 0.0);
+    }
+
+    /** A negative time to live is rejected. */
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeTimeToLive() {
+        new BluetoothDiscoveryCache(0, 0.0).setTimeToLive(-1.0);
+    }
+
+    /** A time to live that is not a number is rejected. */
+    @Test(expected = IllegalArgumentException.class)
+    public void timeToLiveNotANumber() {
+        new BluetoothDiscoveryCache(0, Double.NaN);
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Check that the cache holds the same devices as the model, in the same order, with the same times. */
+    private static void _assertSame(_Model model, BluetoothDiscoveryCache cache, double now) {
+        int[] expected = model.snapshot(now);
+        assertArrayEquals(expected, cache.snapshot(now));
+        assertEquals(model.size(), cache.size());
+        for (int handle : expected) {
+            assertEquals(model.getLastSeen(handle), cache.getLastSeen(handle), 0.0);
+        }
+    }
+
+    /** Apply the same random operations to a cache and to the model, checking that they agree after each. */
+    private static void _randomOperations(int capacity, double timeToLive, Random random) {
+        BluetoothDiscoveryCache cache = new BluetoothDiscoveryCache(capacity, timeToLive);
+        _Model model = new _Model(capacity, timeToLive);
+        double now = 0.0;
+        for (int step = 0; step < 5000; step++) {
+            now += random.nextInt(3) * 0.5;
+            // A few handles, so that devices are often seen again, and a few more that fall on few slots of the table.
+            int handle = random.nextInt(4) == 0 ? random.nextInt(8) << 28 : random.nextInt(100);
+            int operation = random.nextInt(100);
+            if (operation < 50) {
+                assertEquals(model.see(handle, now), cache.see(handle, now));
+                assertEquals(model.size(), cache.size());
+            }
+            else if (operation < 75) {
+                assertEquals(model.contains(handle, now), cache.contains(handle, now));
+                assertEquals(model.size(), cache.size());
+            }
+            else if (operation < 85) {
+                model.remove(handle);
+                cache.remove(handle);
+                assertEquals(model.size(), cache.size());
+            }
+            else if (operation < 93) {
+                assertEquals(model.getLastSeen(handle), cache.getLastSeen(handle), 0.0);
+            }
+            else if (operation < 98) {
+                _assertSame(model, cache, now);
+            }
+            else if (operation < 99) {
+                // Change the capacity, and set it back, so that the cache is checked at the capacity it was built with.
+                int smaller = capacity == 0 ? 0 : 1 + random.nextInt(capacity);
+                model.setCapacity(smaller);
+                cache.setCapacity(smaller);
+                assertEquals(model.size(), cache.size());
+                model.setCapacity(capacity);
+                cache.setCapacity(capacity);
+            }
+            else {
+                model.clear();
+                cache.clear();
+                assertEquals(0, cache.size());
+            }
+        }
+        _assertSame(model, cache, now);
+        assertEquals(model.additions, cache.getAdditionCount());
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private inner classes             ////
+
+    /** The model of the cache: a LinkedHashMap from a handle to the time it was last seen, ordered from the least to the most recently seen. */
+    private static class _Model {
+        _Model(int capacity, double timeToLive) {
+            _capacity = capacity;
+            _timeToLive = timeToLive;
+        }
+
+        void clear() {
+            _times.clear();
+        }
+
+        boolean contains(int handle, double now) {
+            _expire(now);
+            return _times.containsKey(handle);
+        }
+
+        double getLastSeen(int handle) {
+            Double time = _times.get(handle);
+            return time == null ? Double.NaN : time;
+        }
+
+        void remove(int handle) {
+            _times.remove(handle);
+        }
+
+        boolean see(int handle, double now) {
+            _expire(now);
+            if (_times.remove(handle) != null) {
+                _times.put(handle, now);
+                return false;
+            }
+            if (_capacity > 0 && _times.size() == _capacity) {
+                _removeEldest();
+            }
+            _times.put(handle, now);
+            additions++;
+            return true;
+        }
+
+        void setCapacity(int capacity) {
+            _capacity = capacity;
+            while (_capacity > 0 && _times.size() > _capacity) {
+                _removeEldest();
+            }
+        }
+
+        int size() {
+            return _times.size();
+        }
+
+        int[] snapshot(double now) {
+            _expire(now);
+            List<Integer> handles = new ArrayList<Integer>(_times.keySet());
+            int[] result = new int[handles.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = handles.get(result.length - 1 - i);
+            }
+            return result;
+        }
+
+        long additions;
+
+        private void _expire(double now) {
+            if (_timeToLive == 0.0) {
+                return;
+            }
+            for (Iterator<Map.Entry<Integer, Double>> entries = _times.entrySet().iterator(); entries.hasNext();) {
+                if (now - entries.next().getValue() > _timeToLive) {
+                    entries.remove();
+                }
+            }
+        }
+
+        private void _removeEldest() {
+            Iterator<Integer> handles = _times.keySet().iterator();
+            handles.next();
+            handles.remove();
+        }
+
+        private int _capacity;
+        private final double _timeToLive;
+        private final LinkedHashMap<Integer, Double> _times = new LinkedHashMap<Integer, Double>();
+    }
+}
@@ -0,0 +1,193 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of BluetoothRingBuffer, with a producer and a consumer mapping the same file in one process.
+ *
+ * @author Phillip Azar
+ * @see BluetoothRingBuffer
+ */
+public class BluetoothRingBufferTest {
+
+    /** Open a producer and a consumer on a new file. */
+    @Before
+    public void setUp() throws IOException {
+        _file = File.createTempFile("BluetoothRingBufferTest", ".ring");
+        _file.delete();
+        _producer = new BluetoothRingBuffer(_file, _CAPACITY, true);
+        _consumer = new BluetoothRingBuffer(_file, _CAPACITY, false);
+    }
+
+    /** Close both ends and delete the file. */
+    @After
+    public void tearDown() throws IOException {
+        _producer.close();
+        _consumer.close();
+        Files.deleteIfExists(_file.toPath());
+    }
+
+    /** A record is read back with its bytes, once, and in order with the next. */
+    @Test
+    public void offerThenPeek() {
+        assertNull(_consumer.peek());
+        assertTrue(_producer.offer(_record(5, 1)));
+        assertTrue(_producer.offer(_record(13, 2)));
+        _assertNext(5, 1);
+        _assertNext(13, 2);
+        assertNull(_consumer.peek());
+    }
+
+    /** A record that does not fit before the end of the data region is written at its start, after a wrap marker. */
+    @Test
+    public void recordWrapsAroundTheEnd() {
+        // Four records of 1008 bytes each leave 64 bytes before the end of the 4096 byte region.
+        for (int i = 0; i < 4; i++) {
+            assertTrue(_producer.offer(_record(1000, i)));
+        }
+        for (int i = 0; i < 4; i++) {
+            _assertNext(1000, i);
+        }
+        assertTrue(_producer.offer(_record(1000, 10)));
+        assertTrue(_producer.offer(_record(20, 11)));
+        _assertNext(1000, 10);
+        _assertNext(20, 11);
+        assertNull(_consumer.peek());
+    }
+
+    /** A record exactly filling the space before the end of the data region needs no wrap marker. */
+    @Test
+    public void recordEndingAtTheEnd() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(_producer.offer(_record(1000, i)));
+            _assertNext(1000, i);
+        }
+        assertTrue(_producer.offer(_record(60, 4)));
+        assertTrue(_producer.offer(_record(60, 5)));
+        _assertNext(60, 4);
+        _assertNext(60, 5);
+    }
+
+    /** A full ring refuses a record until the consumer frees enough room for it, including the room skipped by a wrap. */
+    @Test
+    public void fullRing() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(_producer.offer(_record(1000, i)));
+        }
+        assertFalse(_producer.offer(_record(1000, 4)));
+        _assertNext(1000, 0);
+        // 1008 bytes are free, but the record would wrap and also take the 64 bytes left before the end.
+        assertTrue(_producer.offer(_record(1000, 4)));
+        assertFalse(_producer.offer(_record(1, 5)));
+        for (int i = 1; i < 5; i++) {
+            _assertNext(1000, i);
+        }
+        assertNull(_consumer.peek());
+    }
+
+    /** A record larger than maxRecordSize() is rejected. */
+    @Test(expected = IllegalArgumentException.class)
+    public void recordTooLarge() {
+        _producer.offer(ByteBuffer.allocate(_producer.maxRecordSize() + 1));
+    }
+
+    /** Many records of varying sizes cross the ring several times without loss. */
+    @Test
+    public void manyRecords() {
+        int written = 0;
+        int read = 0;
+        while (read < 2000) {
+            while (written < 2000 && _producer.offer(_record(1 + written * 37 % 700, written))) {
+                written++;
+            }
+            _assertNext(1 + read * 37 % 700, read);
+            read++;
+        }
+        assertNull(_consumer.peek());
+    }
+
+    /** The positions are held in the file, so that a consumer opened later sees the records already written. */
+    @Test
+    public void positionsArePublishedInTheFile() throws IOException {
+        assertTrue(_producer.offer(_record(7, 1)));
+        BluetoothRingBuffer late = new BluetoothRingBuffer(_file, _CAPACITY, false);
+        ByteBuffer record = late.peek();
+        assertNotNull(record);
+        assertEquals(7, record.remaining());
+        late.advance();
+        assertNull(late.peek());
+        // The producer sees the read position published by the consumer, and can fill the whole ring again.
+        for (int i = 0; i < 4; i++) {
+            assertTrue(_producer.offer(_record(1000, i)));
+            assertNotNull(late.peek());
+            late.advance();
+        }
+        for (int i = 0; i < 4; i++) {
+            assertTrue(_producer.offer(_record(1000, i)));
+        }
+        assertFalse(_producer.offer(_record(1000, 4)));
+    }
+
+    /** The clock is 0.0 until published, and positive infinity once the producer is closed. */
+    @Test
+    public void clock() {
+        assertEquals(0.0, _consumer.readClock(), 0.0);
+        _producer.publishClock(2.5);
+        assertEquals(2.5, _consumer.readClock(), 0.0);
+        _producer.close();
+        assertEquals(Double.POSITIVE_INFINITY, _consumer.readClock(), 0.0);
+    }
+
+    /** The consumer deletes the file when it is closed. */
+    @Test
+    public void consumerDeletesTheFile() {
+        assertTrue(_file.exists());
+        _consumer.close();
+        assertFalse(_file.exists());
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Check that the next record has the given length and was filled from the given seed, and consume it. */
+    private void _assertNext(int length, int seed) {
+        ByteBuffer record = _consumer.peek();
+        assertNotNull(record);
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        assertArrayEquals(_record(length, seed).array(), bytes);
+        _consumer.advance();
+    }
+
+    /** Return a record of the given length, whose bytes depend on the given seed. */
+    private static ByteBuffer _record(int length, int seed) {
+        ByteBuffer record = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            record.put(i, (byte) (seed * 31 + i));
+        }
+        return record;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    private static final int _CAPACITY = 4096;
+
+    private BluetoothRingBuffer _consumer;
+    private File _file;
+    private BluetoothRingBuffer _producer;
+}
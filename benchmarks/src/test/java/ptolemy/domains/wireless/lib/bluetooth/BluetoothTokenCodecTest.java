@@ -0,0 +1,261 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import ptolemy.data.ArrayToken;
+import ptolemy.data.BooleanToken;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.LongToken;
+import ptolemy.data.StringToken;
+import ptolemy.data.Token;
+
+/**
+ * Tests of BluetoothTokenCodec, which decode with one codec the stream encoded by another, as the two ends of a BluetoothShardBridge do.
+ *
+ * @author Phillip Azar
+ * @see BluetoothTokenCodec
+ */
+public class BluetoothTokenCodecTest {
+
+    /** A canonical control token is decoded to the canonical token. */
+    @Test
+    public void controlToken() throws Exception {
+        BluetoothResponseToken token = BluetoothResponseToken.getControlToken(BluetoothResponse.COMMAND_REQUESTPAIR, _A, _B);
+        assertSame(token, _roundTrip(token));
+    }
+
+    /** A control token carrying a correlation ID keeps it. */
+    @Test
+    public void controlTokenWithCorrelation() throws Exception {
+        BluetoothResponseToken decoded = _roundTrip(BluetoothResponseToken.getControlToken(BluetoothResponse.RESPONSE_ACCEPTPAIR, _A, _B, 42));
+        _assertHeader(BluetoothResponse.RESPONSE_ACCEPTPAIR, _A, _B, 42, decoded);
+        assertEquals("", decoded.getData());
+    }
+
+    /** The broadcast address is decoded to the broadcast address. */
+    @Test
+    public void broadcast() throws Exception {
+        BluetoothResponseToken token = BluetoothResponseToken.getControlToken(BluetoothResponse.COMMAND_SCAN, BluetoothDeviceRegistry.BROADCAST, _A);
+        assertSame(token, _roundTrip(token));
+    }
+
+    /** A string payload, including an empty one that is not a control token. */
+    @Test
+    public void stringPayload() throws Exception {
+        BluetoothResponseToken decoded = _roundTrip(new BluetoothResponseToken<String>(BluetoothResponse.RESPONSE_OK, _A, _B, 7, "h\u00e9llo"));
+        _assertHeader(BluetoothResponse.RESPONSE_OK, _A, _B, 7, decoded);
+        assertEquals("h\u00e9llo", decoded.getData());
+        BluetoothResponseToken empty = new BluetoothResponseToken<String>(BluetoothResponse.RESPONSE_DENY, _A, _B, "");
+        decoded = _roundTrip(empty);
+        _assertHeader(BluetoothResponse.RESPONSE_DENY, _A, _B, BluetoothResponseToken.NO_CORRELATION, decoded);
+        assertEquals("", decoded.getData());
+    }
+
+    /** The tokens encoded in binary. */
+    @Test
+    public void scalarTokenPayloads() throws Exception {
+        assertEquals("x", ((StringToken) _payload(new StringToken("x"))).stringValue());
+        assertEquals(-5, ((IntToken) _payload(new IntToken(-5))).intValue());
+        assertEquals(1L << 40, ((LongToken) _payload(new LongToken(1L << 40))).longValue());
+        assertEquals(0.25, ((DoubleToken) _payload(new DoubleToken(0.25))).doubleValue(), 0.0);
+        assertTrue(((BooleanToken) _payload(BooleanToken.TRUE)).booleanValue());
+        assertFalse(((BooleanToken) _payload(BooleanToken.FALSE)).booleanValue());
+    }
+
+    /** A batch keeps its elements, and only its elements up to its length. */
+    @Test
+    public void batchPayload() throws Exception {
+        Token[] tokens = new Token[] { new IntToken(1), new StringToken("two"), new IntToken(3) };
+        BluetoothBatchToken batch = (BluetoothBatchToken) _payload(new BluetoothBatchToken(tokens, 2));
+        assertEquals(2, batch.length());
+        assertEquals(1, ((IntToken) batch.getElement(0)).intValue());
+        assertEquals("two", ((StringToken) batch.getElement(1)).stringValue());
+    }
+
+    /** A buffer keeps the bytes between its position and its limit. */
+    @Test
+    public void bufferPayload() throws Exception {
+        BluetoothBufferToken buffer = new BluetoothBufferToken(_bytes(300)).slice(10, 200);
+        BluetoothBufferToken decoded = (BluetoothBufferToken) _payload(buffer);
+        assertArrayEquals(_bytes(buffer.getBuffer()), _bytes(decoded.getBuffer()));
+    }
+
+    /** A segment keeps its identifier, its offset, the length of its payload and its bytes. */
+    @Test
+    public void segmentPayload() throws Exception {
+        BluetoothBufferToken bytes = new BluetoothBufferToken(_bytes(64));
+        BluetoothSegmentToken decoded = (BluetoothSegmentToken) _payload(new BluetoothSegmentToken(-3, 128, 1000, bytes));
+        assertEquals(-3, decoded.getPayloadIdentifier());
+        assertEquals(128, decoded.getOffset());
+        assertEquals(1000, decoded.getPayloadLength());
+        assertArrayEquals(_bytes(bytes.getBuffer()), _bytes(decoded.getSegment().getBuffer()));
+    }
+
+    /** Any other token is encoded as its expression, and evaluated again. */
+    @Test
+    public void expressionPayload() throws Exception {
+        ArrayToken decoded = (ArrayToken) _payload(new ArrayToken(new Token[] { new IntToken(1), new IntToken(2) }));
+        assertEquals(2, decoded.length());
+        assertEquals(2, ((IntToken) decoded.getElement(1)).intValue());
+    }
+
+    /** A token addressed to several devices keeps its destinations, its source and its payload. */
+    @Test
+    public void multicast() throws Exception {
+        int[] destinations = new int[] { _C, _A, _B };
+        BluetoothResponseToken decoded = _roundTrip(new BluetoothResponseToken<String>(BluetoothResponse.RESPONSE_OK, destinations, _D, "all"));
+        assertEquals(BluetoothResponse.RESPONSE_OK, decoded.getResponse());
+        assertEquals(BluetoothDeviceRegistry.MULTICAST, decoded.getDeviceHandle());
+        assertArrayEquals(new BluetoothResponseToken<String>(BluetoothResponse.RESPONSE_OK, destinations, _D, "").getDestinations(),
+                decoded.getDestinations());
+        assertEquals(_D, decoded.getSourceHandle());
+        assertEquals("all", decoded.getData());
+        decoded = _roundTrip(new BluetoothResponseToken<Token>(BluetoothResponse.RESPONSE_OK, destinations, _D, new IntToken(9)));
+        assertEquals(9, ((IntToken) decoded.getData()).intValue());
+    }
+
+    /** The name of a device is only written the first time the device is encoded. */
+    @Test
+    public void namesAreWrittenOnce() throws Exception {
+        BluetoothTokenCodec encoder = new BluetoothTokenCodec();
+        BluetoothTokenCodec decoder = new BluetoothTokenCodec();
+        BluetoothResponseToken token = new BluetoothResponseToken<String>(BluetoothResponse.RESPONSE_OK, _A, _B, "x");
+        ByteBuffer first = _encode(encoder, token);
+        ByteBuffer second = _encode(encoder, token);
+        assertTrue(second.remaining() < first.remaining());
+        _assertHeader(BluetoothResponse.RESPONSE_OK, _A, _B, BluetoothResponseToken.NO_CORRELATION, decoder.decode(first));
+        _assertHeader(BluetoothResponse.RESPONSE_OK, _A, _B, BluetoothResponseToken.NO_CORRELATION, decoder.decode(second));
+    }
+
+    /** An encode retried after a BufferOverflowException writes again the names of the devices first seen by the failed one. */
+    @Test
+    public void encodeRetriedAfterOverflow() throws Exception {
+        BluetoothTokenCodec encoder = new BluetoothTokenCodec();
+        BluetoothTokenCodec decoder = new BluetoothTokenCodec();
+        // The names of _A and _B are written to the stream by the first token, those of _C and _D by the failed ones.
+        BluetoothResponseToken known = new BluetoothResponseToken<String>(BluetoothResponse.RESPONSE_OK, _A, _B, "x");
+        _assertHeader(BluetoothResponse.RESPONSE_OK, _A, _B, BluetoothResponseToken.NO_CORRELATION, decoder.decode(_encode(encoder, known)));
+        BluetoothResponseToken token = new BluetoothResponseToken<Token>(BluetoothResponse.RESPONSE_OK, _C, _D, new BluetoothBufferToken(_bytes(100)));
+        // Overflow while writing the names, then after writing them, while writing the payload.
+        for (int size : new int[] { 3, 40 }) {
+            try {
+                encoder.encode(token, ByteBuffer.allocate(size));
+                fail("The token fits in " + size + " bytes.");
+            } catch (BufferOverflowException ex) {
+                // Expected.
+            }
+        }
+        BluetoothResponseToken decoded = decoder.decode(_encode(encoder, token));
+        _assertHeader(BluetoothResponse.RESPONSE_OK, _C, _D, BluetoothResponseToken.NO_CORRELATION, decoded);
+        assertEquals("c", decoded.getDeviceIdentifier());
+        assertEquals("d", decoded.getSourceIdentifier());
+        // The identifiers given to the devices by the retry are the ones the decoder knows.
+        decoded = decoder.decode(_encode(encoder, new BluetoothResponseToken<String>(BluetoothResponse.RESPONSE_OK, _D, _A, "y")));
+        _assertHeader(BluetoothResponse.RESPONSE_OK, _D, _A, BluetoothResponseToken.NO_CORRELATION, decoded);
+    }
+
+    /** A multicast encode retried after a BufferOverflowException writes again the names of its new destinations. */
+    @Test
+    public void multicastEncodeRetriedAfterOverflow() throws Exception {
+        BluetoothTokenCodec encoder = new BluetoothTokenCodec();
+        BluetoothTokenCodec decoder = new BluetoothTokenCodec();
+        decoder.decode(_encode(encoder, BluetoothResponseToken.getControlToken(BluetoothResponse.COMMAND_REQUESTPAIR, _A, _B)));
+        BluetoothResponseToken token = new BluetoothResponseToken<String>(BluetoothResponse.RESPONSE_OK, new int[] { _A, _C, _D }, _B, "all");
+        try {
+            encoder.encode(token, ByteBuffer.allocate(8));
+            fail("The token fits in 8 bytes.");
+        } catch (BufferOverflowException ex) {
+            // Expected.
+        }
+        BluetoothResponseToken decoded = decoder.decode(_encode(encoder, token));
+        assertArrayEquals(token.getDestinations(), decoded.getDestinations());
+        assertEquals(_B, decoded.getSourceHandle());
+        assertEquals("all", decoded.getData());
+    }
+
+    /** The varints and strings written by the codec read back. */
+    @Test
+    public void varIntsAndStrings() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        int[] values = new int[] { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE };
+        for (int value : values) {
+            BluetoothTokenCodec.writeVarInt(value, buffer);
+        }
+        BluetoothTokenCodec.writeString("\u00e9t\u00e9", buffer);
+        buffer.flip();
+        for (int value : values) {
+            assertEquals(value, BluetoothTokenCodec.readVarInt(buffer));
+        }
+        assertEquals("\u00e9t\u00e9", BluetoothTokenCodec.readString(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Check the response, the devices and the correlation ID of a token addressed to one device. */
+    private static void _assertHeader(BluetoothResponse response, int destination, int source, int correlationId, BluetoothResponseToken token) {
+        assertEquals(response, token.getResponse());
+        assertEquals(destination, token.getDeviceHandle());
+        assertEquals(source, token.getSourceHandle());
+        assertEquals(correlationId, token.getCorrelationId());
+    }
+
+    /** Return the bytes between the position and the limit of a buffer. */
+    private static byte[] _bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /** Return bytes that differ from each other. */
+    private static byte[] _bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 7);
+        }
+        return bytes;
+    }
+
+    /** Encode a token, and return the buffer holding it, ready to be read. */
+    private static ByteBuffer _encode(BluetoothTokenCodec encoder, BluetoothResponseToken token) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        encoder.encode(token, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /** Return the payload of a data token from _A to _B after a round trip. */
+    private static Token _payload(Token payload) throws Exception {
+        BluetoothResponseToken decoded = _roundTrip(new BluetoothResponseToken<Token>(BluetoothResponse.RESPONSE_OK, _A, _B, payload));
+        _assertHeader(BluetoothResponse.RESPONSE_OK, _A, _B, BluetoothResponseToken.NO_CORRELATION, decoded);
+        return (Token) decoded.getData();
+    }
+
+    /** Encode a token on a new stream, and decode it on another, checking that every byte is read. */
+    private static BluetoothResponseToken _roundTrip(BluetoothResponseToken token) throws Exception {
+        ByteBuffer buffer = _encode(new BluetoothTokenCodec(), token);
+        BluetoothResponseToken decoded = new BluetoothTokenCodec().decode(buffer);
+        assertFalse(buffer.hasRemaining());
+        return decoded;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    private static final int _A = BluetoothDeviceRegistry.intern("a");
+    private static final int _B = BluetoothDeviceRegistry.intern("b");
+    private static final int _C = BluetoothDeviceRegistry.intern("c");
+    private static final int _D = BluetoothDeviceRegistry.intern("d");
+}
@@ -0,0 +1,85 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import ptolemy.data.BooleanToken;
+import ptolemy.data.Token;
+import ptolemy.kernel.util.IllegalActionException;
+
+/**
+ * This class represents a batch of data tokens sent from one BluetoothDevice actor to another in a single RESPONSE_OK BluetoothResponseToken.
+ * It is used by the bulk transfer mode of COMMAND_SENDDATA, and is unbatched by the receiving BluetoothDevice, which outputs one status token per
+ * element of the batch.
+ * <p>
+ * Construction of an object of this class requires the array of tokens in the batch. The array is copied, so the fields of this class are immutable.
+ * <p>
+ * The toString() method will return the elements of the batch between braces, separated by commas.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothDevice
+ * @see BluetoothResponseToken
+ */
+public class BluetoothBatchToken extends BluetoothToken {
+
+    /**
+     * Construct a batch holding the first length tokens of the given array.
+     * @param tokens : The tokens of the batch.
+     * @param length : The number of tokens of the array in the batch.
+     */
+    public BluetoothBatchToken(Token[] tokens, int length) {
+        this._tokens = new Token[length];
+        System.arraycopy(tokens, 0, this._tokens, 0, length);
+    }
+    
+    /**
+     * Get the token at the given position in the batch.
+     * @param index : The position of the token.
+     * @return The token.
+     */
+    public Token getElement(int index) {
+        return this._tokens[index];
+    }
+    
+    /**
+     * Get the number of tokens in the batch.
+     * @return The number of tokens.
+     */
+    public int length() {
+        return this._tokens.length;
+    }
+    
+    @Override
+    public BooleanToken isEqualTo(Token rightArgument)
+            throws IllegalActionException {
+        if (rightArgument instanceof BluetoothBatchToken) {
+            BluetoothBatchToken right = (BluetoothBatchToken) rightArgument;
+            if (right.length() != this._tokens.length) {
+                return BooleanToken.FALSE;
+            }
+            for (int i = 0; i < this._tokens.length; i++) {
+                if (!this._tokens[i].isEqualTo(right.getElement(i)).booleanValue()) {
+                    return BooleanToken.FALSE;
+                }
+            }
+            return BooleanToken.TRUE;
+        }
+        else {
+            throw new IllegalActionException("The argument must be of type BluetoothBatchToken");
+        }
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("{");
+        for (int i = 0; i < this._tokens.length; i++) {
+            if (i > 0) {
+                result.append(", ");
+            }
+            result.append(this._tokens[i]);
+        }
+        return result.append("}").toString();
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private final Token[] _tokens;
+}
@@ -0,0 +1,102 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct ByteBuffers, shared by every BluetoothDevice actor, used to reassemble the segmented payloads they receive.
+ * <p>
+ * Buffers are pooled by size class, each class holding buffers of a power of two capacity, from 256 bytes to 16 megabytes.
+ * A request larger than the largest class is served by a new heap buffer that is never pooled. At most MAX_POOLED buffers
+ * are kept per class, and a released buffer that does not fit is left to the garbage collector.
+ * <p>
+ * The pool is safe for concurrent use.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothBufferToken
+ */
+public final class BluetoothBufferPool {
+
+    private BluetoothBufferPool() {
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public variables                  ////
+    
+    /** The largest number of buffers kept per size class. */
+    public static final int MAX_POOLED = 64;
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+    
+    /** Return a buffer with room for the given number of bytes, whose position is 0 and whose limit is the requested capacity.
+     *  The content of the buffer is undefined.
+     *  @param capacity The number of bytes needed.
+     *  @return The buffer.
+     */
+    public static ByteBuffer acquire(int capacity) {
+        int sizeClass = _sizeClass(capacity);
+        if (sizeClass < 0) {
+            return ByteBuffer.allocate(capacity);
+        }
+        ByteBuffer buffer = _POOLS[sizeClass].poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(_MIN_CAPACITY << sizeClass);
+        }
+        else {
+            _SIZES[sizeClass].decrementAndGet();
+        }
+        buffer.clear();
+        buffer.limit(capacity);
+        return buffer;
+    }
+    
+    /** Return a buffer to the pool. The buffer must have been acquired from the pool, and must not be used afterwards.
+     *  @param buffer The buffer.
+     */
+    public static void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        int sizeClass = _sizeClass(capacity);
+        if (sizeClass < 0 || (_MIN_CAPACITY << sizeClass) != capacity) {
+            return;
+        }
+        if (_SIZES[sizeClass].incrementAndGet() > MAX_POOLED) {
+            _SIZES[sizeClass].decrementAndGet();
+            return;
+        }
+        _POOLS[sizeClass].offer(buffer);
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+    
+    /** Return the smallest size class holding the given capacity, or -1 if it is too large. */
+    private static int _sizeClass(int capacity) {
+        if (capacity <= _MIN_CAPACITY) {
+            return 0;
+        }
+        int sizeClass = 32 - Integer.numberOfLeadingZeros(capacity - 1) - _MIN_SHIFT;
+        return sizeClass < _CLASSES ? sizeClass : -1;
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private static final int _MIN_SHIFT = 8;
+    private static final int _MIN_CAPACITY = 1 << _MIN_SHIFT;
+    private static final int _CLASSES = 24 - _MIN_SHIFT + 1;
+    
+    private static final ConcurrentLinkedQueue<ByteBuffer>[] _POOLS = new ConcurrentLinkedQueue[_CLASSES];
+    private static final AtomicInteger[] _SIZES = new AtomicInteger[_CLASSES];
+    
+    static {
+        for (int i = 0; i < _CLASSES; i++) {
+            _POOLS[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+            _SIZES[i] = new AtomicInteger();
+        }
+    }
+}
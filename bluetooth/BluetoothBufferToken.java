@@ -0,0 +1,119 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ptolemy.data.BooleanToken;
+import ptolemy.data.Token;
+import ptolemy.kernel.util.IllegalActionException;
+
+/**
+ * This class represents a binary payload sent with COMMAND_SENDDATA, held in a ByteBuffer instead of a token per element.
+ * <p>
+ * A token is a read-only view of a range of bytes of a buffer. Constructing a token and slicing it do not copy the bytes, so a
+ * BluetoothDevice segments a large payload into views of the original buffer. The buffer given to the constructor must not be
+ * modified afterwards.
+ * <p>
+ * The payloads reassembled by a BluetoothDevice are held in buffers of the BluetoothBufferPool. A downstream actor that is done
+ * with such a token may call release() to return its buffer to the pool, after which neither the token nor any view of it may be used.
+ * Tokens that are not released are simply reclaimed by the garbage collector.
+ * <p>
+ * The toString() method returns the number of bytes of the payload, not its content.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothDevice
+ * @see BluetoothBufferPool
+ */
+public class BluetoothBufferToken extends BluetoothToken {
+
+    /**
+     * Construct a token viewing the bytes of the given array. The array is not copied.
+     * @param bytes : The bytes of the payload.
+     */
+    public BluetoothBufferToken(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes), false);
+    }
+    
+    /**
+     * Construct a token viewing the remaining bytes of the given buffer. The bytes are not copied.
+     * @param buffer : The buffer, whose position and limit delimit the payload.
+     */
+    public BluetoothBufferToken(ByteBuffer buffer) {
+        this(buffer, false);
+    }
+    
+    /**
+     * Construct a token viewing the remaining bytes of the given buffer, which may be returned to the pool when the token is released.
+     * @param buffer : The buffer, whose position and limit delimit the payload.
+     * @param pooled : True if the buffer was acquired from the BluetoothBufferPool.
+     */
+    BluetoothBufferToken(ByteBuffer buffer, boolean pooled) {
+        this._buffer = buffer.slice().asReadOnlyBuffer();
+        this._pooled = pooled ? buffer : null;
+    }
+    
+    /**
+     * Return a read-only view of the payload, whose position is 0 and whose limit is the length of the payload.
+     * @return The view.
+     */
+    public ByteBuffer getBuffer() {
+        return this._buffer.duplicate();
+    }
+    
+    /**
+     * Return the number of bytes of the payload.
+     * @return The length of the payload.
+     */
+    public int length() {
+        return this._buffer.limit();
+    }
+    
+    /**
+     * Return the buffer of this token to the BluetoothBufferPool, if it was acquired from it. This token must not be used afterwards.
+     */
+    public void release() {
+        if (this._pooled != null && this._released.compareAndSet(false, true)) {
+            BluetoothBufferPool.release(this._pooled);
+        }
+    }
+    
+    /**
+     * Return a token viewing a range of the payload of this token. The bytes are not copied.
+     * @param offset : The position of the first byte of the range in the payload.
+     * @param length : The number of bytes of the range.
+     * @return The token viewing the range.
+     * @exception IndexOutOfBoundsException If the range is not within the payload.
+     */
+    public BluetoothBufferToken slice(int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > length()) {
+            throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " out of a payload of " + length() + " bytes.");
+        }
+        ByteBuffer view = this._buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return new BluetoothBufferToken(view, false);
+    }
+    
+    @Override
+    public BooleanToken isEqualTo(Token rightArgument)
+            throws IllegalActionException {
+        if (rightArgument instanceof BluetoothBufferToken) {
+            return this._buffer.equals(((BluetoothBufferToken) rightArgument)._buffer) ? BooleanToken.TRUE : BooleanToken.FALSE;
+        }
+        else {
+            throw new IllegalActionException("The argument must be of type BluetoothBufferToken");
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "buffer(" + length() + " bytes)";
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private final ByteBuffer _buffer;
+    private final ByteBuffer _pooled;
+    private final AtomicBoolean _released = new AtomicBoolean();
+}
@@ -0,0 +1,413 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import javax.management.JMException;
+
+import ptolemy.actor.Receiver;
+import ptolemy.actor.util.Time;
+import ptolemy.data.BooleanToken;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.RecordToken;
+import ptolemy.data.Token;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.domains.wireless.kernel.AtomicWirelessChannel;
+import ptolemy.domains.wireless.kernel.WirelessIOPort;
+import ptolemy.domains.wireless.kernel.WirelessReceiver;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.Attribute;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+import ptolemy.util.MessageHandler;
+
+/**
+ * This channel delivers a BluetoothResponseToken only to the device it is addressed to, instead of delivering it to every port listening on the channel.
+ * <p>
+ * A BluetoothDevice discards every token that is not addressed to it or to the "scan" broadcast address, so delivering a unicast token to every
+ * listening device makes each unicast message cost as much as a broadcast. This channel keeps an index from the BluetoothDeviceRegistry handle of each
+ * listening BluetoothDevice to the receivers of its wireless input port, and transmits a unicast token to those receivers only. Tokens addressed to
+ * "scan", and tokens that are not BluetoothResponseTokens, are delivered to every listening port as by AtomicWirelessChannel. A token addressed to
+ * several devices, see BluetoothResponseToken.getDestinations(), is delivered to the receivers of each of them, so that a single token reaches a group.
+ * <p>
+ * Listening ports that do not belong to a BluetoothDevice receive every token, so that monitors on the channel observe the same traffic as before.
+ * If any port listens to this channel from the inside of a composite, this channel does not use its index and behaves as AtomicWirelessChannel.
+ * <p>
+ * The index is rebuilt whenever the workspace version changes.
+ * <p>
+ * If metricsEnabled is true, the responses transmitted and delivered by this channel are counted per response type, and published
+ * as an MXBean while the model executes, see BluetoothMetrics.
+ * <p>
+ * If propagationDelay is positive, every token is delivered that much model time after it is transmitted. This channel then fires
+ * itself at the delivery times, as DelayChannel does, and delivers the tokens due at the same time ordered by the name of their source
+ * device, then in transmission order, so that the order does not depend on which actor transmitted first. A positive delay is the
+ * lookahead that lets a BluetoothShardBridge run the devices of this channel in several processes.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothDevice
+ * @see BluetoothDeviceRegistry
+ */
+public class BluetoothChannel extends AtomicWirelessChannel {
+
+    /** Construct a channel with the given name and container.
+     *  @param container The container.
+     *  @param name The name of the channel.
+     *  @exception IllegalActionException If the container is incompatible.
+     *  @exception NameDuplicationException If the name coincides with an element already in the container.
+     */
+    public BluetoothChannel(CompositeEntity container, String name)
+            throws IllegalActionException, NameDuplicationException {
+        super(container, name);
+        
+        metricsEnabled = new Parameter(this, "metricsEnabled");
+        metricsEnabled.setTypeEquals(BaseType.BOOLEAN);
+        metricsEnabled.setExpression("false");
+        
+        dumpMetrics = new Parameter(this, "dumpMetrics");
+        dumpMetrics.setTypeEquals(BaseType.BOOLEAN);
+        dumpMetrics.setExpression("false");
+        
+        propagationDelay = new Parameter(this, "propagationDelay");
+        propagationDelay.setTypeEquals(BaseType.DOUBLE);
+        propagationDelay.setExpression("0.0");
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         parameters                        ////
+    
+    /** If true, the responses transmitted and delivered by this channel are counted. This is a boolean that defaults to false. */
+    public Parameter metricsEnabled;
+    
+    /** If true and metricsEnabled is true, a summary of the counters is reported through the MessageHandler when the execution
+     *  ends. This is a boolean that defaults to false.
+     */
+    public Parameter dumpMetrics;
+    
+    /** The model time between the transmission of a token and its delivery. This is a double that defaults to 0.0,
+     *  which means that tokens are delivered as soon as they are transmitted.
+     */
+    public Parameter propagationDelay;
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+    
+    /** Check that the propagation delay is not negative.
+     *  @param attribute The attribute that changed.
+     *  @exception IllegalActionException If the propagation delay is negative, or if the superclass throws it.
+     */
+    @Override
+    public void attributeChanged(Attribute attribute) throws IllegalActionException {
+        if (attribute == propagationDelay) {
+            double value = ((DoubleToken) propagationDelay.getToken()).doubleValue();
+            if (value < 0.0) {
+                throw new IllegalActionException(this, "propagationDelay cannot be negative: " + value);
+            }
+            _propagationDelay = value;
+        }
+        else {
+            super.attributeChanged(attribute);
+        }
+    }
+    
+    /** Deliver the tokens whose propagation delay has elapsed.
+     *  @exception IllegalActionException If a token cannot be delivered.
+     */
+    @Override
+    public void fire() throws IllegalActionException {
+        super.fire();
+        Time now = getDirector().getModelTime();
+        while (!_pending.isEmpty() && _pending.peek().time.compareTo(now) <= 0) {
+            _Delivery delivery = _pending.poll();
+            _deliver(delivery.token, delivery.sender, delivery.receiver, delivery.properties);
+        }
+    }
+    
+    /** Return the counters of this channel, if metricsEnabled was true when the execution was initialized.
+     *  @return The counters, or null.
+     */
+    public BluetoothMetrics getMetrics() {
+        return _metrics;
+    }
+    
+    /** Forget the tokens still propagating in a previous execution, and publish the counters of this channel, if enabled.
+     *  @exception IllegalActionException If the counters cannot be published, or if the superclass throws it.
+     */
+    @Override
+    public void initialize() throws IllegalActionException {
+        super.initialize();
+        _pending.clear();
+        _sequence = 0;
+        _lastRequestedTime = null;
+        _metrics = null;
+        if (((BooleanToken) metricsEnabled.getToken()).booleanValue()) {
+            _metrics = new BluetoothMetrics(getFullName(), new String[0]);
+            try {
+                _metrics.register("BluetoothChannel");
+            } catch (JMException ex) {
+                throw new IllegalActionException(this, ex, "Cannot publish the metrics of this channel.");
+            }
+        }
+    }
+    
+    /** Transmit the specified token from the specified port. A BluetoothResponseToken that is not addressed to "scan"
+     *  is transmitted to the receivers of the addressed devices that are in range, and to every listening port that
+     *  does not belong to a BluetoothDevice. Any other token is transmitted by the superclass.
+     *  @param token The token to transmit, or null to clear the receivers.
+     *  @param port The port from which this is being transmitted.
+     *  @param properties Properties of the transmission, or null to use the default properties.
+     *  @exception IllegalActionException If a type conflict occurs, or the director is not a WirelessDirector.
+     */
+    @Override
+    public void transmit(Token token, WirelessIOPort port, RecordToken properties)
+            throws IllegalActionException {
+        if (_metrics != null && token instanceof BluetoothResponseToken) {
+            _metrics.sent(((BluetoothResponseToken) token).getResponse());
+        }
+        if (_bridge != null && token instanceof BluetoothResponseToken && port.getContainer() instanceof BluetoothDevice) {
+            _bridge._forward(this, (BluetoothResponseToken) token);
+        }
+        if (!(token instanceof BluetoothResponseToken)
+                || ((BluetoothResponseToken) token).getDeviceHandle() == BluetoothDeviceRegistry.BROADCAST) {
+            super.transmit(token, port, properties);
+            return;
+        }
+        try {
+            workspace().getReadAccess();
+            _updateIndex();
+            if (_indexDisabled) {
+                super.transmit(token, port, properties);
+                return;
+            }
+            _transmitToDestinations((BluetoothResponseToken) token, port, properties);
+            _transmitToAll(token, port, _otherReceivers, properties);
+        } finally {
+            workspace().doneReading();
+        }
+    }
+    
+    /** Withdraw the counters of this channel, reporting their summary if dumpMetrics is true.
+     *  @exception IllegalActionException If the counters cannot be withdrawn, or if the superclass throws it.
+     */
+    @Override
+    public void wrapup() throws IllegalActionException {
+        super.wrapup();
+        if (_metrics != null) {
+            if (((BooleanToken) dumpMetrics.getToken()).booleanValue()) {
+                MessageHandler.message(_metrics.summary());
+            }
+            try {
+                _metrics.unregister();
+            } catch (JMException ex) {
+                throw new IllegalActionException(this, ex, "Cannot withdraw the metrics of this channel.");
+            }
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         package methods                   ////
+    
+    /** Attach the bridge to which the tokens transmitted by the devices on this channel are handed, or detach it.
+     *  @param bridge The bridge, or null.
+     */
+    void _setBridge(BluetoothShardBridge bridge) {
+        _bridge = bridge;
+    }
+    
+    /** Transmit a token received from another shard, as if it had been transmitted at the given time by a device of this model.
+     *  The token is delivered after the propagation delay, counted from the given time, to the BluetoothDevice actors it is
+     *  addressed to, but not to the other actors listening to this channel, which only see the traffic of this shard.
+     *  @param token The token.
+     *  @param sendTime The model time at which the token was transmitted in the other shard.
+     *  @exception IllegalActionException If a port listens to this channel from the inside of a composite, or if the token cannot be delivered.
+     */
+    void _transmitRemote(BluetoothResponseToken token, Time sendTime) throws IllegalActionException {
+        RecordToken properties = (RecordToken) defaultProperties.getToken();
+        try {
+            workspace().getReadAccess();
+            _updateIndex();
+            if (_indexDisabled) {
+                throw new IllegalActionException(this, "Cannot deliver the tokens of another shard to a port listening from the inside of a composite.");
+            }
+            _transmitTime = sendTime;
+            int destination = token.getDeviceHandle();
+            if (destination == BluetoothDeviceRegistry.BROADCAST) {
+                for (WirelessReceiver[] receivers : _receiversByHandle) {
+                    if (receivers != null) {
+                        _transmitToAll(token, null, receivers, properties);
+                    }
+                }
+            }
+            else {
+                _transmitToDestinations(token, null, properties);
+            }
+        } finally {
+            _transmitTime = null;
+            workspace().doneReading();
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         protected methods                 ////
+    
+    /** Deliver a token to a receiver, or keep it until the propagation delay has elapsed. Deliveries are counted if metrics are enabled.
+     *  @param token The token to deliver.
+     *  @param sender The port from which the token is transmitted.
+     *  @param receiver The receiver.
+     *  @param properties The properties of the transmission.
+     *  @exception IllegalActionException If the superclass throws it.
+     */
+    @Override
+    protected void _transmitTo(Token token, WirelessIOPort sender, WirelessReceiver receiver, RecordToken properties)
+            throws IllegalActionException {
+        if (_propagationDelay == 0.0 || token == null) {
+            _deliver(token, sender, receiver, properties);
+            return;
+        }
+        Time time = (_transmitTime != null ? _transmitTime : getDirector().getModelTime()).add(_propagationDelay);
+        String source = token instanceof BluetoothResponseToken ? ((BluetoothResponseToken) token).getSourceIdentifier() : null;
+        _pending.add(new _Delivery(time, source == null ? "" : source, _sequence++, token, sender, receiver, properties));
+        if (_lastRequestedTime == null || time.compareTo(_lastRequestedTime) != 0) {
+            getDirector().fireAt(this, time);
+            _lastRequestedTime = time;
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+    
+    /** Deliver a token to a receiver now, counting the delivery if metrics are enabled. */
+    private void _deliver(Token token, WirelessIOPort sender, WirelessReceiver receiver, RecordToken properties)
+            throws IllegalActionException {
+        if (_metrics != null && token instanceof BluetoothResponseToken) {
+            _metrics.received(((BluetoothResponseToken) token).getResponse());
+        }
+        super._transmitTo(token, sender, receiver, properties);
+    }
+    
+    /** Transmit the token to every receiver in the array that is in range of the source port, or to every receiver if there is no source port. */
+    private void _transmitToAll(Token token, WirelessIOPort port, WirelessReceiver[] receivers, RecordToken properties)
+            throws IllegalActionException {
+        for (WirelessReceiver receiver : receivers) {
+            if (port == null || _isInRange(port, receiver, properties)) {
+                _transmitTo(token, port, receiver, properties);
+            }
+        }
+    }
+    
+    /** Transmit a token to the receivers of the device it is addressed to, or of each of its destinations, using the index. */
+    private void _transmitToDestinations(BluetoothResponseToken token, WirelessIOPort port, RecordToken properties)
+            throws IllegalActionException {
+        int[] destinations = token._getDestinations();
+        if (destinations == null) {
+            int destination = token.getDeviceHandle();
+            if (destination >= 0 && destination < _receiversByHandle.length && _receiversByHandle[destination] != null) {
+                _transmitToAll(token, port, _receiversByHandle[destination], properties);
+            }
+            return;
+        }
+        for (int destination : destinations) {
+            if (destination < _receiversByHandle.length && _receiversByHandle[destination] != null) {
+                _transmitToAll(token, port, _receiversByHandle[destination], properties);
+            }
+        }
+    }
+    
+    /** Rebuild the destination index if the workspace has changed since it was built. */
+    private void _updateIndex() throws IllegalActionException {
+        long version = workspace().getVersion();
+        if (version == _indexVersion) {
+            return;
+        }
+        _indexDisabled = !listeningOutputPorts().isEmpty();
+        
+        ArrayList<WirelessReceiver>[] byHandle = new ArrayList[BluetoothDeviceRegistry.size()];
+        ArrayList<WirelessReceiver> others = new ArrayList<WirelessReceiver>();
+        Iterator ports = listeningInputPorts().iterator();
+        while (ports.hasNext()) {
+            WirelessIOPort port = (WirelessIOPort) ports.next();
+            ArrayList<WirelessReceiver> target = others;
+            if (port.getContainer() instanceof BluetoothDevice) {
+                int handle = BluetoothDeviceRegistry.intern(port.getContainer().getName());
+                if (handle >= byHandle.length) {
+                    byHandle = Arrays.copyOf(byHandle, BluetoothDeviceRegistry.size());
+                }
+                if (byHandle[handle] == null) {
+                    byHandle[handle] = new ArrayList<WirelessReceiver>();
+                }
+                target = byHandle[handle];
+            }
+            Receiver[][] receivers = port.getReceivers();
+            for (int i = 0; i < receivers.length; i++) {
+                for (int j = 0; j < receivers[i].length; j++) {
+                    target.add((WirelessReceiver) receivers[i][j]);
+                }
+            }
+        }
+        
+        _receiversByHandle = new WirelessReceiver[byHandle.length][];
+        for (int handle = 0; handle < byHandle.length; handle++) {
+            if (byHandle[handle] != null) {
+                _receiversByHandle[handle] = byHandle[handle].toArray(new WirelessReceiver[byHandle[handle].size()]);
+            }
+        }
+        _otherReceivers = others.toArray(new WirelessReceiver[others.size()]);
+        _indexVersion = version;
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private BluetoothShardBridge _bridge;
+    private boolean _indexDisabled;
+    private BluetoothMetrics _metrics;
+    private long _indexVersion = -1;
+    private WirelessReceiver[] _otherReceivers = new WirelessReceiver[0];
+    private WirelessReceiver[][] _receiversByHandle = new WirelessReceiver[0][];
+    
+    // The tokens still propagating, by delivery time, source name and transmission order.
+    private double _propagationDelay;
+    private final PriorityQueue<_Delivery> _pending = new PriorityQueue<_Delivery>(11, new Comparator<_Delivery>() {
+        @Override
+        public int compare(_Delivery first, _Delivery second) {
+            int result = first.time.compareTo(second.time);
+            if (result == 0) {
+                result = first.source.compareTo(second.source);
+            }
+            return result != 0 ? result : Long.compare(first.sequence, second.sequence);
+        }
+    });
+    private long _sequence;
+    private Time _lastRequestedTime;
+    
+    // The time at which the token being transmitted was sent, if it was not sent now.
+    private Time _transmitTime;
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         inner classes                     ////
+    
+    /** A token waiting for its propagation delay to elapse. */
+    private static class _Delivery {
+        _Delivery(Time time, String source, long sequence, Token token, WirelessIOPort sender, WirelessReceiver receiver,
+                RecordToken properties) {
+            this.time = time;
+            this.source = source;
+            this.sequence = sequence;
+            this.token = token;
+            this.sender = sender;
+            this.receiver = receiver;
+            this.properties = properties;
+        }
+        
+        final Time time;
+        final String source;
+        final long sequence;
+        final Token token;
+        final WirelessIOPort sender;
+        final WirelessReceiver receiver;
+        final RecordToken properties;
+    }
+}
@@ -0,0 +1,284 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+
+/**
+ * This class saves the state of every BluetoothDevice of a model in a compact binary file, from which the devices restore it when
+ * their checkpointFile parameter names the file, so that an execution can start from a population that has already found, paired
+ * and connected with its peers instead of going through discovery and the handshakes again.
+ * <p>
+ * The state of a device is its state, whether it is discoverable, the devices it has found, from the most to the least recently seen,
+ * and the devices it is paired and connected with. The requests awaiting an answer, the payloads being reassembled and the timers of
+ * an inquiry are not saved, and a device restored while scanning starts a new inquiry.
+ * <p>
+ * The file starts with a header, followed by a dictionary holding the name of every device referred to, and by one record per device.
+ * A record refers to the devices by their index in the dictionary, and holds the indices of the paired and connected devices in
+ * increasing order, as the differences between consecutive indices. The integers are written as in BluetoothTokenCodec, 7 bits per byte.
+ * <p>
+ * A file is read once, however many devices restore from it, unless it is written again. The names of the devices are interned with
+ * the BluetoothDeviceRegistry when the file is read.
+ *
+ * @author Phillip Azar
+ * @see BluetoothDevice
+ */
+public class BluetoothCheckpoint {
+
+    private BluetoothCheckpoint(HashMap<Integer, DeviceState> states, long modified) {
+        _states = states;
+        _modified = modified;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+
+    /**
+     * Return the checkpoint saved in a file, reading it unless it was read since it was last written.
+     * @param path : The name of the file.
+     * @return The checkpoint.
+     * @exception IllegalActionException If the file cannot be read, or is not a checkpoint.
+     */
+    public static BluetoothCheckpoint load(String path) throws IllegalActionException {
+        File file = new File(path).getAbsoluteFile();
+        synchronized (_LOADED) {
+            BluetoothCheckpoint checkpoint = _LOADED.get(file);
+            if (checkpoint != null && checkpoint._modified == file.lastModified()) {
+                return checkpoint;
+            }
+            try {
+                checkpoint = _read(file);
+            } catch (IOException | RuntimeException ex) {
+                throw new IllegalActionException(null, ex, "Cannot read Bluetooth checkpoint " + file);
+            }
+            _LOADED.put(file, checkpoint);
+            return checkpoint;
+        }
+    }
+
+    /**
+     * Return the number of devices whose state is saved in this checkpoint.
+     * @return The number of devices.
+     */
+    public int size() {
+        return _states.size();
+    }
+
+    /**
+     * Save the state of every BluetoothDevice of a model, at any depth, in a file, replacing its content.
+     * @param model : The model.
+     * @param path : The name of the file.
+     * @return The number of devices saved.
+     * @exception IllegalActionException If the file cannot be written.
+     */
+    public static int write(CompositeEntity model, String path) throws IllegalActionException {
+        List<BluetoothDevice> devices = new ArrayList<BluetoothDevice>();
+        for (Object entity : model.deepEntityList()) {
+            if (entity instanceof BluetoothDevice) {
+                devices.add((BluetoothDevice) entity);
+            }
+        }
+
+        // Give every device referred to an index in the dictionary, in order of appearance.
+        DeviceState[] states = new DeviceState[devices.size()];
+        int[] indices = new int[0];
+        List<String> names = new ArrayList<String>();
+        int size = 18;
+        for (int i = 0; i < states.length; i++) {
+            BluetoothDevice device = devices.get(i);
+            states[i] = device._checkpoint();
+            int handle = BluetoothDeviceRegistry.intern(device.getName());
+            indices = _index(handle, indices, names);
+            for (int[] set : new int[][] { states[i].found, states[i].paired, states[i].connected }) {
+                for (int found : set) {
+                    indices = _index(found, indices, names);
+                }
+                size += 5 + 5 * set.length;
+            }
+            size += 7;
+        }
+        for (String name : names) {
+            size += 5 + 3 * name.length();
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(_MAGIC);
+        out.putInt(_VERSION);
+        BluetoothTokenCodec.writeVarInt(names.size(), out);
+        for (String name : names) {
+            BluetoothTokenCodec.writeString(name, out);
+        }
+        BluetoothTokenCodec.writeVarInt(states.length, out);
+        for (int i = 0; i < states.length; i++) {
+            DeviceState state = states[i];
+            BluetoothTokenCodec.writeVarInt(indices[BluetoothDeviceRegistry.intern(devices.get(i).getName())], out);
+            out.put((byte) state.state);
+            out.put((byte) (state.discoverable ? 1 : 0));
+            BluetoothTokenCodec.writeVarInt(state.found.length, out);
+            for (int found : state.found) {
+                BluetoothTokenCodec.writeVarInt(indices[found], out);
+            }
+            _writeSet(state.paired, indices, out);
+            _writeSet(state.connected, indices, out);
+        }
+        out.flip();
+
+        File file = new File(path).getAbsoluteFile();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        } catch (IOException ex) {
+            throw new IllegalActionException(model, ex, "Cannot write Bluetooth checkpoint " + file);
+        }
+        synchronized (_LOADED) {
+            _LOADED.remove(file);
+        }
+        return states.length;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         package methods                   ////
+
+    /**
+     * Return the state saved for a device.
+     * @param handle : The BluetoothDeviceRegistry handle of the device.
+     * @return The state, or null if the state of the device is not saved in this checkpoint.
+     */
+    DeviceState _getDeviceState(int handle) {
+        return _states.get(handle);
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Give a device an index in the dictionary, if it has none, growing the table of indices as needed. */
+    private static int[] _index(int handle, int[] indices, List<String> names) {
+        if (handle >= indices.length) {
+            int length = indices.length;
+            indices = Arrays.copyOf(indices, Math.max(handle + 1, length * 2));
+            Arrays.fill(indices, length, indices.length, -1);
+        }
+        if (indices[handle] < 0) {
+            indices[handle] = names.size();
+            names.add(BluetoothDeviceRegistry.getName(handle));
+        }
+        return indices;
+    }
+
+    /** Read a checkpoint file. */
+    private static BluetoothCheckpoint _read(File file) throws IOException {
+        long modified = file.lastModified();
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.remaining() < 8 || in.getInt() != _MAGIC) {
+            throw new IOException("Not a Bluetooth checkpoint.");
+        }
+        int version = in.getInt();
+        if (version != _VERSION) {
+            throw new IOException("Unsupported Bluetooth checkpoint version " + version);
+        }
+        int[] handles = new int[BluetoothTokenCodec.readVarInt(in)];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = BluetoothDeviceRegistry.intern(BluetoothTokenCodec.readString(in));
+        }
+        int devices = BluetoothTokenCodec.readVarInt(in);
+        HashMap<Integer, DeviceState> states = new HashMap<Integer, DeviceState>(devices * 2);
+        for (int i = 0; i < devices; i++) {
+            int handle = handles[BluetoothTokenCodec.readVarInt(in)];
+            int state = in.get();
+            boolean discoverable = in.get() != 0;
+            int[] found = new int[BluetoothTokenCodec.readVarInt(in)];
+            for (int j = 0; j < found.length; j++) {
+                found[j] = handles[BluetoothTokenCodec.readVarInt(in)];
+            }
+            states.put(handle, new DeviceState(state, discoverable, found, _readSet(in, handles), _readSet(in, handles)));
+        }
+        return new BluetoothCheckpoint(states, modified);
+    }
+
+    /** Read a set written by _writeSet(), as handles. */
+    private static int[] _readSet(ByteBuffer in, int[] handles) {
+        int[] set = new int[BluetoothTokenCodec.readVarInt(in)];
+        int index = 0;
+        for (int i = 0; i < set.length; i++) {
+            index += BluetoothTokenCodec.readVarInt(in);
+            set[i] = handles[index];
+        }
+        return set;
+    }
+
+    /** Write a set of handles as its size followed by the differences between its sorted dictionary indices. */
+    private static void _writeSet(int[] set, int[] indices, ByteBuffer out) {
+        int[] sorted = new int[set.length];
+        for (int i = 0; i < set.length; i++) {
+            sorted[i] = indices[set[i]];
+        }
+        Arrays.sort(sorted);
+        BluetoothTokenCodec.writeVarInt(sorted.length, out);
+        int previous = 0;
+        for (int index : sorted) {
+            BluetoothTokenCodec.writeVarInt(index - previous, out);
+            previous = index;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         inner classes                     ////
+
+    /**
+     * The state of a device, with the devices it refers to as BluetoothDeviceRegistry handles.
+     */
+    static final class DeviceState {
+        DeviceState(int state, boolean discoverable, int[] found, int[] paired, int[] connected) {
+            this.state = state;
+            this.discoverable = discoverable;
+            this.found = found;
+            this.paired = paired;
+            this.connected = connected;
+        }
+
+        /** Return the handles of the devices in a set. */
+        static int[] handles(BitSet set) {
+            int[] handles = new int[set.cardinality()];
+            int i = 0;
+            for (int handle = set.nextSetBit(0); handle >= 0; handle = set.nextSetBit(handle + 1)) {
+                handles[i++] = handle;
+            }
+            return handles;
+        }
+
+        /** The ordinal of the state of the device. */
+        final int state;
+        final boolean discoverable;
+        /** The devices found, from the most to the least recently seen. */
+        final int[] found;
+        final int[] paired;
+        final int[] connected;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    private static final int _MAGIC = 0x42544350;
+    private static final int _VERSION = 1;
+
+    // The checkpoints read, by file.
+    private static final HashMap<File, BluetoothCheckpoint> _LOADED = new HashMap<File, BluetoothCheckpoint>();
+
+    private final long _modified;
+    private final HashMap<Integer, DeviceState> _states;
+}
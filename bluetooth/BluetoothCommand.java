@@ -3,12 +3,18 @@
  */
 package ptolemy.domains.wireless.lib.bluetooth;
 
+import java.util.HashMap;
+import java.util.Locale;
+
 /**
  * This class defines all allowable Bluetooth Wired commands, that wil be parsed within the Bluetooth Device actor.
+ * <p>
+ * The string form of a command is the lower case equivalent of the part of its name after COMMAND_, e.g. "switchon" for COMMAND_SWITCHON.
  * 
  * @author Phillip Azar
  *
  * @see BluetoothDevice
+ * @see BluetoothCommandToken
  */
 public enum BluetoothCommand {
     COMMAND_SWITCHON,
@@ -22,5 +28,50 @@ public enum BluetoothCommand {
     COMMAND_DISCOVERABLE,
     COMMAND_HIDE,
     COMMAND_SENDDATA,
-    COMMAND_NOCOMMAND
+    COMMAND_NOCOMMAND,
+    COMMAND_ADVERTISE,
+    COMMAND_STOPADVERTISE,
+    COMMAND_OBSERVE,
+    COMMAND_STOPOBSERVE;
+    
+    /**
+     * Return the command with the given ordinal, without copying the array returned by values().
+     * @param ordinal : The ordinal of the command.
+     * @return The command, or null if the ordinal is out of range.
+     */
+    public static BluetoothCommand fromOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= _VALUES.length) {
+            return null;
+        }
+        return _VALUES[ordinal];
+    }
+    
+    /**
+     * Return the command whose string form is the given string.
+     * @param command : The string form of a command, e.g. "switchon".
+     * @return The command, or COMMAND_NOCOMMAND if the string is not the string form of any command.
+     */
+    public static BluetoothCommand fromString(String command) {
+        BluetoothCommand result = _BY_STRING.get(command);
+        return result == null ? COMMAND_NOCOMMAND : result;
+    }
+    
+    /**
+     * Return the string form of this command.
+     * @return The lower case equivalent of the name of this command after COMMAND_.
+     */
+    public String toCommandString() {
+        return name().substring("COMMAND_".length()).toLowerCase(Locale.ROOT);
+    }
+    
+    private static final BluetoothCommand[] _VALUES = values();
+    private static final HashMap<String, BluetoothCommand> _BY_STRING = new HashMap<String, BluetoothCommand>();
+    
+    static {
+        for (BluetoothCommand command : _VALUES) {
+            if (command != COMMAND_NOCOMMAND) {
+                _BY_STRING.put(command.toCommandString(), command);
+            }
+        }
+    }
 }
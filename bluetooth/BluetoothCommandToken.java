@@ -0,0 +1,73 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import ptolemy.data.BooleanToken;
+import ptolemy.data.Token;
+import ptolemy.kernel.util.IllegalActionException;
+
+/**
+ * This class represents a BluetoothCommand sent to the wired input port of a BluetoothDevice actor. It is the typed alternative to
+ * sending the string form of the command: the actor reads the command directly from the token instead of parsing a string.
+ * <p>
+ * There is exactly one instance of this class per BluetoothCommand element, which is obtained with getInstance(). Sending one of these
+ * instances therefore allocates nothing.
+ * <p>
+ * The toString() method will return the string form of the command, e.g. "switchon".
+ * 
+ * @author Phillip Azar
+ * @see BluetoothCommand
+ * @see BluetoothDevice
+ */
+public class BluetoothCommandToken extends BluetoothToken {
+
+    private BluetoothCommandToken(BluetoothCommand command) {
+        this._command = command;
+    }
+    
+    /**
+     * Return the shared token for the given command.
+     * @param command : The command.
+     * @return The token carrying the command.
+     */
+    public static BluetoothCommandToken getInstance(BluetoothCommand command) {
+        return _INSTANCES[command.ordinal()];
+    }
+    
+    /**
+     * Get the BluetoothCommand enum element carried by this token.
+     * @return _command
+     */
+    public BluetoothCommand commandValue() {
+        return this._command;
+    }
+    
+    @Override
+    public BooleanToken isEqualTo(Token rightArgument)
+            throws IllegalActionException {
+        if (rightArgument instanceof BluetoothCommandToken) {
+            return this._command == ((BluetoothCommandToken) rightArgument).commandValue() ? BooleanToken.TRUE : BooleanToken.FALSE;
+        }
+        else {
+            throw new IllegalActionException("The argument must be of type BluetoothCommandToken");
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return this._command.toCommandString();
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private final BluetoothCommand _command;
+    
+    private static final BluetoothCommandToken[] _INSTANCES;
+    
+    static {
+        BluetoothCommand[] commands = BluetoothCommand.values();
+        _INSTANCES = new BluetoothCommandToken[commands.length];
+        for (BluetoothCommand command : commands) {
+            _INSTANCES[command.ordinal()] = new BluetoothCommandToken(command);
+        }
+    }
+}
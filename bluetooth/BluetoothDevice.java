@@ -6,10 +6,28 @@ package ptolemy.domains.wireless.lib.bluetooth;
 ///////////////////////////////////////////////////////////////////
 ////BluetoothDevice
 
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.JMException;
 
 import ptolemy.actor.TypedAtomicActor;
 import ptolemy.actor.TypedIOPort;
+import ptolemy.actor.util.Time;
+import ptolemy.data.ArrayToken;
+import ptolemy.data.BooleanToken;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.RecordToken;
 import ptolemy.data.StringToken;
 import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
@@ -18,9 +36,11 @@ import ptolemy.data.type.BaseType;
 import ptolemy.domains.wireless.kernel.WirelessDirector;
 import ptolemy.domains.wireless.kernel.WirelessIOPort;
 import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.Attribute;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 import ptolemy.kernel.util.StringAttribute;
+import ptolemy.util.MessageHandler;
 
 /**
  * This Actor is simulation of a Bluetooth adapter in a Bluetooth enabled device. The simulation is <i>functional</i>,
@@ -35,15 +55,15 @@ import ptolemy.kernel.util.StringAttribute;
  * <p>
    COMMAND_SWITCHOFF : Swtich off this bluetooth device actor.
    <p>
-   COMMAND_SCAN : Scan for other discoverable bluetooth device actors on this wireless channel.
+   COMMAND_SCAN : Scan for other discoverable bluetooth device actors on this wireless channel. While scanning, the scan is repeated as set by the inquiryInterval, maxInquiryInterval and inquiryWindow parameters.
    <p>
    COMMAND_STOPSCAN : Stop scanning for other discoverable bluetooth device actors on this wireless channel.
    <p>
-   COMMAND_CONNECT : Connect to a paired bluetooth device actor on the same wireless channel. The device name to connect must be sent to the wired input details port.
+   COMMAND_CONNECT : Connect to a paired bluetooth device actor on the same wireless channel. The device name to connect must be sent to the wired input details port. An array of device names may be sent instead, to connect to every one of them at once.
    <p>
    COMMAND_DISCONNECT : Disconnect to a connected bluetooth device actor. The device name to disconnect from must be send to the wired input details port.
    <p>
-   COMMAND_PAIR : Pair to a found bluetooth device actor on this wireless channel. The device name to pair to must be sent to the wired input details port.
+   COMMAND_PAIR : Pair to a found bluetooth device actor on this wireless channel. The device name to pair to must be sent to the wired input details port. An array of device names may be sent instead, to pair to every one of them at once.
    <p>
    COMMAND_UNPAIR : Unpair from a previously paired bluetooth device actor on this wireless channel. Note that this does not cause the other actor to unpair, a behavior particular to bluetooth. The device name to unpair from must be sent to the wired input details port.
    <p>
@@ -51,21 +71,46 @@ import ptolemy.kernel.util.StringAttribute;
    <p>
    COMMAND_HIDE : Makes this bluetooth device actor no longer discoverable.
    <p>
-   COMMAND_SENDDATA : Initiate the sending of data. The name of the device to send data to must be sent to the wired input details port. The data must be sent to the wired input data port. The device to send data to must be found, paired, and connected with this bluetooth device actor
+   COMMAND_SENDDATA : Initiate the sending of data. The name of the device to send data to must be sent to the wired input details port. The data must be sent to the wired input data port. The device to send data to must be found, paired, and connected with this bluetooth device actor. If the bulkTransfer parameter is true, all available data is sent in batches. A BluetoothBufferToken larger than maxSegmentSize bytes is sent in segments, without copying, and reassembled by the receiving device, which drops a payload whose segments stop arriving for reassemblyTimeout. If the flowControlWindow parameter is set, the data is sent through a sliding window, see the parameter. The data may instead be sent to every connected device at once by sending "*" to the wired input details port, or to the connected members of a group named in the deviceGroups parameter by sending the name of the group, in a single wireless response whatever the number of devices.
    <p>
    COMMAND_NOCOMMAND : The default command, which means that no token was available on the wired input port.
    <p>
- * To issue a command to this actor, only use the lower case equivalent of the second work, after the COMMAND_. Parsing occurs intenerally.
+   COMMAND_ADVERTISE : Start advertising, i.e. broadcasting data to every bluetooth device actor on this wireless channel without pairing or connecting. The data on the wired input data port, if any, is advertised, and then every token received on that port without a command that reads it. See the advertisingInterval parameter.
+   <p>
+   COMMAND_STOPADVERTISE : Stop advertising.
+   <p>
+   COMMAND_OBSERVE : Start outputting the data advertised by other bluetooth device actors on this wireless channel. The name of the device to observe, or an array of names, may be sent to the wired input details port. Otherwise, every device is observed.
+   <p>
+   COMMAND_STOPOBSERVE : Stop observing.
+   <p>
+ * The wireless ports may be connected to any wireless channel. A BluetoothChannel delivers a response addressed to a single device only to that device,
+ * which is much cheaper than the delivery to every listening port done by other channels when many devices share the channel.
+ * <p>
+ * To issue a command to this actor as a String, only use the lower case equivalent of the second work, after the COMMAND_. Parsing occurs intenerally.
+ * Commands may also be issued without any parsing as a BluetoothCommandToken, or as an int holding the ordinal of the BluetoothCommand.
  * <p>
  * This actor can exist in 4 states, who vary in behavior: Off, Idle, Connected, and Scanning.
  * <p>
- * The dynamics of the actor are evaluated via a state machine implemented as a switch-case structure found in the fire() method.
+ * The dynamics of the actor are evaluated via a state machine whose transitions are kept in tables indexed by the current state and the command
+ * or response received. Each transition is a small private method of this class.
  * <p>
  * In the event that there is a horrible failure, an incorrect input is received, or an input is not available when one is expected (i.e. when commanding connection or sending data,) an IllegalActionException will be thrown.
  * <p>
+ * The devices found by scanning are kept in a BluetoothDiscoveryCache, which forgets a device that has not answered a scan for longer than
+ * discoveryCacheTTL, and the least recently seen device beyond discoveryCacheCapacity devices. A device must be in the cache to be paired.
+ * <p>
+ * If the eventLog parameter names a file, every response sent and every status output by this actor is recorded there, see BluetoothEventLog.
+ * Devices of a model sharing the same file share one log. A recorded execution can be replayed into a subset of the devices with a BluetoothEventReplay actor.
+ * <p>
+ * Under a BluetoothParallelDirector, devices that do not share a channel may be fired concurrently. This actor only shares immutable
+ * tokens and the thread safe BluetoothDeviceRegistry with other devices, and its status outputs are then deferred by the director.
+ * <p>
  * If all goes according to plan, the status of the iteration will be output to the wired output port. The token output to this port may also contain an generic piece of data. To retrieve this data, a downstream actor must call the getData() function on the output token. If this data is a string,
  * it will be output if toString() is called, along with the status. The resulting String will be comma delimited, with the format Status,Data.
  * <p>
+ * Each status token carries a BluetoothEvent code and the device the event refers to, and its message is only formatted when it is read.
+ * The verbosity parameter selects which events are output. The data received from a connected device or an observed advertiser is output at every verbosity.
+ * <p>
  *@author Phillip Azar
  *@version 
  *@since
@@ -86,13 +131,30 @@ public class BluetoothDevice extends TypedAtomicActor {
      */
     public BluetoothDevice(CompositeEntity container, String name)
             throws NameDuplicationException, IllegalActionException {
+        this(container, name, true);
+    }
+    
+    /** Construct an actor with the given container and name. If decorated is false, the actor is constructed without the attributes
+     *  that only affect how its ports are rendered, and without its parameters other than wirelessInputChannelName and
+     *  wirelessOutputChannelName, so that large populations are built faster, see BluetoothPopulationBuilder. Until
+     *  createParameters() is called, the fields of those parameters are null and the actor behaves as with their default values.
+     *  @param container The container.
+     *  @param name The name of this actor.
+     *  @param decorated True to name the ports, place the wireless ports at the bottom of the icon, and create all the parameters.
+     *  @exception IllegalActionException If the actor cannot be contained
+     *   by the proposed container.
+     *  @exception NameDuplicationException If the container already has an
+     *   actor with this name.
+     */
+    BluetoothDevice(CompositeEntity container, String name, boolean decorated)
+            throws NameDuplicationException, IllegalActionException {
         super(container, name);
         
         // Initialize internal variables
         state = States.STATE_OFF;
-        _foundDevices = new HashSet<String>();
-        _pairedDevices = new HashSet<String>();
-        _connectedDevices = new HashSet<String>();
+        _discoveryCache = new BluetoothDiscoveryCache(0, 0.0);
+        _pairedDevices = new BitSet();
+        _connectedDevices = new BitSet();
         _discoverable = false;
 
         
@@ -103,41 +165,43 @@ public class BluetoothDevice extends TypedAtomicActor {
         wirelessOutputChannelName = new StringParameter(this, "wirelessOutputChannelName");
         wirelessOutputChannelName.setExpression("WirelessOutputChannel");
         
+        // Initialize the other parameters, which a lightweight device only creates when asked to
+        if (decorated) {
+            _createParameters();
+        }
+        
         // Initialize wired inputs
         wiredInput = new TypedIOPort(this, "Wired Input", true, false);
-        new Parameter(wiredInput, "_showName").setExpression("true");
-        
         wiredInputDetails = new TypedIOPort(this, "Wired Input - Detail", true, false);
-        new Parameter(wiredInputDetails, "_showName").setExpression("true");
-        
         wiredInputData = new TypedIOPort(this, "Wired Input - Data", true, false);
-        new Parameter(wiredInputData, "_showName").setExpression("true");
-        
         wiredOutput = new TypedIOPort(this, "Wired Output", false, true);
-        new Parameter(wiredOutput, "_showName").setExpression("true");
         
         // Set wired port types
-        wiredInput.setTypeEquals(BaseType.STRING);
-        wiredInputDetails.setTypeEquals(BaseType.STRING);
+        wiredInput.setTypeEquals(BaseType.GENERAL);
+        wiredInputDetails.setTypeEquals(BaseType.GENERAL);
         wiredInputData.setTypeEquals(BaseType.GENERAL);
         wiredOutput.setTypeEquals(BaseType.GENERAL);
         
         // Initialize wireless input
         wirelessInput = new WirelessIOPort(this, "Wireless Input", true, false);
-        new Parameter(wirelessInput, "_showName").setExpression("true");
-        new StringAttribute(wirelessInput, "_cardinal").setExpression("SOUTH");
         wirelessInput.outsideChannel.setExpression("$wirelessInputChannelName");
         
         // Initialize wireless output
         wirelessOutput = new WirelessIOPort(this, "Wireless Output", false, true);
-        new Parameter(wirelessOutput, "_showName").setExpression("true");
-        new StringAttribute(wirelessOutput, "_cardinal").setExpression("SOUTH");
         wirelessOutput.outsideChannel.setExpression("$wirelessOutputChannelName");
         
         //Initialize wireless port types
         wirelessInput.setTypeEquals(BaseType.GENERAL);
         wirelessOutput.setTypeEquals(BaseType.GENERAL);
-                
+        
+        // Initialize the rendering of the ports
+        if (decorated) {
+            for (TypedIOPort port : new TypedIOPort[] { wiredInput, wiredInputDetails, wiredInputData, wiredOutput, wirelessInput, wirelessOutput }) {
+                new Parameter(port, "_showName").setExpression("true");
+            }
+            new StringAttribute(wirelessInput, "_cardinal").setExpression("SOUTH");
+            new StringAttribute(wirelessOutput, "_cardinal").setExpression("SOUTH");
+        }
     }
     
     ///////////////////////////////////////////////////////////////////
@@ -146,12 +210,14 @@ public class BluetoothDevice extends TypedAtomicActor {
         
     /** The input port for wired communication, which could potentially facilitate communication with other
      * devices/components/actors which are not wireless that interact with this actor.
-     * This port is of type String, and will be checked internally against a list of valid commands.
+     * This port is of type General. It accepts a BluetoothCommandToken, an int holding the ordinal of a
+     * BluetoothCommand, or a String which will be checked internally against a list of valid commands.
      */
     public TypedIOPort wiredInput;
     
     /**
-     * The input port for details about wired communications, which will contain a device identifier. The type of this port is String.
+     * The input port for details about wired communications, which will contain a device identifier. The type of this port is General: it
+     * accepts a String, or, for the connect and pair commands, an array of Strings.
      */
     public TypedIOPort wiredInputDetails;
     
@@ -187,500 +253,2086 @@ public class BluetoothDevice extends TypedAtomicActor {
      *  "WirelessOutputChannel".
      */
     public StringParameter wirelessOutputChannelName;
-
     
-    public void fire() throws IllegalActionException {
-        super.fire();
-        
-        if (!(getDirector() instanceof WirelessDirector) ){
-            throw new IllegalActionException(this.getClassName() + ": Cannot execute without WirelessDirector.");
-        }
-        
-        StringToken _wiredInputToken;
-        Token _wiredInputExtra;
-        
-        if (wiredInput.hasToken(0)){
-            _wiredInputToken = (StringToken) wiredInput.get(0);
-        }
-        else {
-            _wiredInputToken = new StringToken("empty");
-        }
-        
-        //Here we will parse our input command string.
-        BluetoothCommand command;
-        switch(_wiredInputToken.stringValue()){
-            case "switchon":
-                command = BluetoothCommand.COMMAND_SWITCHON;
-                break;
-            case "switchoff":
-                command = BluetoothCommand.COMMAND_SWITCHOFF;
-                break;
-            case "scan":
-                command = BluetoothCommand.COMMAND_SCAN;
-                break;
-            case "stopscan":
-                command = BluetoothCommand.COMMAND_STOPSCAN;
-                break;
-            case "connect":
-                command = BluetoothCommand.COMMAND_CONNECT;
-                break;
-            case "disconnect":
-                command = BluetoothCommand.COMMAND_DISCONNECT;
-                break;
-            case "pair":
-                command = BluetoothCommand.COMMAND_PAIR;
-                break;
-            case "unpair":
-                command = BluetoothCommand.COMMAND_UNPAIR;
-                break;
-            case "discoverable":
-                command = BluetoothCommand.COMMAND_DISCOVERABLE;
-                break;
-            case "hide":
-                command = BluetoothCommand.COMMAND_HIDE;
-                break;
-            case "senddata":
-                command = BluetoothCommand.COMMAND_SENDDATA;
-                break;
-            default:
-                command = BluetoothCommand.COMMAND_NOCOMMAND;
-            }
-            
-            if (command == null) {
-                throw new IllegalActionException("Input string does not equal supported command value");
-            }
-            
-            if (wiredInputDetails.hasToken(0)){
-                _wiredInputExtra = (StringToken) wiredInputDetails.get(0);
-            }
-            else {
-                _wiredInputExtra = new StringToken("empty");
-            }
-            
+    /** The model time between two COMMAND_SCAN broadcasts while scanning. The re-broadcasts are scheduled with fireAt().
+     *  This is a double that defaults to 0.0, which means that COMMAND_SCAN is re-broadcast on every firing without a command.
+     */
+    public Parameter inquiryInterval;
+    
+    /** The upper bound of the inquiry interval. When a COMMAND_SCAN broadcast finds no new device, the interval until the next
+     *  broadcast is doubled, up to this value. It is reset to inquiryInterval as soon as a new device is found.
+     *  This is a double that defaults to 0.0, which means no backoff.
+     */
+    public Parameter maxInquiryInterval;
+    
+    /** The model time after which scanning stops by itself, as if COMMAND_STOPSCAN had been received.
+     *  This is a double that defaults to 0.0, which means that scanning only stops on COMMAND_STOPSCAN.
+     */
+    public Parameter inquiryWindow;
+    
+    /** The largest number of found devices remembered by this actor. When a new device is found while the cache is full, the device
+     *  seen least recently is forgotten. This is an int that defaults to 0, which means no bound.
+     */
+    public Parameter discoveryCacheCapacity;
+    
+    /** The model time after which a found device that has not been seen again is forgotten, and must be found again before it can be
+     *  paired. This is a double that defaults to 0.0, which means that found devices are never forgotten.
+     */
+    public Parameter discoveryCacheTTL;
+    
+    /** The model time after which a connect or pair request that has not been answered is sent again. The time is doubled after
+     *  each retry, and the handshake fails, with a STATUS_ERROR status token, when the request is still unanswered after
+     *  handshakeRetryLimit retries. The timeouts are scheduled with fireAt(). This is a double that defaults to 5.12, the default
+     *  page timeout of Bluetooth. 0.0 means that requests never time out.
+     */
+    public Parameter handshakeTimeout;
+    
+    /** The number of times an unanswered connect or pair request is sent again before the handshake fails, see handshakeTimeout.
+     *  This is an int that defaults to 2.
+     */
+    public Parameter handshakeRetryLimit;
+    
+    /** If true, COMMAND_SENDDATA sends every token available on the wired input data port, instead of a single token. Elements of
+     *  an array token are sent as separate data. The data is framed into batches of at most maxTransmissionUnit tokens, each sent in
+     *  one wireless response, and one status token is output per batch. The receiving device outputs each element of a batch separately.
+     *  This is a boolean that defaults to false.
+     */
+    public Parameter bulkTransfer;
+    
+    /** The maximum number of data tokens framed into one wireless response when bulkTransfer is true. This is an int that defaults to 16.
+     */
+    public Parameter maxTransmissionUnit;
+    
+    /** The maximum number of bytes of a BluetoothBufferToken sent in one wireless response. A larger payload is sent in
+     *  segments, each a BluetoothSegmentToken viewing a range of the payload, and the receiving device outputs the payload
+     *  once all its segments are received, reassembled in a buffer of the BluetoothBufferPool. One status token is output
+     *  per payload. This is an int that defaults to 672, the default L2CAP MTU.
+     */
+    public Parameter maxSegmentSize;
+    
+    /** The model time after which a payload whose segments stopped arriving is dropped, with a REASSEMBLY_EXPIRED error, and its
+     *  buffer returned to the BluetoothBufferPool. The time is counted from the last segment received, and the expiries are
+     *  scheduled with fireAt(). This is a double that defaults to 10.0. 0.0 means that payloads are only dropped when the
+     *  connection is closed.
+     */
+    public Parameter reassemblyTimeout;
+    
+    /** The number of data responses sent on a connection that may await their acknowledgement. Each data response carries a
+     *  sequence number, and the receiving device acknowledges the last one received with one RESPONSE_ACK per firing, carrying
+     *  its own flowControlWindow as the credit it grants. The window of a connection is the smaller of the two. The data sent
+     *  while the window is full waits in a send buffer of at most flowControlWindow payloads, and is sent as acknowledgements
+     *  arrive. Data sent while the send buffer is full is dropped, with a SEND_BUFFER_FULL error. A payload sent in segments
+     *  counts as one payload, and each of its segments as one data response. The figures of a connection, see
+     *  BluetoothLinkStatistics, are output when it is closed. This is an int that defaults to 0, which means that data is sent
+     *  at once and not acknowledged.
+     */
+    public Parameter flowControlWindow;
+    
+    /** The groups of devices to which COMMAND_SENDDATA may send data at once, as a record whose labels are the names of the
+     *  groups and whose fields are arrays of device names, e.g. {sensors = {"device1", "device2"}}. Data sent to a group is
+     *  sent to its connected members, in one wireless response addressed to all of them, and is not flow controlled. Its
+     *  segments, if any, are each sent in one wireless response too, but bulkTransfer does not apply. The name "*" refers to every
+     *  connected device, and a group takes precedence over a device of the same name. This is empty by default.
+     */
+    public Parameter deviceGroups;
+    
+    /** The model time between two broadcasts of the advertised data while advertising. The data last received is broadcast
+     *  in one RESPONSE_ADVERTISEMENT to every device of the channel at each advertising event, scheduled with fireAt(), and the
+     *  observing devices output it. This is a double that defaults to 0.0, which means that each token received on the wired
+     *  input data port is broadcast once, as soon as it is received.
+     */
+    public Parameter advertisingInterval;
+    
+    /** The maximum number of wireless responses handled in one firing. Responses beyond the budget are kept in the inbox of
+     *  this device and handled in a later firing at the same time. Handshake traffic (pair, connect and disconnect requests and
+     *  their answers) and data acknowledgements are handled first, then data, then COMMAND_SCAN broadcasts.
+     *  This is an int that defaults to 0, which means that every response is handled in arrival order, as soon as it is received.
+     */
+    public Parameter inboxBudget;
+    
+    /** The maximum number of wireless responses kept in the inbox of this device. When the inbox is full, a response is
+     *  dropped as set by dropPolicy, and counted, see getDroppedResponseCounts().
+     *  This is an int that defaults to 0, which means that the inbox is unbounded.
+     */
+    public Parameter inboxCapacity;
+    
+    /** The response dropped when a response arrives while the inbox is full. "dropNewest" drops the arriving response.
+     *  "dropOldest" drops the oldest response of the same priority class as the arriving one. "dropLowestPriority" drops the oldest
+     *  response of the lowest priority class holding responses, unless that class has a higher priority than the arriving response.
+     *  This is a string that defaults to "dropLowestPriority".
+     */
+    public StringParameter dropPolicy;
+    
+    /** The name of a file written by BluetoothCheckpoint, from which the state of this actor, the devices it has found and the
+     *  devices it is paired and connected with are restored when the execution is initialized. A device whose state is not saved in
+     *  the file keeps its state. This is a string that defaults to the empty string, which means that nothing is restored.
+     */
+    public StringParameter checkpointFile;
+    
+    /** The name of the file in which the responses sent and the status tokens output by this actor are recorded, see BluetoothEventLog.
+     *  Devices given the same file share one log. This is a string that defaults to the empty string, which means that nothing is recorded.
+     */
+    public StringParameter eventLog;
+    
+    /** If true, the event log is compressed with gzip when the execution ends. This is a boolean that defaults to false.
+     */
+    public Parameter compressEventLog;
+    
+    /** The status tokens output on the wired output port: "none", "errors", "transitions" or "all". At the none level,
+     *  only the data received is output. At the errors level, errors are also output, and at the transitions level, the
+     *  changes of state of this actor and of its pairings and connections are also output. This is a string that defaults to "all".
+     *  Lower levels save the building of the status tokens that nothing reads in large simulations.
+     */
+    public StringParameter verbosity;
+    
+    /** If true, the traffic, status outputs, inbox depth, fire() wall time and state dwell times of this actor are counted,
+     *  and published as an MXBean while the model executes, see BluetoothMetrics. This is a boolean that defaults to false.
+     */
+    public Parameter metricsEnabled;
+    
+    /** If true and metricsEnabled is true, a summary of the counters is reported through the MessageHandler when the execution
+     *  ends. This is a boolean that defaults to false.
+     */
+    public Parameter dumpMetrics;
 
-            // The state machine
-            BluetoothStatusToken status;
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
 
-            switch(state){
-                case STATE_OFF:
-                    if (command.equals(BluetoothCommand.COMMAND_SWITCHON)){
-                        this.state = States.STATE_IDLE;
-                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Switchon");
-                        this.wiredOutput.send(0, status);
-                        break;
-                    }
-                    else {
-                        if (this.wiredInputData.hasToken(0)){
-                            Token _useless = wiredInputData.get(0);
-                        }
-                        return;
-                    }
-                case STATE_IDLE:
-                    if (command.equals(BluetoothCommand.COMMAND_SWITCHOFF)){
-                        this.state = States.STATE_OFF;
-                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Switchoff");
-                        this.wiredOutput.send(0, status);
-                        break;
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_SCAN)){
-                        this.state = States.STATE_SCANNING;
-                        this.wirelessOutput.send(0, new BluetoothResponseToken(BluetoothResponse.COMMAND_SCAN, "scan", this.getName(), "" ));
-                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Scan");
-                        this.wiredOutput.send(0, status);
-                        break;
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_CONNECT)){
-                        if (_wiredInputExtra instanceof StringToken) {
-                            String deviceToConnect = ((StringToken) _wiredInputExtra).stringValue();
-                            if (this._pairedDevices.contains(deviceToConnect)) {
-                                BluetoothResponseToken connectRequest = new BluetoothResponseToken(BluetoothResponse.COMMAND_REQUESTCONNECT, deviceToConnect, this.getName(), "");
-                                wirelessOutput.send(0, connectRequest);
-                                status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Attempting to connect to:"+deviceToConnect);
-                                wiredOutput.send(0, status);  
-                            }
-                            else {
-                                throw new IllegalActionException("Cannot connect to an unpaired device.");
-                            }
-                        }
-                        else {
-                            throw new IllegalActionException("Invalid device identifier");
-                        }
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_DISCOVERABLE)){
-                        this._discoverable = true;
-                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Discoverable");
-                        this.wiredOutput.send(0, status);
-                        break;
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_PAIR)){
-                        if (_wiredInputExtra instanceof StringToken){
-                            String deviceToPair = ((StringToken) _wiredInputExtra).stringValue();
-                            if (this._foundDevices.contains(deviceToPair) && (!this._pairedDevices.contains(deviceToPair))){
-                                this.wirelessOutput.send(0, new BluetoothResponseToken(BluetoothResponse.COMMAND_REQUESTPAIR, deviceToPair, this.getName(), ""));
-                                status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Attempting to pair to:"+deviceToPair);
-                                wiredOutput.send(0, status); 
-                            }
-                        }
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_UNPAIR)){
-                        if (_wiredInputExtra instanceof StringToken){
-                            String deviceToUnpair = ((StringToken) _wiredInputExtra).stringValue();
-                            if (this._foundDevices.contains(deviceToUnpair) && (this._pairedDevices.contains(deviceToUnpair))){
-                                // Here is a behavior which is particularly interesting in Bluetooth - when you unpair, you don't tell the paired device anything. You just remove it from your list of paired devices and move on.
-                                this._pairedDevices.remove(deviceToUnpair);
-                                status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Unpaired from: "+deviceToUnpair);
-                                wiredOutput.send(0, status); 
-                            }
-                        }
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_HIDE)){
-                        this._discoverable = false;
-                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Hidden");
-                        this.wiredOutput.send(0, status);
-                        break;
-                    }
-                    
-                    while(this.wirelessInput.hasToken(0)){
-                        Token _token = wirelessInput.get(0);
-                        if (_token instanceof BluetoothResponseToken) {
-                            BluetoothResponseToken _newResponse = (BluetoothResponseToken) _token;
-                            if (_newResponse.getDeviceIdentifier().equals(this.getName())){
-                                if (_newResponse.getResponse().equals(BluetoothResponse.COMMAND_REQUESTCONNECT)){
-                                    // For now, we accept all connection requests.
-                                    if (this._pairedDevices.contains(_newResponse.getSourceIdentifier())){
-                                        this.state = States.STATE_CONNECTED;
-                                        this._connectedDevices.add(_newResponse.getSourceIdentifier());
-                                        this.wirelessOutput.send(0, new BluetoothResponseToken(BluetoothResponse.RESPONSE_ACCEPTCONNECT, _newResponse.getSourceIdentifier(), this.getName(), ""));
-                                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Received connection request from:"+_newResponse.getSourceIdentifier());
-                                        wiredOutput.send(0, status);
-                                    }
-                                }
-                                else if (_newResponse.getResponse().equals(BluetoothResponse.COMMAND_REQUESTPAIR)){
-                                    // For now, we accept all pair requests.
-                                    if (this._foundDevices.contains(_newResponse.getSourceIdentifier())){
-                                        this._pairedDevices.add(_newResponse.getSourceIdentifier());
-                                        this.wirelessOutput.send(0, new BluetoothResponseToken(BluetoothResponse.RESPONSE_ACCEPTPAIR, _newResponse.getSourceIdentifier(), this.getName(), ""));
-                                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Received pair request from:"+_newResponse.getSourceIdentifier());
-                                        wiredOutput.send(0, status);
-                                    }
-                                }
-                                else if (_newResponse.getResponse().equals(BluetoothResponse.RESPONSE_ACCEPTPAIR)) {
-                                    this._pairedDevices.add(_newResponse.getSourceIdentifier());
-                                    status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Accepted pair request from: "+_newResponse.getSourceIdentifier());
-                                    wiredOutput.send(0, status); 
-                                }
-                                else if (_newResponse.getResponse().equals(BluetoothResponse.RESPONSE_ACCEPTCONNECT)) {
-                                    this.state = States.STATE_CONNECTED;
-                                    this._connectedDevices.add(_newResponse.getSourceIdentifier());
-                                    status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Accepted connection request from: "+_newResponse.getSourceIdentifier());
-                                    wiredOutput.send(0, status); 
-                                }
-                            }
-                            else if (_newResponse.getDeviceIdentifier().equals("scan")){
-                                if (_newResponse.getResponse().equals(BluetoothResponse.COMMAND_SCAN)){
-                                    if (this._discoverable && (!this._foundDevices.contains(_newResponse.getSourceIdentifier()))){
-                                        this._foundDevices.add(_newResponse.getSourceIdentifier());
-                                        this.wirelessOutput.send(0, new BluetoothResponseToken(BluetoothResponse.RESPONSE_FINDME, _newResponse.getSourceIdentifier(), this.getName(), ""));
-                                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Received scan request from:"+_newResponse.getSourceIdentifier());
-                                        wiredOutput.send(0, status);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    //Eat useless tokens
-                    if (this.wiredInputData.hasToken(0)){
-                        Token _useless = wiredInputData.get(0);
-                    }
-                    break;
-                case STATE_CONNECTED:
-                    if (command.equals(BluetoothCommand.COMMAND_SWITCHOFF)){
-                        this.state = States.STATE_OFF;
-                        for (String device : this._connectedDevices){
-                            BluetoothResponseToken shuttingOff = new BluetoothResponseToken(BluetoothResponse.COMMAND_DISCONNECT, device, this.getName(), "");
-                            wirelessOutput.send(0, shuttingOff);
-                        }
-                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "empty");
-                        this.wiredOutput.send(0, status);
-                        break;
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_SCAN)){
-                        this.state = States.STATE_SCANNING;
-                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "empty");
-                        this.wiredOutput.send(0, status);
-                        break;
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_CONNECT)){
-                        if (_wiredInputExtra instanceof StringToken) {
-                            String deviceToConnect = ((StringToken) _wiredInputExtra).stringValue();
-                            if (this._pairedDevices.contains(deviceToConnect)) {
-                                BluetoothResponseToken connectRequest = new BluetoothResponseToken(BluetoothResponse.COMMAND_REQUESTCONNECT, deviceToConnect, this.getName(), "");
-                                wirelessOutput.send(0, connectRequest);
-                                status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Attempting to connect to:"+deviceToConnect);
-                                wiredOutput.send(0, status);  
-                            }
-                            else {
-                                throw new IllegalActionException("Cannot connect to an unpaired device.");
-                            }
-                        }
-                        else {
-                            throw new IllegalActionException("WiredInputDetails port must be filled with device identifier to command connection");
-                        }
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_DISCONNECT)){
-                        if (_wiredInputExtra instanceof StringToken) {
-                            String deviceToDisconnect = ((StringToken) _wiredInputExtra).stringValue();
-                            if (this._connectedDevices.contains(deviceToDisconnect)) {
-                                this._connectedDevices.remove(deviceToDisconnect);
-                                BluetoothResponseToken disconnectRequest = new BluetoothResponseToken(BluetoothResponse.COMMAND_DISCONNECT, deviceToDisconnect, this.getName(), "");
-                                wirelessOutput.send(0, disconnectRequest);
-                                status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Disconnecting from: "+deviceToDisconnect);
-                                wiredOutput.send(0, status);  
-                            }
-                            else {
-                                throw new IllegalActionException("Cannot disconnect from a device that is not connected.");
-                            }
-                        }
-                        else {
-                            throw new IllegalActionException("WiredInputDetails port must be filled with device identifier to command disconnection");
-                        }
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_PAIR)){
-                        if (_wiredInputExtra instanceof StringToken){
-                            String deviceToPair = ((StringToken) _wiredInputExtra).stringValue();
-                            if (this._foundDevices.contains(deviceToPair) && (!this._pairedDevices.contains(deviceToPair))){
-                                this.wirelessOutput.send(0, new BluetoothResponseToken(BluetoothResponse.COMMAND_REQUESTPAIR, deviceToPair, this.getName(), ""));
-                                status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Sending pair request to:"+ deviceToPair);
-                                wiredOutput.send(0, status); 
-                            }
-                        }
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_UNPAIR)){
-                        if (_wiredInputExtra instanceof StringToken){
-                            String deviceToUnpair = ((StringToken) _wiredInputExtra).stringValue();
-                            if (this._foundDevices.contains(deviceToUnpair) && (this._pairedDevices.contains(deviceToUnpair) && (!this._connectedDevices.contains(deviceToUnpair)))){
-                                this._pairedDevices.remove(deviceToUnpair);
-                                status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Attempting to unpair from: "+deviceToUnpair);
-                                wiredOutput.send(0, status); 
-                            }
-                            else if (this._foundDevices.contains(deviceToUnpair) && (this._pairedDevices.contains(deviceToUnpair) && (this._connectedDevices.contains(deviceToUnpair)))){
-                                this._connectedDevices.remove(deviceToUnpair);
-                                this._pairedDevices.remove(deviceToUnpair);
-                                status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Attempting to unpair from: "+deviceToUnpair);
-                                wiredOutput.send(0, status); 
-                            }
-                        }
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_DISCOVERABLE)){
-                        this._discoverable = true;
-                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Discoverable");
-                        this.wiredOutput.send(0, status);
-                        break;
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_HIDE)){
-                        this._discoverable = false;
-                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Hidden");
-                        this.wiredOutput.send(0, status);
-                        break;
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_SENDDATA)){
-                        if (_wiredInputExtra instanceof StringToken){
-                            String deviceToSendData = ((StringToken) _wiredInputExtra).stringValue();
-                            if (this._connectedDevices.contains(deviceToSendData) && this.wiredInputData.hasToken(0)){
-                                this.wirelessOutput.send(0, new BluetoothResponseToken(BluetoothResponse.RESPONSE_OK, deviceToSendData, this.getName(), wiredInputData.get(0)));
-                                status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Sent data to: "+deviceToSendData);
-                                wiredOutput.send(0, status); 
-                            }
-                            else {
-                                throw new IllegalActionException("Data to send must be specified on port: "+this.wiredInputData.getName());
-                            }
-                        }
-                    }
-                    while(this.wirelessInput.hasToken(0)){
-                        Token _token = wirelessInput.get(0);
-                        if (_token instanceof BluetoothResponseToken) {
-                            BluetoothResponseToken _newResponse = (BluetoothResponseToken) _token;
-                            if (_newResponse.getDeviceIdentifier().equals(this.getName())){
-                                if (_newResponse.getResponse().equals(BluetoothResponse.RESPONSE_ACCEPTCONNECT)) {
-                                    this._connectedDevices.add(_newResponse.getDeviceIdentifier());
-                                    status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Accepted connection request from : "+_newResponse.getSourceIdentifier());
-                                    wiredOutput.send(0, status); 
-                                   }
-                                else if (_newResponse.getResponse().equals(BluetoothResponse.RESPONSE_OK)){
-                                    if (this._connectedDevices.contains(_newResponse.getSourceIdentifier())){
-                                        BluetoothStatusToken<?> _newData = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, _newResponse.getData());
-                                        wiredOutput.send(0, _newData);
-                                    }
-                                }
-                                else if (_newResponse.getResponse().equals(BluetoothResponse.COMMAND_REQUESTPAIR)){
-                                    // For now, we accept all pair requests.
-                                    if (this._foundDevices.contains(_newResponse.getSourceIdentifier())){
-                                        this._pairedDevices.add(_newResponse.getSourceIdentifier());
-                                        this.wirelessOutput.send(0, new BluetoothResponseToken(BluetoothResponse.RESPONSE_ACCEPTPAIR, _newResponse.getSourceIdentifier(), this.getName(), ""));
-                                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Received pair request from:"+_newResponse.getSourceIdentifier());
-                                        wiredOutput.send(0, status);
-                                    }
-                                }
-                                else if (_newResponse.getResponse().equals(BluetoothResponse.COMMAND_REQUESTCONNECT) && (this._connectedDevices.size() <= 7)){
-                                    // We will only connect to a new device if we don't have more then 7 connections open.
-                                    // See: http://en.wikipedia.org/wiki/Bluetooth#Implementation
-                                    if (this._pairedDevices.contains(_newResponse.getSourceIdentifier())){
-                                        this.wirelessOutput.send(0, new BluetoothResponseToken(BluetoothResponse.RESPONSE_ACCEPTCONNECT, _newResponse.getSourceIdentifier(), this.getName(), ""));
-                                        this._connectedDevices.add(_newResponse.getSourceIdentifier());
-                                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Received connection request from:"+_newResponse.getSourceIdentifier());
-                                        wiredOutput.send(0, status);
-                                    }
-                                }
-                                else if (_newResponse.getResponse().equals(BluetoothResponse.COMMAND_DISCONNECT)){
-                                    if (this._connectedDevices.contains(_newResponse.getSourceIdentifier())){
-                                        this._connectedDevices.remove(_newResponse.getSourceIdentifier());
-                                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Disconected from: "+_newResponse.getSourceIdentifier());
-                                        wiredOutput.send(0, status);
-                                    }
-                                }
-                            }
-                            else if (_newResponse.getDeviceIdentifier().equals("scan")){
-                                if (_newResponse.getResponse().equals(BluetoothResponse.COMMAND_SCAN)){
-                                    if (this._discoverable && (!this._foundDevices.contains(_newResponse.getSourceIdentifier()))){
-                                        this._foundDevices.add(_newResponse.getSourceIdentifier());
-                                        this.wirelessOutput.send(0, new BluetoothResponseToken(BluetoothResponse.RESPONSE_FINDME, _newResponse.getSourceIdentifier(), this.getName(), ""));
-                                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Received scan request from:"+_newResponse.getSourceIdentifier());
-                                        wiredOutput.send(0, status);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    if (this.state.equals(States.STATE_CONNECTED) && this._connectedDevices.isEmpty()) {
-                        this.state = States.STATE_IDLE;
-                    }
-                    //Eat useless tokens
-                    if (this.wiredInputData.hasToken(0)){
-                        Token _useless = wiredInputData.get(0);
-                    }
-                    break;
-                case STATE_SCANNING:
-                    if (command.equals(BluetoothCommand.COMMAND_SWITCHOFF)){
-                        this.state = States.STATE_OFF;
-                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Switch on");
-                        this.wiredOutput.send(0, status);
-                        break;
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_STOPSCAN)){
-                        this.state = States.STATE_IDLE;
-                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Switch off");
-                        this.wiredOutput.send(0, status);
-                        break;
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_PAIR)){
-                        if (_wiredInputExtra instanceof StringToken){
-                            String deviceToPair = ((StringToken) _wiredInputExtra).stringValue();
-                            if (this._foundDevices.contains(deviceToPair) && (!this._pairedDevices.contains(deviceToPair))){
-                                this.wirelessOutput.send(0, new BluetoothResponseToken(BluetoothResponse.COMMAND_REQUESTPAIR, deviceToPair, this.getName(), ""));
-                                status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Attempt to pair to: "+deviceToPair);
-                                wiredOutput.send(0, status);
-                            }
-                        }
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_CONNECT)){
-                        if (_wiredInputExtra instanceof StringToken) {
-                            String deviceToConnect = ((StringToken) _wiredInputExtra).stringValue();
-                            if (this._pairedDevices.contains(deviceToConnect)) {
-                                BluetoothResponseToken connectRequest = new BluetoothResponseToken(BluetoothResponse.COMMAND_REQUESTCONNECT, deviceToConnect, this.getName(), "");
-                                wirelessOutput.send(0, connectRequest);
-                                status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Attempting to connect to:"+deviceToConnect);
-                                wiredOutput.send(0, status);  
-                            }
-                            else {
-                                throw new IllegalActionException("Cannot connect to an unpaired device.");
-                            }
-                        }
-                        else {
-                            throw new IllegalActionException("WiredInputDetails port must be filled with device identifier to command connection");
-                        }
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_DISCOVERABLE)){
-                        this._discoverable = true;
-                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Discoverable");
-                        this.wiredOutput.send(0, status);
-                        break;
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_HIDE)){
-                        this._discoverable = false;
-                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Hidden");
-                        this.wiredOutput.send(0, status);
-                        break;
-                    }
-                    else if (command.equals(BluetoothCommand.COMMAND_NOCOMMAND)){
-                        this.wirelessOutput.send(0, new BluetoothResponseToken(BluetoothResponse.COMMAND_SCAN, "scan", this.getName(), "" ));
+    /** Check the value of the inquiry, discovery cache, handshake, advertising, inbox and data transfer parameters.
+     *  @param attribute The attribute that changed.
+     *  @exception IllegalActionException If an inquiry, discovery cache, handshake, advertising or inbox parameter is negative, the drop policy is not recognized,
+     *   or maxTransmissionUnit or maxSegmentSize is not positive, or flowControlWindow or reassemblyTimeout is negative, or deviceGroups is not a record of arrays of device names.
+     */
+    @Override
+    public void attributeChanged(Attribute attribute) throws IllegalActionException {
+        if (attribute == inquiryInterval) {
+            _inquiryInterval = _nonNegative(inquiryInterval);
+        }
+        else if (attribute == maxInquiryInterval) {
+            _maxInquiryInterval = _nonNegative(maxInquiryInterval);
+        }
+        else if (attribute == inquiryWindow) {
+            _inquiryWindow = _nonNegative(inquiryWindow);
+        }
+        else if (attribute == discoveryCacheCapacity) {
+            _discoveryCache.setCapacity(_nonNegativeInt(discoveryCacheCapacity));
+        }
+        else if (attribute == discoveryCacheTTL) {
+            _discoveryCache.setTimeToLive(_nonNegative(discoveryCacheTTL));
+        }
+        else if (attribute == handshakeTimeout) {
+            _handshakeTimeout = _nonNegative(handshakeTimeout);
+        }
+        else if (attribute == reassemblyTimeout) {
+            _reassemblyTimeout = _nonNegative(reassemblyTimeout);
+        }
+        else if (attribute == handshakeRetryLimit) {
+            _handshakeRetryLimit = _nonNegativeInt(handshakeRetryLimit);
+        }
+        else if (attribute == deviceGroups) {
+            _groups.clear();
+            Token groups = deviceGroups.getToken();
+            if (groups != null) {
+                if (!(groups instanceof RecordToken)) {
+                    throw new IllegalActionException(this, "deviceGroups must be a record of arrays of device names: " + groups);
+                }
+                RecordToken record = (RecordToken) groups;
+                String message = "deviceGroups must be a record of arrays of device names: " + groups;
+                for (Object label : record.labelSet()) {
+                    Token members = record.get((String) label);
+                    if (!(members instanceof ArrayToken)) {
+                        throw new IllegalActionException(this, message);
                     }
-                    while (wirelessInput.hasToken(0)) {
-                        Token _token = wirelessInput.get(0);
-                        if (_token instanceof BluetoothResponseToken) {
-                            BluetoothResponseToken _newResponse = (BluetoothResponseToken) _token;
-                            if (_newResponse.getDeviceIdentifier().equals(this.getName())){
-                                if (_newResponse.getResponse().equals(BluetoothResponse.RESPONSE_FINDME)){
-                                    _foundDevices.add(_newResponse.getSourceIdentifier());                            
-                                }
-                                else if (_newResponse.getResponse().equals(BluetoothResponse.COMMAND_REQUESTCONNECT)){
-                                    if (this._pairedDevices.contains(_newResponse.getSourceIdentifier())){
-                                        this.state = States.STATE_CONNECTED;
-                                        this.wirelessOutput.send(0, new BluetoothResponseToken(BluetoothResponse.RESPONSE_ACCEPTCONNECT, _newResponse.getSourceIdentifier(), this.getName(), ""));
-                                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Received connection request from:"+_newResponse.getSourceIdentifier());
-                                        wiredOutput.send(0, status);
-                                    }
-                                }
-                                else if (_newResponse.getResponse().equals(BluetoothResponse.COMMAND_REQUESTPAIR)){
-                                    // For now, we accept all pair requests.
-                                    if (this._foundDevices.contains(_newResponse.getSourceIdentifier())){
-                                        this._pairedDevices.add(_newResponse.getSourceIdentifier());
-                                        this.wirelessOutput.send(0, new BluetoothResponseToken(BluetoothResponse.RESPONSE_ACCEPTPAIR, _newResponse.getSourceIdentifier(), this.getName(), ""));
-                                        status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Received pair request from:"+_newResponse.getSourceIdentifier());
-                                        wiredOutput.send(0, status);
-                                    }
-                                }
-                                else if (_newResponse.getResponse().equals(BluetoothResponse.RESPONSE_ACCEPTPAIR)) {
-                                    this._pairedDevices.add(_newResponse.getSourceIdentifier());
-                                    status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Accepted pair request from:"+_newResponse.getSourceIdentifier());
-                                    wiredOutput.send(0, status);
-                                }
-                                else if (_newResponse.getResponse().equals(BluetoothResponse.RESPONSE_ACCEPTCONNECT)) {
-                                    this.state = States.STATE_CONNECTED;
-                                    this._connectedDevices.add(_newResponse.getSourceIdentifier());
-                                    status = new BluetoothStatusToken(BluetoothStatus.STATUS_OK, "Received connection request from:"+_newResponse.getSourceIdentifier());
-                                    wiredOutput.send(0, status);
-                                }
-                            }
+                    // The members are interned, unlike the devices named on the wired input, since the groups are part of the
+                    // configuration and may name devices that are not known yet, such as those of another shard.
+                    ArrayToken names = (ArrayToken) members;
+                    int[] handles = new int[names.length()];
+                    for (int i = 0; i < handles.length; i++) {
+                        if (!(names.getElement(i) instanceof StringToken)) {
+                            throw new IllegalActionException(this, message);
                         }
+                        handles[i] = BluetoothDeviceRegistry.intern(((StringToken) names.getElement(i)).stringValue());
                     }
-                    //Eat useless tokens
-                    if (this.wiredInputData.hasToken(0)){
-                        Token _useless = wiredInputData.get(0);
-                    }
-                    break;
-                default:
-                    status = new BluetoothStatusToken(BluetoothStatus.STATUS_ERROR, "Unknown state - Fix me");
-                    this.wiredOutput.send(0, status);
-                    break;         
+                    _groups.put((String) label, handles);
+                }
             }
-        
+        }
+        else if (attribute == advertisingInterval) {
+            _advertisingInterval = _nonNegative(advertisingInterval);
+        }
+        else if (attribute == inboxBudget) {
+            _inboxBudget = _nonNegativeInt(inboxBudget);
+        }
+        else if (attribute == inboxCapacity) {
+            _inboxCapacity = _nonNegativeInt(inboxCapacity);
+        }
+        else if (attribute == dropPolicy) {
+            String policy = dropPolicy.stringValue();
+            if (policy.equals("dropNewest")) {
+                _dropPolicy = _DROP_NEWEST;
+            }
+            else if (policy.equals("dropOldest")) {
+                _dropPolicy = _DROP_OLDEST;
+            }
+            else if (policy.equals("dropLowestPriority")) {
+                _dropPolicy = _DROP_LOWEST_PRIORITY;
+            }
+            else {
+                throw new IllegalActionException(this, "Unrecognized drop policy: " + policy);
+            }
+        }
+        else if (attribute == verbosity) {
+            int level = BluetoothEvent.levelOf(verbosity.stringValue());
+            if (level < 0) {
+                throw new IllegalActionException(this, "Unrecognized verbosity: " + verbosity.stringValue());
+            }
+            _verbosity = level;
+        }
+        else if (attribute == bulkTransfer) {
+            _bulkTransfer = ((BooleanToken) bulkTransfer.getToken()).booleanValue();
+        }
+        else if (attribute == maxTransmissionUnit) {
+            int value = ((IntToken) maxTransmissionUnit.getToken()).intValue();
+            if (value < 1) {
+                throw new IllegalActionException(this, "maxTransmissionUnit must be positive: " + value);
+            }
+            _maxTransmissionUnit = value;
+        }
+        else if (attribute == maxSegmentSize) {
+            int value = ((IntToken) maxSegmentSize.getToken()).intValue();
+            if (value < 1) {
+                throw new IllegalActionException(this, "maxSegmentSize must be positive: " + value);
+            }
+            _maxSegmentSize = value;
+        }
+        else if (attribute == flowControlWindow) {
+            _flowControlWindow = _nonNegativeInt(flowControlWindow);
+            _credit = new IntToken(_flowControlWindow == 0 ? Integer.MAX_VALUE : _flowControlWindow);
+        }
+        else {
+            super.attributeChanged(attribute);
+        }
+    }
+    
+    /** Create the parameters of this actor with their default values, if it was constructed without them by BluetoothPopulationBuilder
+     *  or BluetoothScenario. Otherwise, do nothing.
+     *  @exception IllegalActionException If a parameter cannot be created.
+     *  @exception NameDuplicationException If this actor already has an attribute with the name of a parameter.
+     */
+    public void createParameters() throws IllegalActionException, NameDuplicationException {
+        if (inquiryInterval == null) {
+            _createParameters();
+        }
+    }
+    
+    /** Return the number of wireless responses dropped because the inbox was full, per priority class: handshake traffic
+     *  at index 0, data at index 1 and broadcasts at index 2.
+     *  @return A copy of the drop counters.
+     */
+    public long[] getDroppedResponseCounts() {
+        return _droppedResponses.clone();
+    }
+    
+    /** Return the figures of the connection with a device, so far.
+     *  @param device The name of the device.
+     *  @return The figures, or null if this actor is not connected with the device.
+     */
+    public BluetoothLinkStatistics getLinkStatistics(String device) {
+        _Link link = _links.get(BluetoothDeviceRegistry.lookup(device));
+        return link == null ? null : link.statistics(getDirector().getModelTime());
+    }
+    
+    /** Return the number of prefire() calls of the current execution that did not return false because of the superclass.
+     *  @return The number of prefire() calls.
+     */
+    public long getPrefireCount() {
+        return _prefires;
+    }
+    
+    /** Return the number of firings of the current execution skipped because this actor had nothing to do, see prefire().
+     *  @return The number of skipped firings.
+     */
+    public long getSkippedFireCount() {
+        return _skippedFires;
+    }
+    
+    /** Return the names of the devices found by this actor that have not been forgotten, from the most to the least recently seen.
+     *  @return An immutable snapshot of the found devices.
+     */
+    public List<String> getFoundDevices() {
+        int[] handles = _discoveryCache.snapshot(_now());
+        String[] names = new String[handles.length];
+        for (int i = 0; i < handles.length; i++) {
+            names[i] = BluetoothDeviceRegistry.getName(handles[i]);
+        }
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+    
+    /** Forget the inquiry timers, the pending requests, and the advertising and observing of a previous execution, restore the state saved in the checkpoint
+     *  file, if any, open the event log, if any, and publish the metrics, if enabled.
+     *  @exception IllegalActionException If the checkpoint file cannot be read, if the event log cannot be opened, or if the
+     *   superclass throws it.
+     */
+    @Override
+    public void initialize() throws IllegalActionException {
+        super.initialize();
+        _nextInquiryTime = null;
+        _inquiryEndTime = null;
+        _pendingRequests.clear();
+        _handshakeFireTime = null;
+        _reassemblyFireTime = null;
+        _prefires = 0;
+        _skippedFires = 0;
+        _links.clear();
+        _acknowledgementsOwed = false;
+        _advertising = false;
+        _advertisement = null;
+        _nextAdvertisingTime = null;
+        _observing = false;
+        // The parameters read here are null on a device constructed without them, which then has no checkpoint, log or metrics.
+        String checkpoint = checkpointFile == null ? "" : checkpointFile.stringValue().trim();
+        if (!checkpoint.isEmpty()) {
+            BluetoothCheckpoint.DeviceState saved = BluetoothCheckpoint.load(checkpoint)._getDeviceState(_handle);
+            if (saved != null) {
+                _restore(saved);
+            }
+        }
+        String logFile = eventLog == null ? "" : eventLog.stringValue().trim();
+        if (!logFile.isEmpty()) {
+            _eventLog = BluetoothEventLog.open(logFile, ((BooleanToken) compressEventLog.getToken()).booleanValue());
+        }
+        _metrics = null;
+        if (metricsEnabled != null && ((BooleanToken) metricsEnabled.getToken()).booleanValue()) {
+            String[] states = new String[States.values().length];
+            for (States value : States.values()) {
+                states[value.ordinal()] = value.name();
+            }
+            _metrics = new BluetoothMetrics(getFullName(), states);
+            try {
+                _metrics.register("BluetoothDevice");
+            } catch (JMException ex) {
+                throw new IllegalActionException(this, ex, "Cannot publish the metrics of this device.");
+            }
+            _metricsState = this.state;
+            _metricsStateTime = getDirector().getModelTime();
+        }
+    }
+    
+    /** Release the event log, if any, the payloads being reassembled and the canonical control tokens, and withdraw the metrics, reporting their summary if dumpMetrics is true.
+     *  @exception IllegalActionException If the event log cannot be written, or if the superclass throws it.
+     */
+    @Override
+    public void wrapup() throws IllegalActionException {
+        super.wrapup();
+        _dropReassemblies(BluetoothDeviceRegistry.NO_DEVICE);
+        if (_holdsControlTokens) {
+            _holdsControlTokens = false;
+            BluetoothResponseToken.releaseControlTokens();
+        }
+        if (_metrics != null) {
+            _recordDwell();
+            if (((BooleanToken) dumpMetrics.getToken()).booleanValue()) {
+                MessageHandler.message(_metrics.summary());
+            }
+            try {
+                _metrics.unregister();
+            } catch (JMException ex) {
+                throw new IllegalActionException(this, ex, "Cannot withdraw the metrics of this device.");
+            }
+        }
+        if (_eventLog != null) {
+            BluetoothEventLog log = _eventLog;
+            _eventLog = null;
+            log.release();
+        }
+    }
 
+    /** Check that this actor is under the control of a WirelessDirector, and intern the name
+     *  of this actor with the BluetoothDeviceRegistry, so that the wireless traffic of this
+     *  iteration can be matched against an integer handle. Hold the canonical control tokens until wrapup(), see
+     *  BluetoothResponseToken.acquireControlTokens().
+     *  @exception IllegalActionException If the director is not a WirelessDirector, or if the superclass throws it.
+     */
+    @Override
+    public void preinitialize() throws IllegalActionException {
+        super.preinitialize();
+        if (!(getDirector() instanceof WirelessDirector)) {
+            throw new IllegalActionException(this, "Cannot execute without WirelessDirector.");
+        }
+        _handle = BluetoothDeviceRegistry.intern(getName());
+        if (!_holdsControlTokens) {
+            BluetoothResponseToken.acquireControlTokens();
+            _holdsControlTokens = true;
+        }
+    }
+    
+    /** Return true if this actor has work to do: a token on one of its input ports, a response kept in its inbox, an inquiry,
+     *  handshake or advertising deadline that has passed, or a scan re-broadcast on every firing. Otherwise, the firing is skipped and counted,
+     *  see getSkippedFireCount(), so that the devices woken up by a timer that no longer applies, most of them idle in large
+     *  populations, cost no fire().
+     *  @return True if this actor should be fired.
+     *  @exception IllegalActionException If the ports cannot be read, or if the superclass throws it.
+     */
+    @Override
+    public boolean prefire() throws IllegalActionException {
+        if (!super.prefire()) {
+            return false;
+        }
+        _prefires++;
+        if (_isReady()) {
+            return true;
+        }
+        _skippedFires++;
+        if (_metrics != null) {
+            _metrics.skipped();
+        }
+        return false;
+    }
+    
+    /** Read a command from the wired input port and evaluate it, along with any pending wireless responses,
+     *  against the state machine of this actor. The transitions are looked up in tables indexed by the
+     *  current state and the command or response, see the static initializer of this class.
+     *  @exception IllegalActionException If a command cannot be carried out.
+     */
+    @Override
+    public void fire() throws IllegalActionException {
+        super.fire();
+        if (_metrics == null) {
+            _fire();
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            _fire();
+        } finally {
+            _metrics.fired(System.nanoTime() - start);
+            if (this.state != _metricsState) {
+                _recordDwell();
+            }
+        }
+    }
+    
+    /** Return the counters of this actor, if metricsEnabled was true when the execution was initialized.
+     *  @return The counters, or null.
+     */
+    public BluetoothMetrics getMetrics() {
+        return _metrics;
     }
     
     ///////////////////////////////////////////////////////////////////
-    ////                         private variables                 ////
+    ////                         package methods                   ////
     
-    private enum States {
-        STATE_IDLE,
-        STATE_CONNECTED,
-        STATE_SCANNING,
-        STATE_OFF,
+    /** Set the state in which this actor starts, as loaded by BluetoothPopulationBuilder.
+     *  @param on True if the device is switched on, false if it is switched off.
+     *  @param discoverable True if the device is discoverable.
+     */
+    void _setInitialState(boolean on, boolean discoverable) {
+        this.state = on ? States.STATE_IDLE : States.STATE_OFF;
+        this._discoverable = discoverable;
     }
     
-    private HashSet<String> _foundDevices;
-    private HashSet<String> _pairedDevices;
-    private HashSet<String> _connectedDevices; 
-    private States state;
-    private boolean _discoverable;
+    /** Return the state of this actor, to be saved by BluetoothCheckpoint.
+     *  @return The state.
+     */
+    BluetoothCheckpoint.DeviceState _checkpoint() {
+        return new BluetoothCheckpoint.DeviceState(this.state.ordinal(), this._discoverable, _discoveryCache.snapshot(_now()),
+                BluetoothCheckpoint.DeviceState.handles(this._pairedDevices), BluetoothCheckpoint.DeviceState.handles(this._connectedDevices));
+    }
+    
+    /** Send the status tokens kept while the outputs were deferred, and record them and the responses sent meanwhile
+     *  in the event log, if any, in the order in which they were produced.
+     *  @exception IllegalActionException If a status token cannot be sent.
+     */
+    void _flushDeferredOutputs() throws IllegalActionException {
+        for (int i = 0; i < _deferred.size(); i++) {
+            Token token = _deferred.get(i);
+            if (token instanceof BluetoothStatusToken) {
+                this.wiredOutput.send(0, token);
+                if (_eventLog != null) {
+                    _eventLog.logStatus(getDirector().getModelTime(), _handle, (BluetoothStatusToken) token);
+                }
+            }
+            else {
+                _eventLog.logSend(getDirector().getModelTime(), (BluetoothResponseToken) token);
+            }
+        }
+        _deferred.clear();
+    }
+    
+    /** Defer or stop deferring the status outputs and the event log records of this actor. While they are deferred, this actor
+     *  can be fired concurrently with the actors that its wired output is connected to, see BluetoothParallelDirector.
+     *  @param defer True to defer the outputs.
+     */
+    void _setDeferOutputs(boolean defer) {
+        _deferOutputs = defer;
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+    
+    /** Create the parameters other than the channel names, with their default values. */
+    private void _createParameters() throws IllegalActionException, NameDuplicationException {
+        // Initialize inquiry parameters
+        inquiryInterval = new Parameter(this, "inquiryInterval");
+        inquiryInterval.setTypeEquals(BaseType.DOUBLE);
+        inquiryInterval.setExpression("0.0");
+        
+        maxInquiryInterval = new Parameter(this, "maxInquiryInterval");
+        maxInquiryInterval.setTypeEquals(BaseType.DOUBLE);
+        maxInquiryInterval.setExpression("0.0");
+        
+        inquiryWindow = new Parameter(this, "inquiryWindow");
+        inquiryWindow.setTypeEquals(BaseType.DOUBLE);
+        inquiryWindow.setExpression("0.0");
+        
+        // Initialize discovery cache parameters
+        discoveryCacheCapacity = new Parameter(this, "discoveryCacheCapacity");
+        discoveryCacheCapacity.setTypeEquals(BaseType.INT);
+        discoveryCacheCapacity.setExpression("0");
+        
+        discoveryCacheTTL = new Parameter(this, "discoveryCacheTTL");
+        discoveryCacheTTL.setTypeEquals(BaseType.DOUBLE);
+        discoveryCacheTTL.setExpression("0.0");
+        
+        // Initialize handshake parameters
+        handshakeTimeout = new Parameter(this, "handshakeTimeout");
+        handshakeTimeout.setTypeEquals(BaseType.DOUBLE);
+        handshakeTimeout.setExpression("5.12");
+        
+        handshakeRetryLimit = new Parameter(this, "handshakeRetryLimit");
+        handshakeRetryLimit.setTypeEquals(BaseType.INT);
+        handshakeRetryLimit.setExpression("2");
+        
+        // Initialize data transfer parameters
+        bulkTransfer = new Parameter(this, "bulkTransfer");
+        bulkTransfer.setTypeEquals(BaseType.BOOLEAN);
+        bulkTransfer.setExpression("false");
+        
+        maxTransmissionUnit = new Parameter(this, "maxTransmissionUnit");
+        maxTransmissionUnit.setTypeEquals(BaseType.INT);
+        maxTransmissionUnit.setExpression("16");
+        
+        maxSegmentSize = new Parameter(this, "maxSegmentSize");
+        maxSegmentSize.setTypeEquals(BaseType.INT);
+        maxSegmentSize.setExpression("672");
+        
+        reassemblyTimeout = new Parameter(this, "reassemblyTimeout");
+        reassemblyTimeout.setTypeEquals(BaseType.DOUBLE);
+        reassemblyTimeout.setExpression("10.0");
+        
+        flowControlWindow = new Parameter(this, "flowControlWindow");
+        flowControlWindow.setTypeEquals(BaseType.INT);
+        flowControlWindow.setExpression("0");
+        
+        deviceGroups = new Parameter(this, "deviceGroups");
+        deviceGroups.setExpression("");
+        
+        // Initialize advertising parameters
+        advertisingInterval = new Parameter(this, "advertisingInterval");
+        advertisingInterval.setTypeEquals(BaseType.DOUBLE);
+        advertisingInterval.setExpression("0.0");
+        
+        // Initialize inbox parameters
+        inboxBudget = new Parameter(this, "inboxBudget");
+        inboxBudget.setTypeEquals(BaseType.INT);
+        inboxBudget.setExpression("0");
+        
+        inboxCapacity = new Parameter(this, "inboxCapacity");
+        inboxCapacity.setTypeEquals(BaseType.INT);
+        inboxCapacity.setExpression("0");
+        
+        dropPolicy = new StringParameter(this, "dropPolicy");
+        dropPolicy.addChoice("dropNewest");
+        dropPolicy.addChoice("dropOldest");
+        dropPolicy.addChoice("dropLowestPriority");
+        dropPolicy.setExpression("dropLowestPriority");
+        
+        // Initialize checkpoint parameters
+        checkpointFile = new StringParameter(this, "checkpointFile");
+        checkpointFile.setExpression("");
+        
+        // Initialize event log parameters
+        eventLog = new StringParameter(this, "eventLog");
+        eventLog.setExpression("");
+        
+        compressEventLog = new Parameter(this, "compressEventLog");
+        compressEventLog.setTypeEquals(BaseType.BOOLEAN);
+        compressEventLog.setExpression("false");
+        
+        // Initialize status parameters
+        verbosity = new StringParameter(this, "verbosity");
+        verbosity.addChoice("none");
+        verbosity.addChoice("errors");
+        verbosity.addChoice("transitions");
+        verbosity.addChoice("all");
+        verbosity.setExpression("all");
+        
+        // Initialize metrics parameters
+        metricsEnabled = new Parameter(this, "metricsEnabled");
+        metricsEnabled.setTypeEquals(BaseType.BOOLEAN);
+        metricsEnabled.setExpression("false");
+        
+        dumpMetrics = new Parameter(this, "dumpMetrics");
+        dumpMetrics.setTypeEquals(BaseType.BOOLEAN);
+        dumpMetrics.setExpression("false");
+    }
+    
+    /** Read a command and evaluate it, along with any pending wireless responses. */
+    private void _fire() throws IllegalActionException {
+        BluetoothCommand command = _readCommand();
+        
+        Token _wiredInputExtra;
+        if (wiredInputDetails.hasToken(0)){
+            _wiredInputExtra = wiredInputDetails.get(0);
+        }
+        else {
+            _wiredInputExtra = _EMPTY;
+        }
+        
+        // The wireless responses are evaluated against the state this iteration started in,
+        // even if the command or one of the responses causes a transition.
+        States firedState = this.state;
+        
+        boolean processInput = _COMMAND_HANDLERS[firedState.ordinal()][command.ordinal()].handle(this, _wiredInputExtra);
+        if (processInput) {
+            _processWirelessInput(firedState);
+        }
+        else if (this.state != States.STATE_OFF && (_inboxSize > 0 || this.wirelessInput.hasToken(0))) {
+            // The responses left unprocessed by the command are processed in a later firing at the current time.
+            getDirector().fireAtCurrentTime(this);
+        }
+        _sendAcknowledgements();
+        _serviceHandshakes();
+        // A token taken by the advertising is not discarded again by _discardData() in the same firing.
+        boolean dataRead = _serviceAdvertising(command);
+        _expireReassemblies();
+        
+        // The timers are serviced whatever the command, since the firing may be the one they scheduled.
+        if (firedState == States.STATE_SCANNING && this.state == States.STATE_SCANNING) {
+            _serviceInquiry();
+        }
+        if (!processInput) {
+            return;
+        }
+        
+        if (firedState == States.STATE_CONNECTED && this.state == States.STATE_CONNECTED && this._connectedDevices.isEmpty()) {
+            this.state = States.STATE_IDLE;
+        }
+        
+        //Eat useless tokens
+        if (!dataRead) {
+            _discardData();
+        }
+    }
+    
+    /** Consume the pending token on the wired data input port, if any. */
+    private void _discardData() throws IllegalActionException {
+        if (this.wiredInputData.hasToken(0)){
+            wiredInputData.get(0);
+        }
+    }
+    
+    /** Read the command from the wired input port. The command may be given as a BluetoothCommandToken,
+     *  as an IntToken holding the ordinal of a BluetoothCommand, or as the string form of the command.
+     *  @return The command, or COMMAND_NOCOMMAND if there is no token or the string is not a command.
+     *  @exception IllegalActionException If the token is not one of the supported forms.
+     */
+    private BluetoothCommand _readCommand() throws IllegalActionException {
+        if (!wiredInput.hasToken(0)){
+            return BluetoothCommand.COMMAND_NOCOMMAND;
+        }
+        Token token = wiredInput.get(0);
+        if (token instanceof BluetoothCommandToken){
+            return ((BluetoothCommandToken) token).commandValue();
+        }
+        else if (token instanceof IntToken){
+            BluetoothCommand command = BluetoothCommand.fromOrdinal(((IntToken) token).intValue());
+            if (command == null){
+                throw new IllegalActionException(this, "Input integer does not equal a supported command ordinal: " + token);
+            }
+            return command;
+        }
+        else if (token instanceof StringToken){
+            //Here we will parse our input command string.
+            return BluetoothCommand.fromString(((StringToken) token).stringValue());
+        }
+        throw new IllegalActionException(this, "Input token is not a supported command: " + token);
+    }
+    
+    /** Add a token to the batch being framed for the given device, and send the batch if it is full.
+     *  @return The number of tokens in the batch after adding the token.
+     */
+    private int _addToBatch(int destination, Token token, int count) throws IllegalActionException {
+        _batch[count++] = token;
+        if (count == _batch.length) {
+            _sendBatch(destination, count);
+            return 0;
+        }
+        return count;
+    }
+    
+    /** Send every token available on the wired input data port to the given device, framed into batches of at most
+     *  maxTransmissionUnit tokens. The elements of an array token are framed as separate tokens.
+     */
+    private void _sendBulkData(int destination) throws IllegalActionException {
+        if (_batch == null || _batch.length != _maxTransmissionUnit) {
+            _batch = new Token[_maxTransmissionUnit];
+        }
+        int count = 0;
+        while (this.wiredInputData.hasToken(0)) {
+            Token token = this.wiredInputData.get(0);
+            if (token instanceof ArrayToken) {
+                ArrayToken array = (ArrayToken) token;
+                for (int i = 0; i < array.length(); i++) {
+                    count = _addToBatch(destination, array.getElement(i), count);
+                }
+            }
+            else if (_isSegmented(token)) {
+                if (count > 0) {
+                    _sendBatch(destination, count);
+                    count = 0;
+                }
+                _sendPayload(destination, token, BluetoothEvent.DATA_SENT, 0);
+            }
+            else {
+                count = _addToBatch(destination, token, count);
+            }
+        }
+        if (count > 0) {
+            _sendBatch(destination, count);
+        }
+    }
+    
+    /** Send the first count tokens of the batch being framed to the given device, in a single wireless response. */
+    private void _sendBatch(int destination, int count) throws IllegalActionException {
+        _sendPayload(destination, new BluetoothBatchToken(_batch, count), BluetoothEvent.BATCH_SENT, count);
+        Arrays.fill(_batch, 0, count, null);
+    }
+    
+    /** Send a payload to the given device, in segments if it is too large for one wireless response, and report the event
+     *  once it is sent. If flowControlWindow is set, the payload is added to the send buffer of the connection, and sent as
+     *  far as the window allows.
+     */
+    private void _sendPayload(int destination, Token payload, BluetoothEvent event, int argument) throws IllegalActionException {
+        _Link link = _link(destination);
+        if (_flowControlWindow == 0) {
+            if (_isSegmented(payload)) {
+                link.sent += _sendSegments(destination, (BluetoothBufferToken) payload);
+            }
+            else {
+                _transmit(new BluetoothResponseToken(BluetoothResponse.RESPONSE_OK, destination, _handle, payload));
+                link.sent++;
+            }
+            _report(event, destination, argument);
+            return;
+        }
+        if (link.backlog.size() >= _flowControlWindow) {
+            _emit(new BluetoothStatusToken<String>(BluetoothStatus.STATUS_ERROR, BluetoothEvent.SEND_BUFFER_FULL, destination,
+                    link.backlog.size(), null));
+            return;
+        }
+        boolean segmented = _isSegmented(payload);
+        link.backlog.add(new _Outgoing(payload, segmented, segmented ? _nextPayloadIdentifier++ : 0, event, argument));
+        _sendWindow(destination, link);
+    }
+    
+    /** Send the data waiting in the send buffer of a connection, as long as the window of the connection is not full. */
+    private void _sendWindow(int destination, _Link link) throws IllegalActionException {
+        int window = Math.min(_flowControlWindow, link.credit);
+        while (!link.backlog.isEmpty() && _sequenceDistance(link.acknowledged, link.nextSequence) - 1 < window) {
+            _Outgoing outgoing = link.backlog.peek();
+            Token payload = outgoing.payload;
+            boolean done = true;
+            if (outgoing.segmented) {
+                BluetoothBufferToken buffer = (BluetoothBufferToken) outgoing.payload;
+                int length = buffer.length();
+                int size = Math.min(_maxSegmentSize, length - outgoing.offset);
+                payload = new BluetoothSegmentToken(outgoing.identifier, outgoing.offset, length, buffer.slice(outgoing.offset, size));
+                outgoing.offset += size;
+                done = outgoing.offset == length;
+            }
+            int sequence = link.nextSequence++;
+            // NO_CORRELATION is skipped when the sequence numbers wrap, since data carrying it would not be acknowledged.
+            if (link.nextSequence == BluetoothResponseToken.NO_CORRELATION) {
+                link.nextSequence++;
+            }
+            _transmit(new BluetoothResponseToken(BluetoothResponse.RESPONSE_OK, destination, _handle, sequence, payload));
+            link.sent++;
+            if (done) {
+                link.backlog.poll();
+                _report(outgoing.event, destination, outgoing.argument);
+            }
+        }
+    }
+    
+    /** Return the number of sequence numbers after a sequence number, up to and including another, which skip NO_CORRELATION
+     *  when they wrap, see _sendWindow().
+     */
+    private static int _sequenceDistance(int from, int to) {
+        int distance = to - from;
+        return from < 0 && to >= 0 ? distance - 1 : distance;
+    }
+    
+    /** Acknowledge the last data response received from every device that sent data since the last acknowledgement. */
+    private void _sendAcknowledgements() throws IllegalActionException {
+        if (!_acknowledgementsOwed) {
+            return;
+        }
+        _acknowledgementsOwed = false;
+        for (Map.Entry<Integer, _Link> entry : _links.entrySet()) {
+            _Link link = entry.getValue();
+            if (link.acknowledgementOwed) {
+                link.acknowledgementOwed = false;
+                _transmit(new BluetoothResponseToken<IntToken>(BluetoothResponse.RESPONSE_ACK, entry.getKey(), _handle,
+                        link.lastReceived, _credit));
+            }
+        }
+    }
+    
+    /** Return the state of the connection with a device, creating it if needed. */
+    private _Link _link(int device) {
+        _Link link = _links.get(device);
+        if (link == null) {
+            link = new _Link(getDirector().getModelTime());
+            _links.put(device, link);
+        }
+        return link;
+    }
+    
+    /** Forget the connection with a device, or every connection if the device is BluetoothDeviceRegistry.NO_DEVICE, outputting
+     *  its figures. The data waiting in its send buffer is dropped.
+     */
+    private void _closeLinks(int device) throws IllegalActionException {
+        Time now = getDirector().getModelTime();
+        Iterator<Map.Entry<Integer, _Link>> entries = _links.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Integer, _Link> entry = entries.next();
+            if (device == BluetoothDeviceRegistry.NO_DEVICE || entry.getKey() == device) {
+                entries.remove();
+                _emit(new BluetoothStatusToken<BluetoothLinkStatistics>(BluetoothStatus.STATUS_OK, BluetoothEvent.LINK_STATISTICS,
+                        entry.getKey(), 0, entry.getValue().statistics(now)));
+            }
+        }
+    }
+    
+    /** Send the token on the wired input data port to the connected members of a group, in a single wireless response addressed
+     *  to all of them, or in one such response per segment if the token is too large. The data is not flow controlled.
+     *  @param name The name of the group, for the exception thrown if no member is connected.
+     *  @param group The handles of the members of the group.
+     */
+    private void _sendMulticast(String name, int[] group) throws IllegalActionException {
+        int count = 0;
+        int[] members = new int[group.length];
+        for (int member : group) {
+            if (this._connectedDevices.get(member)) {
+                members[count++] = member;
+            }
+        }
+        if (count == 0 || !this.wiredInputData.hasToken(0)) {
+            throw new IllegalActionException(this, "Data to send to " + name + " must be specified on port: " + this.wiredInputData.getName()
+                    + ", and a member of " + name + " must be connected.");
+        }
+        members = Arrays.copyOf(members, count);
+        Token payload = this.wiredInputData.get(0);
+        int responses = 1;
+        if (_isSegmented(payload)) {
+            BluetoothBufferToken buffer = (BluetoothBufferToken) payload;
+            int identifier = _nextPayloadIdentifier++;
+            int length = buffer.length();
+            for (int offset = 0; offset < length; offset += _maxSegmentSize) {
+                BluetoothBufferToken segment = buffer.slice(offset, Math.min(_maxSegmentSize, length - offset));
+                _transmit(new BluetoothResponseToken(BluetoothResponse.RESPONSE_OK, members, _handle,
+                        new BluetoothSegmentToken(identifier, offset, length, segment)));
+            }
+            responses = (length + _maxSegmentSize - 1) / _maxSegmentSize;
+        }
+        else {
+            _transmit(new BluetoothResponseToken(BluetoothResponse.RESPONSE_OK, members, _handle, payload));
+        }
+        for (int member : members) {
+            _link(member).sent += responses;
+        }
+        _report(BluetoothEvent.DATA_MULTICAST, BluetoothDeviceRegistry.NO_DEVICE, count);
+    }
+    
+    /** Return true if the token is a BluetoothBufferToken too large to be sent in one wireless response. */
+    private boolean _isSegmented(Token token) {
+        return token instanceof BluetoothBufferToken && ((BluetoothBufferToken) token).length() > _maxSegmentSize;
+    }
+    
+    /** Send a payload to the given device in segments of at most maxSegmentSize bytes. The segments are views of the payload.
+     *  @return The number of segments.
+     */
+    private int _sendSegments(int destination, BluetoothBufferToken payload) throws IllegalActionException {
+        int identifier = _nextPayloadIdentifier++;
+        int length = payload.length();
+        for (int offset = 0; offset < length; offset += _maxSegmentSize) {
+            BluetoothBufferToken segment = payload.slice(offset, Math.min(_maxSegmentSize, length - offset));
+            _transmit(new BluetoothResponseToken(BluetoothResponse.RESPONSE_OK, destination, _handle,
+                    new BluetoothSegmentToken(identifier, offset, length, segment)));
+        }
+        return (length + _maxSegmentSize - 1) / _maxSegmentSize;
+    }
+    
+    /** Copy a segment into the payload it belongs to, and return the payload once all its bytes are received. A segment
+     *  received twice, or overlapping another, does not count twice.
+     *  @return The reassembled payload, or null if segments are missing.
+     *  @exception IllegalActionException If the segment does not fit in its payload.
+     */
+    private BluetoothBufferToken _reassemble(int source, BluetoothSegmentToken segment) throws IllegalActionException {
+        int offset = segment.getOffset();
+        int length = segment.getSegment().length();
+        int payloadLength = segment.getPayloadLength();
+        if (payloadLength <= 0 || offset < 0 || length > payloadLength - offset) {
+            throw new IllegalActionException(this, "Segment of " + length + " bytes at offset " + offset + " from "
+                    + BluetoothDeviceRegistry.getName(source) + " does not fit in a payload of " + payloadLength + " bytes.");
+        }
+        long key = ((long) source << 32) | (segment.getPayloadIdentifier() & 0xFFFFFFFFL);
+        _Reassembly reassembly = _reassemblies.get(key);
+        if (reassembly == null) {
+            reassembly = new _Reassembly(source, BluetoothBufferPool.acquire(payloadLength));
+            _reassemblies.put(key, reassembly);
+        }
+        else if (reassembly.buffer.limit() != payloadLength) {
+            throw new IllegalActionException(this, "Segment from " + BluetoothDeviceRegistry.getName(source) + " gives a payload length of "
+                    + payloadLength + " bytes instead of " + reassembly.buffer.limit() + ".");
+        }
+        ByteBuffer target = reassembly.buffer.duplicate();
+        target.position(offset);
+        target.put(segment.getSegment().getBuffer());
+        reassembly.received += reassembly.cover(offset, offset + length);
+        if (reassembly.received < payloadLength) {
+            if (_reassemblyTimeout > 0.0) {
+                reassembly.deadline = getDirector().getModelTime().add(_reassemblyTimeout);
+                if (_reassemblyFireTime == null) {
+                    _reassemblyFireTime = reassembly.deadline;
+                    getDirector().fireAt(this, _reassemblyFireTime);
+                }
+            }
+            return null;
+        }
+        _reassemblies.remove(key);
+        return new BluetoothBufferToken(reassembly.buffer, true);
+    }
+    
+    /** Drop the payloads whose segments stopped arriving more than reassemblyTimeout ago, with a REASSEMBLY_EXPIRED error, and
+     *  schedule a firing at the earliest deadline of the others.
+     */
+    private void _expireReassemblies() throws IllegalActionException {
+        Time now = getDirector().getModelTime();
+        if (_reassemblyFireTime == null || now.compareTo(_reassemblyFireTime) < 0) {
+            return;
+        }
+        _reassemblyFireTime = null;
+        Iterator<_Reassembly> reassemblies = _reassemblies.values().iterator();
+        while (reassemblies.hasNext()) {
+            _Reassembly reassembly = reassemblies.next();
+            if (reassembly.deadline == null) {
+                continue;
+            }
+            if (now.compareTo(reassembly.deadline) >= 0) {
+                BluetoothBufferPool.release(reassembly.buffer);
+                reassemblies.remove();
+                _emit(new BluetoothStatusToken<String>(BluetoothStatus.STATUS_ERROR, BluetoothEvent.REASSEMBLY_EXPIRED, reassembly.source,
+                        reassembly.received, null));
+            }
+            else if (_reassemblyFireTime == null || reassembly.deadline.compareTo(_reassemblyFireTime) < 0) {
+                _reassemblyFireTime = reassembly.deadline;
+            }
+        }
+        if (_reassemblyFireTime != null) {
+            getDirector().fireAt(this, _reassemblyFireTime);
+        }
+    }
+    
+    /** Return the buffers of the payloads being reassembled from the given device to the pool, or of every payload
+     *  if the device is BluetoothDeviceRegistry.NO_DEVICE.
+     */
+    private void _dropReassemblies(int source) {
+        Iterator<_Reassembly> reassemblies = _reassemblies.values().iterator();
+        while (reassemblies.hasNext()) {
+            _Reassembly reassembly = reassemblies.next();
+            if (source == BluetoothDeviceRegistry.NO_DEVICE || reassembly.source == source) {
+                BluetoothBufferPool.release(reassembly.buffer);
+                reassemblies.remove();
+            }
+        }
+    }
+    
+    /** Add the model time spent in the state last recorded to the metrics, and record the current state. */
+    private void _recordDwell() {
+        Time now = getDirector().getModelTime();
+        _metrics.dwelled(_metricsState.ordinal(), now.subtract(_metricsStateTime).getDoubleValue());
+        _metricsState = this.state;
+        _metricsStateTime = now;
+    }
+    
+    /** Return the current model time, as used by the discovery cache. */
+    private double _now() {
+        return getDirector().getModelTime().getDoubleValue();
+    }
+    
+    /** Return the value of an int parameter, checking that it is not negative. */
+    private int _nonNegativeInt(Parameter parameter) throws IllegalActionException {
+        int value = ((IntToken) parameter.getToken()).intValue();
+        if (value < 0) {
+            throw new IllegalActionException(this, parameter.getName() + " cannot be negative: " + value);
+        }
+        return value;
+    }
+    
+    /** Return the value of a double parameter, checking that it is not negative. */
+    private double _nonNegative(Parameter parameter) throws IllegalActionException {
+        double value = ((DoubleToken) parameter.getToken()).doubleValue();
+        if (value < 0.0) {
+            throw new IllegalActionException(this, parameter.getName() + " cannot be negative: " + value);
+        }
+        return value;
+    }
+    
+    /** Start a new inquiry: schedule the first re-broadcast of COMMAND_SCAN and the end of the inquiry window. */
+    private void _startInquiry() throws IllegalActionException {
+        Time now = getDirector().getModelTime();
+        _currentInquiryInterval = _inquiryInterval;
+        _foundAtLastInquiry = _discoveryCache.getAdditionCount();
+        _nextInquiryTime = null;
+        _inquiryEndTime = null;
+        if (_inquiryInterval > 0.0) {
+            _nextInquiryTime = now.add(_inquiryInterval);
+            getDirector().fireAt(this, _nextInquiryTime);
+        }
+        if (_inquiryWindow > 0.0) {
+            _inquiryEndTime = now.add(_inquiryWindow);
+            getDirector().fireAt(this, _inquiryEndTime);
+        }
+    }
+    
+    /** End the inquiry window if it has elapsed, otherwise re-broadcast COMMAND_SCAN if the inquiry interval has elapsed.
+     *  The interval is doubled, up to maxInquiryInterval, whenever the previous broadcast found no new device.
+     */
+    private void _serviceInquiry() throws IllegalActionException {
+        Time now = getDirector().getModelTime();
+        if (_inquiryEndTime != null && now.compareTo(_inquiryEndTime) >= 0) {
+            _inquiryEndTime = null;
+            _nextInquiryTime = null;
+            this.state = this._connectedDevices.isEmpty() ? States.STATE_IDLE : States.STATE_CONNECTED;
+            _emit(_INQUIRY_COMPLETE_STATUS);
+            return;
+        }
+        if (_inquiryInterval == 0.0 || (_nextInquiryTime != null && now.compareTo(_nextInquiryTime) < 0)) {
+            return;
+        }
+        long found = _discoveryCache.getAdditionCount();
+        if (found > _foundAtLastInquiry) {
+            _currentInquiryInterval = _inquiryInterval;
+        }
+        else if (_maxInquiryInterval > _currentInquiryInterval) {
+            _currentInquiryInterval = Math.min(_currentInquiryInterval * 2.0, _maxInquiryInterval);
+        }
+        _foundAtLastInquiry = found;
+        _transmit(BluetoothResponseToken.getControlToken(BluetoothResponse.COMMAND_SCAN, BluetoothDeviceRegistry.BROADCAST, _handle));
+        _nextInquiryTime = now.add(_currentInquiryInterval);
+        getDirector().fireAt(this, _nextInquiryTime);
+    }
+    
+    /** Return true if a token is waiting on an input port or in the inbox, if a deadline has passed, or if COMMAND_SCAN is
+     *  re-broadcast on every firing.
+     */
+    private boolean _isReady() throws IllegalActionException {
+        if (this.wiredInput.hasToken(0) || this.wirelessInput.hasToken(0) || this.wiredInputDetails.hasToken(0)
+                || this.wiredInputData.hasToken(0) || _inboxSize > 0) {
+            return true;
+        }
+        if (this.state == States.STATE_SCANNING && _inquiryInterval == 0.0) {
+            return true;
+        }
+        Time now = getDirector().getModelTime();
+        if ((_nextInquiryTime != null && now.compareTo(_nextInquiryTime) >= 0)
+                || (_inquiryEndTime != null && now.compareTo(_inquiryEndTime) >= 0)) {
+            return true;
+        }
+        if (_advertisement != null && _nextAdvertisingTime != null && now.compareTo(_nextAdvertisingTime) >= 0) {
+            return true;
+        }
+        if (_reassemblyFireTime != null && now.compareTo(_reassemblyFireTime) >= 0) {
+            return true;
+        }
+        for (_PendingRequest pending : _pendingRequests.values()) {
+            if (pending.deadline != null && now.compareTo(pending.deadline) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /** While advertising, take the token on the wired input data port, if any, as the data advertised, unless the command of
+     *  this firing reads that port, and broadcast the data if it is new and advertisingInterval is 0.0, or if the advertising
+     *  interval has elapsed.
+     *  @param command The command of this firing.
+     *  @return True if a token was taken from the wired input data port.
+     */
+    private boolean _serviceAdvertising(BluetoothCommand command) throws IllegalActionException {
+        if (!_advertising) {
+            return false;
+        }
+        boolean dataRead = false;
+        if (command != BluetoothCommand.COMMAND_SENDDATA && this.wiredInputData.hasToken(0)) {
+            _advertisement = this.wiredInputData.get(0);
+            dataRead = true;
+            if (_advertisingInterval == 0.0) {
+                _transmit(new BluetoothResponseToken(BluetoothResponse.RESPONSE_ADVERTISEMENT, BluetoothDeviceRegistry.BROADCAST, _handle, _advertisement));
+                return true;
+            }
+        }
+        Time now = getDirector().getModelTime();
+        if (_advertisingInterval == 0.0 || _advertisement == null || now.compareTo(_nextAdvertisingTime) < 0) {
+            return dataRead;
+        }
+        _transmit(new BluetoothResponseToken(BluetoothResponse.RESPONSE_ADVERTISEMENT, BluetoothDeviceRegistry.BROADCAST, _handle, _advertisement));
+        _nextAdvertisingTime = now.add(_advertisingInterval);
+        getDirector().fireAt(this, _nextAdvertisingTime);
+        return dataRead;
+    }
+    
+    /** Send again the connect and pair requests whose answer is overdue, doubling the time until their next deadline, and fail
+     *  the handshake of those already sent again handshakeRetryLimit times, with a HANDSHAKE_FAILED error.
+     */
+    private void _serviceHandshakes() throws IllegalActionException {
+        if (_handshakeTimeout == 0.0 || _pendingRequests.isEmpty()) {
+            return;
+        }
+        Time now = getDirector().getModelTime();
+        Iterator<Map.Entry<Integer, _PendingRequest>> entries = _pendingRequests.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Integer, _PendingRequest> entry = entries.next();
+            _PendingRequest pending = entry.getValue();
+            // A request sent while handshakeTimeout was 0.0 has no deadline, and is never sent again.
+            if (pending.deadline == null || now.compareTo(pending.deadline) < 0) {
+                continue;
+            }
+            if (pending.attempts > _handshakeRetryLimit) {
+                entries.remove();
+                _emit(new BluetoothStatusToken<String>(BluetoothStatus.STATUS_ERROR, BluetoothEvent.HANDSHAKE_FAILED, pending.target,
+                        pending.attempts, null));
+                continue;
+            }
+            _transmit(BluetoothResponseToken.getControlToken(pending.request, pending.target, _handle, entry.getKey()));
+            pending.deadline = now.add(Math.scalb(_handshakeTimeout, pending.attempts));
+            pending.attempts++;
+            _scheduleHandshake(pending.deadline);
+        }
+    }
+    
+    /** Schedule a firing at the deadline of a request, unless one was just scheduled at the same time. */
+    private void _scheduleHandshake(Time deadline) throws IllegalActionException {
+        if (_handshakeFireTime == null || deadline.compareTo(_handshakeFireTime) != 0) {
+            getDirector().fireAt(this, deadline);
+            _handshakeFireTime = deadline;
+        }
+    }
+    
+    /** Restore the state saved by BluetoothCheckpoint. The devices found are seen again at the current time, from the least to
+     *  the most recently seen, and a new inquiry is started if the state is scanning.
+     */
+    private void _restore(BluetoothCheckpoint.DeviceState saved) throws IllegalActionException {
+        this.state = States.values()[saved.state];
+        this._discoverable = saved.discoverable;
+        double now = _now();
+        _discoveryCache.clear();
+        for (int i = saved.found.length - 1; i >= 0; i--) {
+            _discoveryCache.see(saved.found[i], now);
+        }
+        this._pairedDevices.clear();
+        for (int device : saved.paired) {
+            this._pairedDevices.set(device);
+        }
+        this._connectedDevices.clear();
+        for (int device : saved.connected) {
+            this._connectedDevices.set(device);
+        }
+        if (this.state == States.STATE_SCANNING) {
+            _startInquiry();
+        }
+    }
+    
+    /** Return the handle of the device named by the wired details token. The name is looked up rather than interned, so
+     *  that the names sent to the wired input do not grow the registry. A name that no device has, like that of the token
+     *  read when the port is empty, is not found, as a device that was never discovered.
+     *  @param details The token read from the wired input details port.
+     *  @param message The message of the exception thrown if the token does not name a device.
+     *  @return The handle, or BluetoothDeviceRegistry.NO_DEVICE if no device of that name is known.
+     *  @exception IllegalActionException If the token is not a device name.
+     */
+    private int _deviceHandle(Token details, String message) throws IllegalActionException {
+        if (!(details instanceof StringToken)) {
+            throw new IllegalActionException(this, message);
+        }
+        return BluetoothDeviceRegistry.lookup(((StringToken) details).stringValue());
+    }
+    
+    /** Return the handles of the devices named by the wired details token, which is either a device name or an array of them.
+     *  @param details The token read from the wired input details port.
+     *  @param message The message of the exception thrown if the token does not name devices.
+     *  @return The handles, which are BluetoothDeviceRegistry.NO_DEVICE for the names no device has.
+     */
+    private int[] _deviceHandles(Token details, String message) throws IllegalActionException {
+        if (!(details instanceof ArrayToken)) {
+            return new int[] { _deviceHandle(details, message) };
+        }
+        ArrayToken names = (ArrayToken) details;
+        int[] handles = new int[names.length()];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = _deviceHandle(names.getElement(i), message);
+        }
+        return handles;
+    }
+    
+    /** Send a connect or pair request to a device, unless one is already awaiting its answer, and record it in the table of
+     *  pending requests under a new correlation identifier, with the deadline of its answer if handshakeTimeout is set.
+     *  @param request The request, COMMAND_REQUESTCONNECT or COMMAND_REQUESTPAIR.
+     *  @param target The handle of the device.
+     *  @param event The event reported for the request.
+     */
+    private void _request(BluetoothResponse request, int target, BluetoothEvent event) throws IllegalActionException {
+        for (_PendingRequest pending : _pendingRequests.values()) {
+            if (pending.request == request && pending.target == target) {
+                return;
+            }
+        }
+        int correlationId = _nextCorrelationId;
+        _nextCorrelationId = correlationId == Integer.MAX_VALUE ? 1 : correlationId + 1;
+        _PendingRequest pending = new _PendingRequest(request, target);
+        _pendingRequests.put(correlationId, pending);
+        _transmit(BluetoothResponseToken.getControlToken(request, target, _handle, correlationId));
+        _report(event, target, correlationId);
+        if (_handshakeTimeout > 0.0) {
+            pending.deadline = getDirector().getModelTime().add(_handshakeTimeout);
+            _scheduleHandshake(pending.deadline);
+        }
+    }
+    
+    /** Return true if an answer completes a request of this device, removing the request from the table of pending requests.
+     *  An answer without a correlation identifier, from a device that does not echo them, completes any request of the kind
+     *  to its source, and is accepted even if there is none.
+     *  @param response The answer.
+     *  @param request The request it answers.
+     */
+    private boolean _completeRequest(BluetoothResponseToken response, BluetoothResponse request) {
+        int source = response.getSourceHandle();
+        int correlationId = response.getCorrelationId();
+        if (correlationId == BluetoothResponseToken.NO_CORRELATION) {
+            Iterator<_PendingRequest> pending = _pendingRequests.values().iterator();
+            while (pending.hasNext()) {
+                _PendingRequest next = pending.next();
+                if (next.request == request && next.target == source) {
+                    pending.remove();
+                }
+            }
+            return true;
+        }
+        _PendingRequest pending = _pendingRequests.get(correlationId);
+        if (pending == null || pending.request != request || pending.target != source) {
+            return false;
+        }
+        _pendingRequests.remove(correlationId);
+        return true;
+    }
+    
+    /** Dispatch a BluetoothResponseToken to the handler registered for the given state, if the token is addressed to this
+     *  device, alone or among others, or broadcast to every device.
+     *  @param firedState The state of this actor at the start of the iteration.
+     *  @param response The response to dispatch.
+     */
+    private void _dispatch(States firedState, BluetoothResponseToken response) throws IllegalActionException {
+        ResponseHandler handler;
+        if (response.getDeviceHandle() == _handle
+                || (response.getDeviceHandle() == BluetoothDeviceRegistry.MULTICAST && response.isAddressedTo(_handle))){
+            handler = _UNICAST_HANDLERS[firedState.ordinal()][response.getResponse().ordinal()];
+        }
+        else if (response.getDeviceHandle() == BluetoothDeviceRegistry.BROADCAST){
+            handler = _BROADCAST_HANDLERS[firedState.ordinal()][response.getResponse().ordinal()];
+        }
+        else {
+            return;
+        }
+        if (_metrics != null) {
+            _metrics.received(response.getResponse());
+        }
+        if (handler != null) {
+            handler.handle(this, response);
+        }
+    }
+    
+    /** Drain the wireless input port and dispatch every BluetoothResponseToken addressed to this device,
+     *  or broadcast to every device, to the handler registered for the given state.
+     *  <p>
+     *  If inboxBudget or inboxCapacity is set, the responses are first moved to the inbox of this device, one
+     *  queue per priority class, and at most inboxBudget responses are dispatched, handshake traffic first,
+     *  then data, then broadcasts. Responses left in the inbox are dispatched in a later firing at the current time.
+     *  @param firedState The state of this actor at the start of the iteration.
+     */
+    private void _processWirelessInput(States firedState) throws IllegalActionException {
+        if (_inboxBudget == 0 && _inboxCapacity == 0 && _inboxSize == 0) {
+            while(this.wirelessInput.hasToken(0)){
+                Token _token = wirelessInput.get(0);
+                if (_token instanceof BluetoothResponseToken) {
+                    _dispatch(firedState, (BluetoothResponseToken) _token);
+                }
+            }
+            return;
+        }
+        
+        if (_inbox == null) {
+            _inbox = new ArrayDeque[_PRIORITY_CLASSES];
+            for (int i = 0; i < _PRIORITY_CLASSES; i++) {
+                _inbox[i] = new ArrayDeque<BluetoothResponseToken>();
+            }
+        }
+        while(this.wirelessInput.hasToken(0)){
+            Token _token = wirelessInput.get(0);
+            if (_token instanceof BluetoothResponseToken) {
+                BluetoothResponseToken _newResponse = (BluetoothResponseToken) _token;
+                if (_newResponse.getDeviceHandle() == BluetoothDeviceRegistry.BROADCAST || _newResponse.isAddressedTo(_handle)) {
+                    _enqueue(_newResponse);
+                }
+            }
+        }
+        
+        int budget = _inboxBudget == 0 ? Integer.MAX_VALUE : _inboxBudget;
+        for (int priority = 0; priority < _PRIORITY_CLASSES && budget > 0; priority++) {
+            ArrayDeque<BluetoothResponseToken> queue = _inbox[priority];
+            while (budget > 0 && !queue.isEmpty()) {
+                _inboxSize--;
+                budget--;
+                _dispatch(firedState, queue.poll());
+            }
+        }
+        if (_inboxSize > 0) {
+            getDirector().fireAtCurrentTime(this);
+        }
+    }
+    
+    /** Add a response to the inbox, applying the drop policy if the inbox is full. */
+    private void _enqueue(BluetoothResponseToken response) {
+        int priority = _PRIORITY[response.getResponse().ordinal()];
+        if (_inboxCapacity > 0 && _inboxSize >= _inboxCapacity) {
+            int victim = priority;
+            if (_dropPolicy == _DROP_LOWEST_PRIORITY) {
+                for (int i = _PRIORITY_CLASSES - 1; i >= priority; i--) {
+                    if (!_inbox[i].isEmpty()) {
+                        victim = i;
+                        break;
+                    }
+                }
+            }
+            _droppedResponses[victim]++;
+            if (_dropPolicy == _DROP_NEWEST || _inbox[victim].isEmpty()) {
+                return;
+            }
+            _inbox[victim].poll();
+            _inboxSize--;
+        }
+        _inbox[priority].add(response);
+        _inboxSize++;
+        if (_metrics != null) {
+            _metrics.inboxDepth(_inboxSize);
+        }
+    }
+    
+    /** Return the lowest verbosity level at which a status token is output. Errors are output from the errors level, other
+     *  status tokens from the level of their event, and free-form status tokens at every level but none.
+     */
+    private static int _level(BluetoothStatusToken status) {
+        if (status.getStatusValue() == BluetoothStatus.STATUS_ERROR) {
+            return BluetoothEvent.ERRORS;
+        }
+        BluetoothEvent event = status.getEvent();
+        return event == null ? BluetoothEvent.ERRORS : event.getLevel();
+    }
+    
+    /** Send a status token on the wired output port, and record it in the event log, if any.
+     *  While the outputs are deferred, the status token is kept until _flushDeferredOutputs() is called.
+     */
+    private void _emit(BluetoothStatusToken status) throws IllegalActionException {
+        if (_level(status) > _verbosity) {
+            return;
+        }
+        if (_metrics != null) {
+            _metrics.status(status.getStatusValue());
+        }
+        if (_deferOutputs) {
+            _deferred.add(status);
+            return;
+        }
+        this.wiredOutput.send(0, status);
+        if (_eventLog != null) {
+            _eventLog.logStatus(getDirector().getModelTime(), _handle, status);
+        }
+    }
+    
+    /** Send a response on the wireless output port, and record it in the event log, if any.
+     *  While the outputs are deferred, the response is sent but only recorded when _flushDeferredOutputs() is called.
+     */
+    private void _transmit(BluetoothResponseToken response) throws IllegalActionException {
+        if (_metrics != null) {
+            _metrics.sent(response.getResponse());
+        }
+        this.wirelessOutput.send(0, response);
+        if (_eventLog != null) {
+            if (_deferOutputs) {
+                _deferred.add(response);
+            }
+            else {
+                _eventLog.logSend(getDirector().getModelTime(), response);
+            }
+        }
+    }
+    
+    /** Send a status token reporting an event about a device on the wired output port, if the verbosity of this actor reports the event.
+     *  The token is not built if the event is not reported.
+     */
+    private void _report(BluetoothEvent event, int device, int argument) throws IllegalActionException {
+        if (event.getLevel() <= _verbosity) {
+            _emit(new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, event, device, argument, null));
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                   private command handlers                ////
+    
+    // Each command handler returns true if the wireless input should be processed after the command,
+    // and false if the iteration ends with the command.
+    
+    private boolean _ignoreWhileOff(Token details) throws IllegalActionException {
+        _discardData();
+        return false;
+    }
+    
+    private boolean _noCommand(Token details) {
+        return true;
+    }
+    
+    private boolean _switchOn(Token details) throws IllegalActionException {
+        this.state = States.STATE_IDLE;
+        _emit(_SWITCHON_STATUS);
+        return false;
+    }
+    
+    private boolean _switchOff(Token details) throws IllegalActionException {
+        this.state = States.STATE_OFF;
+        for (int device = this._connectedDevices.nextSetBit(0); device >= 0; device = this._connectedDevices.nextSetBit(device + 1)){
+            _transmit(BluetoothResponseToken.getControlToken(BluetoothResponse.COMMAND_DISCONNECT, device, _handle));
+        }
+        // The peers drop the connections on COMMAND_DISCONNECT, but keep the pairings, as this device does.
+        this._connectedDevices.clear();
+        _dropReassemblies(BluetoothDeviceRegistry.NO_DEVICE);
+        _pendingRequests.clear();
+        _closeLinks(BluetoothDeviceRegistry.NO_DEVICE);
+        _advertising = false;
+        _advertisement = null;
+        _nextAdvertisingTime = null;
+        _observing = false;
+        _emit(_SWITCHOFF_STATUS);
+        return false;
+    }
+    
+    private boolean _scan(Token details) throws IllegalActionException {
+        this.state = States.STATE_SCANNING;
+        _transmit(BluetoothResponseToken.getControlToken(BluetoothResponse.COMMAND_SCAN, BluetoothDeviceRegistry.BROADCAST, _handle));
+        _emit(_SCAN_STATUS);
+        _startInquiry();
+        return false;
+    }
+    
+    private boolean _rescan(Token details) throws IllegalActionException {
+        // With an inquiry interval, the re-broadcasts are timed by _serviceInquiry() instead.
+        if (_inquiryInterval == 0.0) {
+            _transmit(BluetoothResponseToken.getControlToken(BluetoothResponse.COMMAND_SCAN, BluetoothDeviceRegistry.BROADCAST, _handle));
+        }
+        return true;
+    }
+    
+    private boolean _stopScan(Token details) throws IllegalActionException {
+        _nextInquiryTime = null;
+        _inquiryEndTime = null;
+        this.state = this._connectedDevices.isEmpty() ? States.STATE_IDLE : States.STATE_CONNECTED;
+        _emit(_STOPSCAN_STATUS);
+        return false;
+    }
+    
+    private boolean _discoverable(Token details) throws IllegalActionException {
+        this._discoverable = true;
+        _emit(_DISCOVERABLE_STATUS);
+        return false;
+    }
+    
+    private boolean _hide(Token details) throws IllegalActionException {
+        this._discoverable = false;
+        _emit(_HIDDEN_STATUS);
+        return false;
+    }
+    
+    private boolean _advertise(Token details) throws IllegalActionException {
+        // The data on the wired input data port, if any, is read and broadcast by _serviceAdvertising() in this firing.
+        _advertising = true;
+        _nextAdvertisingTime = getDirector().getModelTime();
+        _emit(_ADVERTISING_STATUS);
+        return false;
+    }
+    
+    private boolean _stopAdvertise(Token details) throws IllegalActionException {
+        _advertising = false;
+        _advertisement = null;
+        _nextAdvertisingTime = null;
+        _emit(_STOPADVERTISING_STATUS);
+        return false;
+    }
+    
+    private boolean _observe(Token details) throws IllegalActionException {
+        _observing = true;
+        _observedAdvertisers.clear();
+        _observeAll = details == _EMPTY;
+        if (!_observeAll) {
+            for (int advertiser : _deviceHandles(details, "WiredInputDetails port must be filled with device identifiers, or left empty, to command observing")) {
+                if (advertiser != BluetoothDeviceRegistry.NO_DEVICE) {
+                    _observedAdvertisers.set(advertiser);
+                }
+            }
+        }
+        _emit(_OBSERVING_STATUS);
+        return false;
+    }
+    
+    private boolean _stopObserve(Token details) throws IllegalActionException {
+        _observing = false;
+        _emit(_STOPOBSERVING_STATUS);
+        return false;
+    }
+    
+    private boolean _connect(Token details) throws IllegalActionException {
+        int[] devicesToConnect = _deviceHandles(details, "WiredInputDetails port must be filled with device identifier to command connection");
+        for (int deviceToConnect : devicesToConnect) {
+            if (deviceToConnect != BluetoothDeviceRegistry.NO_DEVICE && !this._pairedDevices.get(deviceToConnect)) {
+                throw new IllegalActionException(this, "Cannot connect to an unpaired device.");
+            }
+        }
+        for (int deviceToConnect : devicesToConnect) {
+            if (deviceToConnect != BluetoothDeviceRegistry.NO_DEVICE) {
+                _request(BluetoothResponse.COMMAND_REQUESTCONNECT, deviceToConnect, BluetoothEvent.CONNECTING);
+            }
+        }
+        return true;
+    }
+    
+    private boolean _disconnect(Token details) throws IllegalActionException {
+        int deviceToDisconnect = _deviceHandle(details, "WiredInputDetails port must be filled with device identifier to command disconnection");
+        if (deviceToDisconnect == BluetoothDeviceRegistry.NO_DEVICE || !this._connectedDevices.get(deviceToDisconnect)) {
+            throw new IllegalActionException(this, "Cannot disconnect from a device that is not connected.");
+        }
+        this._connectedDevices.clear(deviceToDisconnect);
+        _dropReassemblies(deviceToDisconnect);
+        _closeLinks(deviceToDisconnect);
+        _transmit(BluetoothResponseToken.getControlToken(BluetoothResponse.COMMAND_DISCONNECT, deviceToDisconnect, _handle));
+        _report(BluetoothEvent.DISCONNECTING, deviceToDisconnect, 0);
+        return true;
+    }
+    
+    private boolean _pair(Token details) throws IllegalActionException {
+        if (details instanceof StringToken || details instanceof ArrayToken) {
+            for (int deviceToPair : _deviceHandles(details, "WiredInputDetails port must be filled with device identifiers to command pairing")) {
+                if (deviceToPair != BluetoothDeviceRegistry.NO_DEVICE && _discoveryCache.contains(deviceToPair, _now())
+                        && !this._pairedDevices.get(deviceToPair)) {
+                    _request(BluetoothResponse.COMMAND_REQUESTPAIR, deviceToPair, BluetoothEvent.PAIRING);
+                }
+            }
+        }
+        return true;
+    }
+    
+    private boolean _unpair(Token details) throws IllegalActionException {
+        if (details instanceof StringToken) {
+            int deviceToUnpair = _deviceHandle(details, "WiredInputDetails port must be filled with device identifier to command unpairing");
+            if (deviceToUnpair != BluetoothDeviceRegistry.NO_DEVICE && _discoveryCache.contains(deviceToUnpair, _now())
+                    && this._pairedDevices.get(deviceToUnpair)) {
+                // Here is a behavior which is particularly interesting in Bluetooth - when you unpair, you don't tell the paired device anything.
+                // You just remove it from your lists of paired and connected devices and move on.
+                this._connectedDevices.clear(deviceToUnpair);
+                this._pairedDevices.clear(deviceToUnpair);
+                _closeLinks(deviceToUnpair);
+                _report(BluetoothEvent.UNPAIRED, deviceToUnpair, 0);
+            }
+        }
+        return true;
+    }
+    
+    private boolean _sendData(Token details) throws IllegalActionException {
+        if (details instanceof StringToken) {
+            String target = ((StringToken) details).stringValue();
+            int[] group = target.equals(_ALL_CONNECTED) ? BluetoothCheckpoint.DeviceState.handles(this._connectedDevices) : _groups.get(target);
+            if (group != null) {
+                _sendMulticast(target, group);
+                return true;
+            }
+            int deviceToSendData = BluetoothDeviceRegistry.lookup(target);
+            if (deviceToSendData == BluetoothDeviceRegistry.NO_DEVICE) {
+                // No device has that name, so there is no connection to send the data on.
+                return true;
+            }
+            if (!this._connectedDevices.get(deviceToSendData) || !this.wiredInputData.hasToken(0)) {
+                throw new IllegalActionException(this, "Data to send must be specified on port: " + this.wiredInputData.getName());
+            }
+            if (_bulkTransfer) {
+                _sendBulkData(deviceToSendData);
+            }
+            else {
+                _sendPayload(deviceToSendData, wiredInputData.get(0), BluetoothEvent.DATA_SENT, 0);
+            }
+        }
+        return true;
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                  private response handlers                ////
+    
+    private void _onScanRequest(BluetoothResponseToken response) throws IllegalActionException {
+        int source = response.getSourceHandle();
+        if (this._discoverable && _discoveryCache.see(source, _now())) {
+            _transmit(BluetoothResponseToken.getControlToken(BluetoothResponse.RESPONSE_FINDME, source, _handle));
+            _report(BluetoothEvent.SCAN_REQUEST_RECEIVED, source, 0);
+        }
+    }
+    
+    private void _onFindMe(BluetoothResponseToken response) {
+        _discoveryCache.see(response.getSourceHandle(), _now());
+    }
+    
+    private void _onPairRequest(BluetoothResponseToken response) throws IllegalActionException {
+        // For now, we accept all pair requests.
+        int source = response.getSourceHandle();
+        if (_discoveryCache.contains(source, _now())) {
+            this._pairedDevices.set(source);
+            _transmit(BluetoothResponseToken.getControlToken(BluetoothResponse.RESPONSE_ACCEPTPAIR, source, _handle, response.getCorrelationId()));
+            _report(BluetoothEvent.PAIR_REQUEST_RECEIVED, source, 0);
+        }
+    }
+    
+    private void _onAcceptPair(BluetoothResponseToken response) throws IllegalActionException {
+        if (_completeRequest(response, BluetoothResponse.COMMAND_REQUESTPAIR)) {
+            this._pairedDevices.set(response.getSourceHandle());
+            _report(BluetoothEvent.PAIR_ACCEPTED, response.getSourceHandle(), response.getCorrelationId());
+        }
+    }
+    
+    private void _onConnectRequest(BluetoothResponseToken response) throws IllegalActionException {
+        // For now, we accept all connection requests from paired devices, as long as we don't have more than 7 connections open.
+        // See: http://en.wikipedia.org/wiki/Bluetooth#Implementation
+        int source = response.getSourceHandle();
+        if (this._pairedDevices.get(source) && this._connectedDevices.cardinality() <= 7) {
+            this.state = States.STATE_CONNECTED;
+            this._connectedDevices.set(source);
+            _link(source);
+            _transmit(BluetoothResponseToken.getControlToken(BluetoothResponse.RESPONSE_ACCEPTCONNECT, source, _handle, response.getCorrelationId()));
+            _report(BluetoothEvent.CONNECT_REQUEST_RECEIVED, source, 0);
+        }
+    }
+    
+    private void _onAcceptConnect(BluetoothResponseToken response) throws IllegalActionException {
+        if (_completeRequest(response, BluetoothResponse.COMMAND_REQUESTCONNECT)) {
+            this.state = States.STATE_CONNECTED;
+            this._connectedDevices.set(response.getSourceHandle());
+            _link(response.getSourceHandle());
+            _report(BluetoothEvent.CONNECT_ACCEPTED, response.getSourceHandle(), response.getCorrelationId());
+        }
+    }
+    
+    private void _onAcknowledge(BluetoothResponseToken response) throws IllegalActionException {
+        int source = response.getSourceHandle();
+        _Link link = _links.get(source);
+        if (link == null) {
+            return;
+        }
+        int sequence = response.getSequenceNumber();
+        if (sequence - link.acknowledged > 0 && link.nextSequence - sequence > 0) {
+            link.acknowledgedCount += _sequenceDistance(link.acknowledged, sequence);
+            link.acknowledged = sequence;
+        }
+        if (response.getData() instanceof IntToken) {
+            link.credit = Math.max(1, ((IntToken) response.getData()).intValue());
+        }
+        _sendWindow(source, link);
+    }
+    
+    private void _onAdvertisement(BluetoothResponseToken response) throws IllegalActionException {
+        int source = response.getSourceHandle();
+        if (_observing && (_observeAll || _observedAdvertisers.get(source))) {
+            _emit(new BluetoothStatusToken<Object>(BluetoothStatus.STATUS_OK, BluetoothEvent.ADVERTISEMENT_RECEIVED, source, 0, response.getData()));
+        }
+    }
+    
+    private void _onDisconnect(BluetoothResponseToken response) throws IllegalActionException {
+        int source = response.getSourceHandle();
+        if (this._connectedDevices.get(source)) {
+            this._connectedDevices.clear(source);
+            _dropReassemblies(source);
+            _closeLinks(source);
+            _report(BluetoothEvent.DISCONNECTED, source, 0);
+        }
+    }
+    
+    private void _onData(BluetoothResponseToken response) throws IllegalActionException {
+        int source = response.getSourceHandle();
+        if (this._connectedDevices.get(source)) {
+            _Link link = _link(source);
+            link.received++;
+            if (response.getSequenceNumber() != BluetoothResponseToken.NO_CORRELATION) {
+                link.lastReceived = response.getSequenceNumber();
+                link.acknowledgementOwed = true;
+                _acknowledgementsOwed = true;
+            }
+            if (response.getData() instanceof BluetoothBatchToken) {
+                BluetoothBatchToken batch = (BluetoothBatchToken) response.getData();
+                for (int i = 0; i < batch.length(); i++) {
+                    _emit(new BluetoothStatusToken<Token>(BluetoothStatus.STATUS_OK, BluetoothEvent.DATA_RECEIVED, source, 0, batch.getElement(i)));
+                }
+            }
+            else if (response.getData() instanceof BluetoothSegmentToken) {
+                BluetoothBufferToken payload = _reassemble(source, (BluetoothSegmentToken) response.getData());
+                if (payload != null) {
+                    _emit(new BluetoothStatusToken<Token>(BluetoothStatus.STATUS_OK, BluetoothEvent.DATA_RECEIVED, source, 0, payload));
+                }
+            }
+            else {
+                _emit(new BluetoothStatusToken<Object>(BluetoothStatus.STATUS_OK, BluetoothEvent.DATA_RECEIVED, source, 0, response.getData()));
+            }
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    /** The token used in place of the details of a command when the wired input details port is empty. */
+    private static final StringToken _EMPTY = new StringToken("empty");
+    
+    /** The name of the group of every connected device, see deviceGroups. */
+    private static final String _ALL_CONNECTED = "*";
+    
+    // Status tokens are immutable, so the ones that do not refer to another device are shared.
+    private static final BluetoothStatusToken<String> _SWITCHON_STATUS = new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, BluetoothEvent.SWITCHON, BluetoothDeviceRegistry.NO_DEVICE);
+    private static final BluetoothStatusToken<String> _SWITCHOFF_STATUS = new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, BluetoothEvent.SWITCHOFF, BluetoothDeviceRegistry.NO_DEVICE);
+    private static final BluetoothStatusToken<String> _SCAN_STATUS = new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, BluetoothEvent.SCAN, BluetoothDeviceRegistry.NO_DEVICE);
+    private static final BluetoothStatusToken<String> _STOPSCAN_STATUS = new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, BluetoothEvent.STOPSCAN, BluetoothDeviceRegistry.NO_DEVICE);
+    private static final BluetoothStatusToken<String> _DISCOVERABLE_STATUS = new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, BluetoothEvent.DISCOVERABLE, BluetoothDeviceRegistry.NO_DEVICE);
+    private static final BluetoothStatusToken<String> _HIDDEN_STATUS = new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, BluetoothEvent.HIDDEN, BluetoothDeviceRegistry.NO_DEVICE);
+    private static final BluetoothStatusToken<String> _INQUIRY_COMPLETE_STATUS = new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, BluetoothEvent.INQUIRY_COMPLETE, BluetoothDeviceRegistry.NO_DEVICE);
+    private static final BluetoothStatusToken<String> _ADVERTISING_STATUS = new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, BluetoothEvent.ADVERTISING, BluetoothDeviceRegistry.NO_DEVICE);
+    private static final BluetoothStatusToken<String> _STOPADVERTISING_STATUS = new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, BluetoothEvent.STOPADVERTISING, BluetoothDeviceRegistry.NO_DEVICE);
+    private static final BluetoothStatusToken<String> _OBSERVING_STATUS = new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, BluetoothEvent.OBSERVING, BluetoothDeviceRegistry.NO_DEVICE);
+    private static final BluetoothStatusToken<String> _STOPOBSERVING_STATUS = new BluetoothStatusToken<String>(BluetoothStatus.STATUS_OK, BluetoothEvent.STOPOBSERVING, BluetoothDeviceRegistry.NO_DEVICE);
+    
+    // Drop policies of the inbox.
+    private static final int _DROP_NEWEST = 0;
+    private static final int _DROP_OLDEST = 1;
+    private static final int _DROP_LOWEST_PRIORITY = 2;
+    
+    // The priority class of each response, indexed by ordinal. Lower classes are handled first.
+    private static final int _PRIORITY_CLASSES = 3;
+    private static final int[] _PRIORITY = new int[BluetoothResponse.values().length];
+    
+    static {
+        Arrays.fill(_PRIORITY, 0);
+        _PRIORITY[BluetoothResponse.RESPONSE_OK.ordinal()] = 1;
+        _PRIORITY[BluetoothResponse.RESPONSE_ADVERTISEMENT.ordinal()] = 1;
+        _PRIORITY[BluetoothResponse.COMMAND_SCAN.ordinal()] = 2;
+    }
+    
+    private enum States {
+        STATE_IDLE,
+        STATE_CONNECTED,
+        STATE_SCANNING,
+        STATE_OFF,
+    }
+    
+    /** A transition of the state machine taken on a command from the wired input port. */
+    private interface CommandHandler {
+        boolean handle(BluetoothDevice device, Token details) throws IllegalActionException;
+    }
+    
+    /** A transition of the state machine taken on a BluetoothResponseToken from the wireless input port. */
+    private interface ResponseHandler {
+        void handle(BluetoothDevice device, BluetoothResponseToken response) throws IllegalActionException;
+    }
+    
+    // The transition tables, indexed by state and then by command or response ordinal.
+    // A null response handler means that the response is ignored in that state.
+    private static final CommandHandler[][] _COMMAND_HANDLERS = new CommandHandler[States.values().length][BluetoothCommand.values().length];
+    private static final ResponseHandler[][] _UNICAST_HANDLERS = new ResponseHandler[States.values().length][BluetoothResponse.values().length];
+    private static final ResponseHandler[][] _BROADCAST_HANDLERS = new ResponseHandler[States.values().length][BluetoothResponse.values().length];
+    
+    static {
+        CommandHandler ignoreWhileOff = BluetoothDevice::_ignoreWhileOff;
+        CommandHandler noCommand = BluetoothDevice::_noCommand;
+        for (States state : States.values()) {
+            Arrays.fill(_COMMAND_HANDLERS[state.ordinal()], state == States.STATE_OFF ? ignoreWhileOff : noCommand);
+        }
+        
+        _onCommand(States.STATE_OFF, BluetoothCommand.COMMAND_SWITCHON, BluetoothDevice::_switchOn);
+        
+        _onCommand(States.STATE_IDLE, BluetoothCommand.COMMAND_SWITCHOFF, BluetoothDevice::_switchOff);
+        _onCommand(States.STATE_IDLE, BluetoothCommand.COMMAND_SCAN, BluetoothDevice::_scan);
+        _onCommand(States.STATE_IDLE, BluetoothCommand.COMMAND_CONNECT, BluetoothDevice::_connect);
+        _onCommand(States.STATE_IDLE, BluetoothCommand.COMMAND_PAIR, BluetoothDevice::_pair);
+        _onCommand(States.STATE_IDLE, BluetoothCommand.COMMAND_UNPAIR, BluetoothDevice::_unpair);
+        _onCommand(States.STATE_IDLE, BluetoothCommand.COMMAND_DISCOVERABLE, BluetoothDevice::_discoverable);
+        _onCommand(States.STATE_IDLE, BluetoothCommand.COMMAND_HIDE, BluetoothDevice::_hide);
+        
+        _onCommand(States.STATE_CONNECTED, BluetoothCommand.COMMAND_SWITCHOFF, BluetoothDevice::_switchOff);
+        _onCommand(States.STATE_CONNECTED, BluetoothCommand.COMMAND_SCAN, BluetoothDevice::_scan);
+        _onCommand(States.STATE_CONNECTED, BluetoothCommand.COMMAND_CONNECT, BluetoothDevice::_connect);
+        _onCommand(States.STATE_CONNECTED, BluetoothCommand.COMMAND_DISCONNECT, BluetoothDevice::_disconnect);
+        _onCommand(States.STATE_CONNECTED, BluetoothCommand.COMMAND_PAIR, BluetoothDevice::_pair);
+        _onCommand(States.STATE_CONNECTED, BluetoothCommand.COMMAND_UNPAIR, BluetoothDevice::_unpair);
+        _onCommand(States.STATE_CONNECTED, BluetoothCommand.COMMAND_DISCOVERABLE, BluetoothDevice::_discoverable);
+        _onCommand(States.STATE_CONNECTED, BluetoothCommand.COMMAND_HIDE, BluetoothDevice::_hide);
+        _onCommand(States.STATE_CONNECTED, BluetoothCommand.COMMAND_SENDDATA, BluetoothDevice::_sendData);
+        
+        _onCommand(States.STATE_SCANNING, BluetoothCommand.COMMAND_SWITCHOFF, BluetoothDevice::_switchOff);
+        _onCommand(States.STATE_SCANNING, BluetoothCommand.COMMAND_STOPSCAN, BluetoothDevice::_stopScan);
+        _onCommand(States.STATE_SCANNING, BluetoothCommand.COMMAND_CONNECT, BluetoothDevice::_connect);
+        _onCommand(States.STATE_SCANNING, BluetoothCommand.COMMAND_PAIR, BluetoothDevice::_pair);
+        _onCommand(States.STATE_SCANNING, BluetoothCommand.COMMAND_DISCOVERABLE, BluetoothDevice::_discoverable);
+        _onCommand(States.STATE_SCANNING, BluetoothCommand.COMMAND_HIDE, BluetoothDevice::_hide);
+        _onCommand(States.STATE_SCANNING, BluetoothCommand.COMMAND_NOCOMMAND, BluetoothDevice::_rescan);
+        
+        for (States state : new States[] { States.STATE_IDLE, States.STATE_CONNECTED, States.STATE_SCANNING }) {
+            _onCommand(state, BluetoothCommand.COMMAND_ADVERTISE, BluetoothDevice::_advertise);
+            _onCommand(state, BluetoothCommand.COMMAND_STOPADVERTISE, BluetoothDevice::_stopAdvertise);
+            _onCommand(state, BluetoothCommand.COMMAND_OBSERVE, BluetoothDevice::_observe);
+            _onCommand(state, BluetoothCommand.COMMAND_STOPOBSERVE, BluetoothDevice::_stopObserve);
+            _onBroadcast(state, BluetoothResponse.RESPONSE_ADVERTISEMENT, BluetoothDevice::_onAdvertisement);
+        }
+        
+        _onUnicast(States.STATE_IDLE, BluetoothResponse.COMMAND_REQUESTCONNECT, BluetoothDevice::_onConnectRequest);
+        _onUnicast(States.STATE_IDLE, BluetoothResponse.COMMAND_REQUESTPAIR, BluetoothDevice::_onPairRequest);
+        _onUnicast(States.STATE_IDLE, BluetoothResponse.RESPONSE_ACCEPTPAIR, BluetoothDevice::_onAcceptPair);
+        _onUnicast(States.STATE_IDLE, BluetoothResponse.RESPONSE_ACCEPTCONNECT, BluetoothDevice::_onAcceptConnect);
+        _onBroadcast(States.STATE_IDLE, BluetoothResponse.COMMAND_SCAN, BluetoothDevice::_onScanRequest);
+        
+        _onUnicast(States.STATE_CONNECTED, BluetoothResponse.RESPONSE_ACCEPTCONNECT, BluetoothDevice::_onAcceptConnect);
+        _onUnicast(States.STATE_CONNECTED, BluetoothResponse.RESPONSE_OK, BluetoothDevice::_onData);
+        _onUnicast(States.STATE_CONNECTED, BluetoothResponse.RESPONSE_ACK, BluetoothDevice::_onAcknowledge);
+        _onUnicast(States.STATE_CONNECTED, BluetoothResponse.COMMAND_REQUESTPAIR, BluetoothDevice::_onPairRequest);
+        _onUnicast(States.STATE_CONNECTED, BluetoothResponse.COMMAND_REQUESTCONNECT, BluetoothDevice::_onConnectRequest);
+        _onUnicast(States.STATE_CONNECTED, BluetoothResponse.COMMAND_DISCONNECT, BluetoothDevice::_onDisconnect);
+        _onBroadcast(States.STATE_CONNECTED, BluetoothResponse.COMMAND_SCAN, BluetoothDevice::_onScanRequest);
+        
+        _onUnicast(States.STATE_SCANNING, BluetoothResponse.RESPONSE_FINDME, BluetoothDevice::_onFindMe);
+        _onUnicast(States.STATE_SCANNING, BluetoothResponse.RESPONSE_ACK, BluetoothDevice::_onAcknowledge);
+        _onUnicast(States.STATE_SCANNING, BluetoothResponse.COMMAND_REQUESTCONNECT, BluetoothDevice::_onConnectRequest);
+        _onUnicast(States.STATE_SCANNING, BluetoothResponse.COMMAND_REQUESTPAIR, BluetoothDevice::_onPairRequest);
+        _onUnicast(States.STATE_SCANNING, BluetoothResponse.RESPONSE_ACCEPTPAIR, BluetoothDevice::_onAcceptPair);
+        _onUnicast(States.STATE_SCANNING, BluetoothResponse.RESPONSE_ACCEPTCONNECT, BluetoothDevice::_onAcceptConnect);
+    }
+    
+    private static void _onCommand(States state, BluetoothCommand command, CommandHandler handler) {
+        _COMMAND_HANDLERS[state.ordinal()][command.ordinal()] = handler;
+    }
+    
+    private static void _onUnicast(States state, BluetoothResponse response, ResponseHandler handler) {
+        _UNICAST_HANDLERS[state.ordinal()][response.ordinal()] = handler;
+    }
+    
+    private static void _onBroadcast(States state, BluetoothResponse response, ResponseHandler handler) {
+        _BROADCAST_HANDLERS[state.ordinal()][response.ordinal()] = handler;
+    }
+    
+    // The device sets are indexed by the handles handed out by BluetoothDeviceRegistry.
+    private BluetoothDiscoveryCache _discoveryCache;
+    private BitSet _pairedDevices;
+    private BitSet _connectedDevices; 
+    private States state;
+    private boolean _discoverable;
+    private int _handle;
+    // True from preinitialize() to wrapup(), while this actor holds the canonical control tokens.
+    private boolean _holdsControlTokens;
+    
+    // Inquiry parameters and timers.
+    private double _inquiryInterval;
+    private double _maxInquiryInterval;
+    private double _inquiryWindow;
+    private double _currentInquiryInterval;
+    private long _foundAtLastInquiry;
+    private Time _nextInquiryTime;
+    private Time _inquiryEndTime;
+    
+    // Data transfer parameters, and the batch being framed by the bulk transfer mode.
+    private boolean _bulkTransfer;
+    private int _maxTransmissionUnit = 16;
+    private Token[] _batch;
+    
+    // Segmentation of large buffers: the identifier of the next payload sent, and the payloads being reassembled, keyed by
+    // the handle of the sending device in the upper half and the payload identifier in the lower half.
+    private int _maxSegmentSize = 672;
+    private int _nextPayloadIdentifier;
+    private final HashMap<Long, _Reassembly> _reassemblies = new HashMap<Long, _Reassembly>();
+    private double _reassemblyTimeout = 10.0;
+    private Time _reassemblyFireTime;
+    
+    // The members of each group named in deviceGroups.
+    private final HashMap<String, int[]> _groups = new HashMap<String, int[]>();
+    
+    // Flow control: the window, the credit granted to the devices sending data, the state of each connection, keyed by the
+    // handle of the connected device, and whether a connection owes an acknowledgement.
+    private int _flowControlWindow;
+    private IntToken _credit = new IntToken(Integer.MAX_VALUE);
+    private final HashMap<Integer, _Link> _links = new HashMap<Integer, _Link>();
+    private boolean _acknowledgementsOwed;
+    
+    // Advertising: the interval, whether this device advertises, the data advertised and the time of the next advertising event.
+    // Observing: whether this device observes, and the advertisers observed unless every advertiser is.
+    private double _advertisingInterval;
+    private boolean _advertising;
+    private Token _advertisement;
+    private Time _nextAdvertisingTime;
+    private boolean _observing;
+    private boolean _observeAll;
+    private final BitSet _observedAdvertisers = new BitSet();
+    
+    // The connect and pair requests awaiting their answer, keyed by their correlation identifier, and the identifier of the next request.
+    private final HashMap<Integer, _PendingRequest> _pendingRequests = new HashMap<Integer, _PendingRequest>();
+    private int _nextCorrelationId = 1;
+    
+    // Handshake timeouts, and the time of the last firing requested for a deadline.
+    private double _handshakeTimeout = 5.12;
+    private int _handshakeRetryLimit = 2;
+    private Time _handshakeFireTime;
+    
+    // The prefire() calls and the firings they skipped in the current execution.
+    private long _prefires;
+    private long _skippedFires;
+    
+    // The lowest verbosity level of the status tokens output.
+    private int _verbosity = BluetoothEvent.ALL;
+    
+    // The event log, while open.
+    private BluetoothEventLog _eventLog;
+    
+    // The counters of this actor, if enabled, and the state whose dwell time is being measured.
+    private BluetoothMetrics _metrics;
+    private States _metricsState;
+    private Time _metricsStateTime;
+    
+    // The outputs kept while they are deferred by a BluetoothParallelDirector.
+    private boolean _deferOutputs;
+    private final ArrayList<Token> _deferred = new ArrayList<Token>();
+    
+    // The inbox, with one queue per priority class, used when inboxBudget or inboxCapacity is set.
+    private int _inboxBudget;
+    private int _inboxCapacity;
+    private int _dropPolicy = _DROP_LOWEST_PRIORITY;
+    private ArrayDeque<BluetoothResponseToken>[] _inbox;
+    private int _inboxSize;
+    private final long[] _droppedResponses = new long[_PRIORITY_CLASSES];
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         inner classes                     ////
+    
+    /** A payload being reassembled: the pooled buffer receiving its segments, the ranges of bytes received and their number,
+     *  and the time after which it is dropped, if any.
+     */
+    private static class _Reassembly {
+        _Reassembly(int source, ByteBuffer buffer) {
+            this.source = source;
+            this.buffer = buffer;
+        }
+        
+        /** Add a range of bytes to the ranges received, merging it with those it overlaps or touches.
+         *  @return The number of bytes of the range that were not received before.
+         */
+        int cover(int start, int end) {
+            int covered = 0;
+            int mergedStart = start;
+            int mergedEnd = end;
+            Map.Entry<Integer, Integer> range = ranges.floorEntry(start);
+            if (range == null || range.getValue() < start) {
+                range = ranges.higherEntry(start);
+            }
+            while (range != null && range.getKey() <= end) {
+                covered += Math.max(0, Math.min(range.getValue(), end) - Math.max(range.getKey(), start));
+                mergedStart = Math.min(mergedStart, range.getKey());
+                mergedEnd = Math.max(mergedEnd, range.getValue());
+                ranges.remove(range.getKey());
+                range = ranges.higherEntry(range.getKey());
+            }
+            ranges.put(mergedStart, mergedEnd);
+            return end - start - covered;
+        }
+        
+        final int source;
+        final ByteBuffer buffer;
+        // The ranges of bytes received, from their start to their end, exclusive.
+        final TreeMap<Integer, Integer> ranges = new TreeMap<Integer, Integer>();
+        int received;
+        Time deadline;
+    }
+    
+    /** The state of a connection: the data sent and waiting to be sent, the acknowledgements and credit received, the data
+     *  received, and the time at which it was opened.
+     */
+    private static class _Link {
+        _Link(Time opened) {
+            this.opened = opened;
+        }
+        
+        /** Return the figures of this connection at the given time. */
+        BluetoothLinkStatistics statistics(Time now) {
+            return new BluetoothLinkStatistics(sent, acknowledgedCount, received, now.subtract(opened).getDoubleValue());
+        }
+        
+        final Time opened;
+        final ArrayDeque<_Outgoing> backlog = new ArrayDeque<_Outgoing>();
+        int nextSequence = 1;
+        int acknowledged;
+        int credit = Integer.MAX_VALUE;
+        long sent;
+        long acknowledgedCount;
+        long received;
+        int lastReceived;
+        boolean acknowledgementOwed;
+    }
+    
+    /** A payload waiting in the send buffer of a connection, with the offset of its next segment if it is sent in segments,
+     *  and the event reported once it is sent.
+     */
+    private static class _Outgoing {
+        _Outgoing(Token payload, boolean segmented, int identifier, BluetoothEvent event, int argument) {
+            this.payload = payload;
+            this.segmented = segmented;
+            this.identifier = identifier;
+            this.event = event;
+            this.argument = argument;
+        }
+        
+        final Token payload;
+        final boolean segmented;
+        final int identifier;
+        final BluetoothEvent event;
+        final int argument;
+        int offset;
+    }
+    
+    /** A connect or pair request awaiting its answer: the request sent, the handle of the device it was sent to, the number of
+     *  times it was sent, and the deadline of its answer, or null if it never times out.
+     */
+    private static class _PendingRequest {
+        _PendingRequest(BluetoothResponse request, int target) {
+            this.request = request;
+            this.target = target;
+        }
+        
+        final BluetoothResponse request;
+        final int target;
+        int attempts = 1;
+        Time deadline;
+    }
    
 }
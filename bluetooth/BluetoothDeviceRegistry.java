@@ -0,0 +1,101 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class interns the names of BluetoothDevice actors to dense integer handles. Bluetooth traffic is addressed by device name, so the
+ * registry is shared by every BluetoothDevice actor on every wireless channel, and a name is always mapped to the same handle.
+ * <p>
+ * Handles are allocated in increasing order starting at zero, which allows the device sets of a BluetoothDevice to be kept in a bitset
+ * indexed by handle. The handle zero is reserved for the "scan" broadcast address used by COMMAND_SCAN.
+ * <p>
+ * Interning a name is synchronized, looking up a handle by name is not.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothDevice
+ * @see BluetoothResponseToken
+ */
+public final class BluetoothDeviceRegistry {
+
+    private BluetoothDeviceRegistry() {
+    }
+
+    /** The name used as the target device of a COMMAND_SCAN broadcast. */
+    public static final String BROADCAST_NAME = "scan";
+
+    /** The handle of the "scan" broadcast address. */
+    public static final int BROADCAST = 0;
+
+    /** The value returned by lookup() for a name that has never been interned. */
+    public static final int NO_DEVICE = -1;
+
+    /** The target device of a response addressed to several devices, which the response lists, see BluetoothResponseToken.getDestinations(). */
+    public static final int MULTICAST = -2;
+
+    /**
+     * Return the handle of the given device name, allocating a new handle if the name has not been seen before.
+     * @param name : The name of the device.
+     * @return The handle of the device.
+     */
+    public static int intern(String name) {
+        Integer handle = _handles.get(name);
+        if (handle != null) {
+            return handle.intValue();
+        }
+        synchronized (BluetoothDeviceRegistry.class) {
+            handle = _handles.get(name);
+            if (handle == null) {
+                if (_size == _names.length) {
+                    _names = Arrays.copyOf(_names, _size * 2);
+                }
+                _names[_size] = name;
+                handle = Integer.valueOf(_size);
+                _size++;
+                _handles.put(name, handle);
+            }
+            return handle.intValue();
+        }
+    }
+
+    /**
+     * Return the handle of the given device name without allocating one.
+     * @param name : The name of the device.
+     * @return The handle of the device, or NO_DEVICE if the name has never been interned.
+     */
+    public static int lookup(String name) {
+        Integer handle = _handles.get(name);
+        return handle == null ? NO_DEVICE : handle.intValue();
+    }
+
+    /**
+     * Return the name associated with the given handle.
+     * @param handle : A handle returned by intern().
+     * @return The name of the device, or null if the handle has not been allocated.
+     */
+    public static synchronized String getName(int handle) {
+        if (handle < 0 || handle >= _size) {
+            return null;
+        }
+        return _names[handle];
+    }
+
+    /**
+     * Return the number of handles allocated so far, including the broadcast handle.
+     * @return The number of handles.
+     */
+    public static synchronized int size() {
+        return _size;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    private static final ConcurrentHashMap<String, Integer> _handles = new ConcurrentHashMap<String, Integer>();
+    private static String[] _names = new String[64];
+    private static int _size;
+
+    static {
+        intern(BROADCAST_NAME);
+    }
+}
@@ -0,0 +1,346 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.util.Arrays;
+
+/**
+ * This class holds the devices found by a BluetoothDevice, with the model time at which each was last seen, in a bounded cache.
+ * <p>
+ * A device is forgotten once it has not been seen for longer than the time to live of the cache, and the device seen least recently is
+ * forgotten when a new device is seen while the cache holds as many devices as its capacity. A time to live of 0.0 means that devices
+ * never expire, and a capacity of 0 that the cache is unbounded, in which case the cache behaves as the set of every device ever found.
+ * <p>
+ * The devices are the handles given out by the BluetoothDeviceRegistry. They are kept in an open addressing hash table with linear probing,
+ * which maps a handle to an entry of parallel arrays holding the handle, the time it was last seen, and its neighbours in a list ordered
+ * from the most to the least recently seen device. Seeing a device moves it to the front of the list, so that the expired devices, and the
+ * device to evict, are at its back. No object is allocated once the cache has reached its capacity.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @author Phillip Azar
+ * @see BluetoothDevice
+ */
+public class BluetoothDiscoveryCache {
+
+    /**
+     * Construct an empty cache.
+     * @param capacity : The largest number of devices held, or 0 for no bound.
+     * @param timeToLive : The model time after which a device that has not been seen is forgotten, or 0.0 for no expiry.
+     * @exception IllegalArgumentException If the capacity or the time to live is negative.
+     */
+    public BluetoothDiscoveryCache(int capacity, double timeToLive) {
+        setTimeToLive(timeToLive);
+        setCapacity(capacity);
+        _allocate(capacity == 0 ? _INITIAL_ENTRIES : Math.min(capacity, _INITIAL_ENTRIES));
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+
+    /**
+     * Forget every device.
+     */
+    public void clear() {
+        Arrays.fill(_table, _EMPTY);
+        _head = _EMPTY;
+        _tail = _EMPTY;
+        _size = 0;
+        _free = _EMPTY;
+        _used = 0;
+    }
+
+    /**
+     * Return true if the given device is held and has not expired. Expired devices are forgotten.
+     * @param handle : The handle of the device.
+     * @param now : The current model time.
+     * @return True if the device is held.
+     */
+    public boolean contains(int handle, double now) {
+        _expire(now);
+        return _find(handle) >= 0;
+    }
+
+    /**
+     * Return the number of devices added to the cache since it was created, which only grows, unlike size().
+     * @return The number of additions.
+     */
+    public long getAdditionCount() {
+        return _additions;
+    }
+
+    /**
+     * Return the largest number of devices held.
+     * @return The capacity, or 0 if the cache is unbounded.
+     */
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * Return the model time at which the given device was last seen.
+     * @param handle : The handle of the device.
+     * @return The time, or NaN if the device is not held.
+     */
+    public double getLastSeen(int handle) {
+        int entry = _find(handle);
+        return entry < 0 ? Double.NaN : _times[entry];
+    }
+
+    /**
+     * Return the model time after which a device that has not been seen is forgotten.
+     * @return The time to live, or 0.0 if devices never expire.
+     */
+    public double getTimeToLive() {
+        return _timeToLive;
+    }
+
+    /**
+     * Forget a device.
+     * @param handle : The handle of the device.
+     */
+    public void remove(int handle) {
+        int entry = _find(handle);
+        if (entry >= 0) {
+            _removeEntry(entry);
+        }
+    }
+
+    /**
+     * Record that a device has been seen, adding it to the cache if it is not held. Expired devices are forgotten, and the
+     * least recently seen device is evicted if the cache is full.
+     * @param handle : The handle of the device.
+     * @param now : The current model time, which must not be earlier than the time given to a previous call.
+     * @return True if the device was not held.
+     */
+    public boolean see(int handle, double now) {
+        _expire(now);
+        int entry = _find(handle);
+        if (entry >= 0) {
+            _times[entry] = now;
+            _unlink(entry);
+            _linkFirst(entry);
+            return false;
+        }
+        if (_capacity > 0 && _size == _capacity) {
+            _removeEntry(_tail);
+        }
+        entry = _newEntry();
+        _handles[entry] = handle;
+        _times[entry] = now;
+        _linkFirst(entry);
+        _insert(entry);
+        _size++;
+        _additions++;
+        return true;
+    }
+
+    /**
+     * Set the largest number of devices held, evicting the least recently seen devices beyond it.
+     * @param capacity : The capacity, or 0 for no bound.
+     * @exception IllegalArgumentException If the capacity is negative.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity of a discovery cache cannot be negative: " + capacity);
+        }
+        _capacity = capacity;
+        while (_capacity > 0 && _size > _capacity) {
+            _removeEntry(_tail);
+        }
+    }
+
+    /**
+     * Set the model time after which a device that has not been seen is forgotten.
+     * @param timeToLive : The time to live, or 0.0 for no expiry.
+     * @exception IllegalArgumentException If the time to live is negative.
+     */
+    public void setTimeToLive(double timeToLive) {
+        if (!(timeToLive >= 0.0)) {
+            throw new IllegalArgumentException("The time to live of a discovery cache cannot be negative: " + timeToLive);
+        }
+        _timeToLive = timeToLive;
+    }
+
+    /**
+     * Return the number of devices held, including those that have expired since the last call taking the current time.
+     * @return The number of devices.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Return the devices held and not expired, from the most to the least recently seen. Expired devices are forgotten.
+     * @param now : The current model time.
+     * @return A new array of handles.
+     */
+    public int[] snapshot(double now) {
+        _expire(now);
+        int[] handles = new int[_size];
+        int i = 0;
+        for (int entry = _head; entry != _EMPTY; entry = _next[entry]) {
+            handles[i++] = _handles[entry];
+        }
+        return handles;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Allocate the entries and the table for the given number of entries. */
+    private void _allocate(int entries) {
+        _handles = new int[entries];
+        _times = new double[entries];
+        _previous = new int[entries];
+        _next = new int[entries];
+        _table = new int[Integer.highestOneBit(Math.max(entries, 2) * 2 - 1) * 2];
+        Arrays.fill(_table, _EMPTY);
+        _shift = 32 - Integer.numberOfTrailingZeros(_table.length);
+    }
+
+    /** Forget the devices at the back of the list that have expired. */
+    private void _expire(double now) {
+        if (_timeToLive == 0.0) {
+            return;
+        }
+        while (_tail != _EMPTY && now - _times[_tail] > _timeToLive) {
+            _removeEntry(_tail);
+        }
+    }
+
+    /** Return the entry of a handle, or -1. */
+    private int _find(int handle) {
+        int mask = _table.length - 1;
+        for (int slot = _home(handle); ; slot = (slot + 1) & mask) {
+            int entry = _table[slot];
+            if (entry == _EMPTY || _handles[entry] == handle) {
+                return entry;
+            }
+        }
+    }
+
+    /** Return the preferred slot of a handle in the table. */
+    private int _home(int handle) {
+        return (handle * 0x9E3779B9) >>> _shift;
+    }
+
+    /** Add an entry to the table. */
+    private void _insert(int entry) {
+        int mask = _table.length - 1;
+        int slot = _home(_handles[entry]);
+        while (_table[slot] != _EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        _table[slot] = entry;
+    }
+
+    /** Put an entry at the front of the list. */
+    private void _linkFirst(int entry) {
+        _previous[entry] = _EMPTY;
+        _next[entry] = _head;
+        if (_head != _EMPTY) {
+            _previous[_head] = entry;
+        }
+        _head = entry;
+        if (_tail == _EMPTY) {
+            _tail = entry;
+        }
+    }
+
+    /** Return a free entry, growing the arrays if every entry is used. */
+    private int _newEntry() {
+        if (_free != _EMPTY) {
+            int entry = _free;
+            _free = _next[entry];
+            return entry;
+        }
+        if (_used == _handles.length) {
+            int entries = _capacity == 0 ? _used * 2 : Math.min(_used * 2, _capacity);
+            _handles = Arrays.copyOf(_handles, entries);
+            _times = Arrays.copyOf(_times, entries);
+            _previous = Arrays.copyOf(_previous, entries);
+            _next = Arrays.copyOf(_next, entries);
+            if (entries * 2 > _table.length) {
+                _rehash(Integer.highestOneBit(entries * 2 - 1) * 2);
+            }
+        }
+        return _used++;
+    }
+
+    /** Rebuild the table with the given number of slots. */
+    private void _rehash(int slots) {
+        _table = new int[slots];
+        Arrays.fill(_table, _EMPTY);
+        _shift = 32 - Integer.numberOfTrailingZeros(slots);
+        for (int entry = _head; entry != _EMPTY; entry = _next[entry]) {
+            _insert(entry);
+        }
+    }
+
+    /** Remove an entry from the table and the list, and free it. */
+    private void _removeEntry(int entry) {
+        int mask = _table.length - 1;
+        int slot = _home(_handles[entry]);
+        while (_table[slot] != entry) {
+            slot = (slot + 1) & mask;
+        }
+        // Shift back the entries of the probe sequence that follows the removed slot.
+        _table[slot] = _EMPTY;
+        for (int next = (slot + 1) & mask; _table[next] != _EMPTY; next = (next + 1) & mask) {
+            int home = _home(_handles[_table[next]]);
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                _table[slot] = _table[next];
+                _table[next] = _EMPTY;
+                slot = next;
+            }
+        }
+        _unlink(entry);
+        _next[entry] = _free;
+        _free = entry;
+        _size--;
+    }
+
+    /** Take an entry out of the list. */
+    private void _unlink(int entry) {
+        int previous = _previous[entry];
+        int next = _next[entry];
+        if (previous != _EMPTY) {
+            _next[previous] = next;
+        }
+        else {
+            _head = next;
+        }
+        if (next != _EMPTY) {
+            _previous[next] = previous;
+        }
+        else {
+            _tail = previous;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    private static final int _EMPTY = -1;
+    private static final int _INITIAL_ENTRIES = 16;
+
+    private long _additions;
+    private int _capacity;
+    private double _timeToLive;
+
+    // The entries, in parallel arrays, the number of entries ever used, and the list of free entries, linked through _next.
+    private int[] _handles;
+    private double[] _times;
+    private int[] _previous;
+    private int[] _next;
+    private int _used;
+    private int _free = _EMPTY;
+
+    // The list of entries from the most to the least recently seen, and the number of entries in it.
+    private int _head = _EMPTY;
+    private int _tail = _EMPTY;
+    private int _size;
+
+    // The table from the slot of a handle to its entry, or _EMPTY, and the shift giving the slot of a hash.
+    private int[] _table;
+    private int _shift;
+}
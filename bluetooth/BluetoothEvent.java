@@ -0,0 +1,105 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+/**
+ * The events reported by a BluetoothDevice in its BluetoothStatusToken outputs. Each event has the message pattern from which the
+ * message of a status token is formatted, when needed, and the verbosity level from which it is reported.
+ * <p>
+ * The message patterns are java.util.Formatter patterns, whose first argument is the argument of the status token, such as a count,
+ * and whose second argument is the name of the device the event refers to. The argument of the PAIRING, CONNECTING, PAIR_ACCEPTED
+ * and CONNECT_ACCEPTED events is the correlation identifier of the request, see BluetoothResponseToken, which their messages leave out.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothStatusToken
+ * @see BluetoothDevice
+ */
+public enum BluetoothEvent {
+    SWITCHON("Switchon", BluetoothEvent.TRANSITIONS),
+    SWITCHOFF("Switchoff", BluetoothEvent.TRANSITIONS),
+    SCAN("Scan", BluetoothEvent.TRANSITIONS),
+    STOPSCAN("Stopscan", BluetoothEvent.TRANSITIONS),
+    INQUIRY_COMPLETE("Inquiry complete", BluetoothEvent.TRANSITIONS),
+    DISCOVERABLE("Discoverable", BluetoothEvent.TRANSITIONS),
+    HIDDEN("Hidden", BluetoothEvent.TRANSITIONS),
+    CONNECTING("Attempting to connect to:%2$s", BluetoothEvent.ALL),
+    DISCONNECTING("Disconnecting from: %2$s", BluetoothEvent.TRANSITIONS),
+    PAIRING("Attempting to pair to:%2$s", BluetoothEvent.ALL),
+    UNPAIRED("Unpaired from: %2$s", BluetoothEvent.TRANSITIONS),
+    DATA_SENT("Sent data to: %2$s", BluetoothEvent.ALL),
+    BATCH_SENT("Sent %1$d data tokens to: %2$s", BluetoothEvent.ALL),
+    SCAN_REQUEST_RECEIVED("Received scan request from:%2$s", BluetoothEvent.ALL),
+    PAIR_REQUEST_RECEIVED("Received pair request from:%2$s", BluetoothEvent.TRANSITIONS),
+    PAIR_ACCEPTED("Accepted pair request from: %2$s", BluetoothEvent.TRANSITIONS),
+    CONNECT_REQUEST_RECEIVED("Received connection request from:%2$s", BluetoothEvent.TRANSITIONS),
+    CONNECT_ACCEPTED("Accepted connection request from: %2$s", BluetoothEvent.TRANSITIONS),
+    DISCONNECTED("Disconnected from: %2$s", BluetoothEvent.TRANSITIONS),
+    DATA_RECEIVED("Received data from: %2$s", BluetoothEvent.NONE),
+    HANDSHAKE_FAILED("No answer from: %2$s after %1$d attempts", BluetoothEvent.ERRORS),
+    SEND_BUFFER_FULL("Send buffer to: %2$s full with %1$d payloads, data dropped", BluetoothEvent.ERRORS),
+    LINK_STATISTICS("Closed connection with: %2$s", BluetoothEvent.TRANSITIONS),
+    ADVERTISING("Advertising", BluetoothEvent.TRANSITIONS),
+    STOPADVERTISING("Stopped advertising", BluetoothEvent.TRANSITIONS),
+    OBSERVING("Observing", BluetoothEvent.TRANSITIONS),
+    STOPOBSERVING("Stopped observing", BluetoothEvent.TRANSITIONS),
+    ADVERTISEMENT_RECEIVED("Received advertisement from: %2$s", BluetoothEvent.NONE),
+    DATA_MULTICAST("Sent data to %1$d devices", BluetoothEvent.ALL),
+    REASSEMBLY_EXPIRED("Incomplete data from: %2$s dropped after %1$d bytes", BluetoothEvent.ERRORS);
+    
+    /** Verbosity level at which nothing but the received data is output. */
+    public static final int NONE = 0;
+    
+    /** Verbosity level at which errors are also reported. */
+    public static final int ERRORS = 1;
+    
+    /** Verbosity level at which changes of the state of a device are also reported. */
+    public static final int TRANSITIONS = 2;
+    
+    /** Verbosity level at which every event is reported. */
+    public static final int ALL = 3;
+    
+    private BluetoothEvent(String pattern, int level) {
+        _pattern = pattern;
+        _level = level;
+    }
+    
+    /** Format the message of this event.
+     *  @param argument The argument of the event, such as a count.
+     *  @param device The name of the device the event refers to, or null.
+     *  @return The message.
+     */
+    public String format(int argument, String device) {
+        if (_pattern.indexOf('%') < 0) {
+            return _pattern;
+        }
+        return String.format(_pattern, argument, device);
+    }
+    
+    /** Return the lowest verbosity level at which this event is reported.
+     *  @return One of NONE, ERRORS, TRANSITIONS or ALL.
+     */
+    public int getLevel() {
+        return _level;
+    }
+    
+    /** Return the verbosity level of the given name.
+     *  @param name One of "none", "errors", "transitions" or "all".
+     *  @return The level, or -1 if the name is not a verbosity level.
+     */
+    public static int levelOf(String name) {
+        if (name.equals("none")) {
+            return NONE;
+        }
+        else if (name.equals("errors")) {
+            return ERRORS;
+        }
+        else if (name.equals("transitions")) {
+            return TRANSITIONS;
+        }
+        else if (name.equals("all")) {
+            return ALL;
+        }
+        return -1;
+    }
+    
+    private final int _level;
+    private final String _pattern;
+}
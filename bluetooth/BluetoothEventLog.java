@@ -0,0 +1,425 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import ptolemy.actor.util.Time;
+import ptolemy.data.Token;
+import ptolemy.kernel.util.IllegalActionException;
+
+/**
+ * This class records the wireless responses sent and the status tokens output by BluetoothDevice actors in a compact binary log, so that the
+ * traffic of a model can be inspected, or replayed into a subset of the devices by a BluetoothEventReplay actor, without running the model again.
+ * <p>
+ * The log consists of two files. The record file, whose name is given to open(), holds one fixed size record per event, appended to a memory
+ * mapped region of the file. Each record holds the model time, the kind of the event, the BluetoothResponse or BluetoothStatus ordinal, the source
+ * device, the target device and a reference to the payload. The dictionary file, whose name is the name of the record file followed by ".dict",
+ * holds the name of each device and the text of each payload referenced by the records, each written once however many records refer to it.
+ * Payloads which are tokens are written as expressions, and the records whose payloads have the same text refer to the same entry.
+ * A response addressed to several devices is flagged in its record, whose target device then refers to the list of its destinations, also
+ * held in the dictionary file.
+ * <p>
+ * If the log is compressed, both files are compressed with gzip when the log is closed, and ".gz" is appended to their names.
+ * <p>
+ * A log is shared by every device that opens the same file, and closed when every device has released it. Appending to the log is synchronized.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothDevice
+ * @see BluetoothEventReplay
+ */
+public class BluetoothEventLog {
+
+    private BluetoothEventLog(File file, boolean compress) throws IOException {
+        _file = file;
+        _compress = compress;
+        _channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        _dictionary = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_dictionaryFile(file))));
+        _map(0);
+        _buffer.putInt(_MAGIC);
+        _buffer.putInt(_VERSION);
+        _buffer.putInt(RECORD_SIZE);
+        _buffer.putInt(0);
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public variables                  ////
+    
+    /** The kind of a record of a response sent on the wireless output port. */
+    public static final int KIND_SEND = 0;
+    
+    /** The kind of a record of a status token output on the wired output port. */
+    public static final int KIND_STATUS = 1;
+    
+    /** The size of a record in bytes. */
+    public static final int RECORD_SIZE = 32;
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+    
+    /**
+     * Return the log recording to the given file, opening it if no device has it open.
+     * @param path : The name of the record file.
+     * @param compress : True if the files should be compressed when the log is closed. Ignored if the log is already open.
+     * @return The log.
+     * @exception IllegalActionException If the file cannot be opened.
+     */
+    public static BluetoothEventLog open(String path, boolean compress) throws IllegalActionException {
+        synchronized (_OPEN_LOGS) {
+            File file = new File(path).getAbsoluteFile();
+            BluetoothEventLog log = _OPEN_LOGS.get(file);
+            if (log == null) {
+                try {
+                    log = new BluetoothEventLog(file, compress);
+                } catch (IOException ex) {
+                    throw new IllegalActionException(null, ex, "Cannot open Bluetooth event log " + file);
+                }
+                _OPEN_LOGS.put(file, log);
+            }
+            log._references++;
+            return log;
+        }
+    }
+    
+    /**
+     * Release the log. The log is closed when every device that opened it has released it.
+     * @exception IllegalActionException If the log cannot be written.
+     */
+    public void release() throws IllegalActionException {
+        synchronized (_OPEN_LOGS) {
+            if (--_references > 0) {
+                return;
+            }
+            _OPEN_LOGS.remove(_file);
+        }
+        try {
+            _close();
+        } catch (IOException ex) {
+            throw new IllegalActionException(null, ex, "Cannot write Bluetooth event log " + _file);
+        }
+    }
+    
+    /**
+     * Record a response sent on the wireless output port of a device.
+     * @param time : The model time of the send.
+     * @param response : The response sent.
+     * @exception IllegalActionException If the log cannot be written.
+     */
+    public synchronized void logSend(Time time, BluetoothResponseToken response) throws IllegalActionException {
+        int[] destinations = response._getDestinations();
+        if (destinations == null) {
+            _append(time, KIND_SEND, response.getResponse().ordinal(), response.getSourceHandle(), response.getDeviceHandle(), 0,
+                    response.getData());
+            return;
+        }
+        int list = _destinationLists++;
+        try {
+            ByteBuffer handles = ByteBuffer.allocate(4 * destinations.length);
+            for (int destination : destinations) {
+                _writeName(destination);
+                handles.putInt(destination);
+            }
+            _writeDictionary(_DICTIONARY_DESTINATIONS, list, handles.array());
+        } catch (IOException ex) {
+            throw new IllegalActionException(null, ex, "Cannot write Bluetooth event log " + _file);
+        }
+        _append(time, KIND_SEND, response.getResponse().ordinal(), response.getSourceHandle(), list, _FLAG_MULTICAST, response.getData());
+    }
+    
+    /**
+     * Record a status token output on the wired output port of a device.
+     * @param time : The model time of the output.
+     * @param device : The BluetoothDeviceRegistry handle of the device.
+     * @param status : The status token output.
+     * @exception IllegalActionException If the log cannot be written.
+     */
+    public synchronized void logStatus(Time time, int device, BluetoothStatusToken status) throws IllegalActionException {
+        _append(time, KIND_STATUS, status.getStatusValue().ordinal(), device, BluetoothDeviceRegistry.NO_DEVICE, 0, status.getData());
+    }
+    
+    /**
+     * Read every record of a closed log.
+     * @param path : The name of the record file, without the ".gz" suffix of a compressed log.
+     * @return The events of the log, in the order in which they were recorded.
+     * @exception IOException If the log cannot be read.
+     */
+    public static List<Event> read(String path) throws IOException {
+        File file = new File(path);
+        HashMap<Integer, String> names = new HashMap<Integer, String>();
+        HashMap<Integer, String> payloads = new HashMap<Integer, String>();
+        HashMap<Integer, int[]> destinationLists = new HashMap<Integer, int[]>();
+        try (DataInputStream dictionary = new DataInputStream(_openForReading(_dictionaryFile(file)))) {
+            while (true) {
+                int type;
+                try {
+                    type = dictionary.readByte();
+                } catch (EOFException ex) {
+                    break;
+                }
+                int id = dictionary.readInt();
+                byte[] text = new byte[dictionary.readInt()];
+                dictionary.readFully(text);
+                if (type == _DICTIONARY_DESTINATIONS) {
+                    int[] handles = new int[text.length / 4];
+                    ByteBuffer.wrap(text).asIntBuffer().get(handles);
+                    destinationLists.put(id, handles);
+                }
+                else {
+                    (type == _DICTIONARY_NAME ? names : payloads).put(id, new String(text, StandardCharsets.UTF_8));
+                }
+            }
+        }
+        
+        List<Event> events = new ArrayList<Event>();
+        try (DataInputStream records = new DataInputStream(_openForReading(file))) {
+            byte[] header = new byte[16];
+            records.readFully(header);
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.nativeOrder());
+            if (headerBuffer.getInt() != _MAGIC || headerBuffer.getInt() > _VERSION) {
+                throw new IOException("Not a Bluetooth event log: " + file);
+            }
+            int count = headerBuffer.getInt(12);
+            byte[] record = new byte[RECORD_SIZE];
+            ByteBuffer recordBuffer = ByteBuffer.wrap(record).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < count; i++) {
+                records.readFully(record);
+                recordBuffer.clear();
+                double time = recordBuffer.getDouble();
+                int kind = recordBuffer.get();
+                int ordinal = recordBuffer.get();
+                int payloadKind = recordBuffer.get();
+                int flags = recordBuffer.get();
+                String source = names.get(recordBuffer.getInt());
+                int target = recordBuffer.getInt();
+                String payload = payloads.get(recordBuffer.getInt());
+                if ((flags & _FLAG_MULTICAST) == 0) {
+                    events.add(new Event(time, kind, ordinal, source, names.get(target), null, payloadKind, payload));
+                    continue;
+                }
+                int[] handles = destinationLists.get(target);
+                if (handles == null) {
+                    throw new IOException("Missing destinations of a record of Bluetooth event log: " + file);
+                }
+                List<String> destinations = new ArrayList<String>(handles.length);
+                for (int handle : handles) {
+                    destinations.add(names.get(handle));
+                }
+                events.add(new Event(time, kind, ordinal, source, null, destinations, payloadKind, payload));
+            }
+        }
+        return events;
+    }
+    
+    /**
+     * This class is a record of a log, as returned by read().
+     */
+    public static class Event {
+        
+        Event(double time, int kind, int ordinal, String source, String destination, List<String> destinations, int payloadKind,
+                String payload) {
+            this.time = time;
+            this.kind = kind;
+            this.ordinal = ordinal;
+            this.source = source;
+            this.destination = destination;
+            this.destinations = destinations;
+            this.payloadKind = payloadKind;
+            this.payload = payload;
+        }
+        
+        /** The model time of the event. */
+        public final double time;
+        /** KIND_SEND or KIND_STATUS. */
+        public final int kind;
+        /** The BluetoothResponse ordinal of a send, or the BluetoothStatus ordinal of a status. */
+        public final int ordinal;
+        /** The name of the device that sent the response or output the status. */
+        public final String source;
+        /** The name of the target device of a send, or null for a status or a send addressed to several devices. */
+        public final String destination;
+        /** The names of the target devices of a send addressed to several devices, or null. */
+        public final List<String> destinations;
+        /** PAYLOAD_NONE, PAYLOAD_TOKEN or PAYLOAD_STRING. */
+        public final int payloadKind;
+        /** The expression of a token payload, the value of a string payload, or null. */
+        public final String payload;
+    }
+    
+    /** The payload kind of an event without data, i.e. whose data is null or the empty string. */
+    public static final int PAYLOAD_NONE = 0;
+    
+    /** The payload kind of an event whose data is a token, recorded as an expression. */
+    public static final int PAYLOAD_TOKEN = 1;
+    
+    /** The payload kind of an event whose data is any other object, recorded as its string value. */
+    public static final int PAYLOAD_STRING = 2;
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+    
+    /** Append a record, writing the names of the devices and the text of the payload to the dictionary the first time they appear. */
+    private void _append(Time time, int kind, int ordinal, int source, int destination, int flags, Object data) throws IllegalActionException {
+        try {
+            int payloadKind = PAYLOAD_NONE;
+            int payload = -1;
+            if (data instanceof Token) {
+                payloadKind = PAYLOAD_TOKEN;
+            }
+            else if (data != null && !"".equals(data)) {
+                payloadKind = PAYLOAD_STRING;
+            }
+            if (payloadKind != PAYLOAD_NONE) {
+                String text = data.toString();
+                Integer id = _payloadIds.get(text);
+                if (id == null) {
+                    id = Integer.valueOf(_payloadIds.size());
+                    _payloadIds.put(text, id);
+                    _writeDictionary(_DICTIONARY_PAYLOAD, id.intValue(), text.getBytes(StandardCharsets.UTF_8));
+                }
+                payload = id.intValue();
+            }
+            _writeName(source);
+            if (flags == 0) {
+                _writeName(destination);
+            }
+            
+            if (_buffer.remaining() < RECORD_SIZE) {
+                _map(_mappedBase + _buffer.position());
+            }
+            _buffer.putDouble(time.getDoubleValue());
+            _buffer.put((byte) kind);
+            _buffer.put((byte) ordinal);
+            _buffer.put((byte) payloadKind);
+            _buffer.put((byte) flags);
+            _buffer.putInt(source);
+            _buffer.putInt(destination);
+            _buffer.putInt(payload);
+            _buffer.putLong(_records++);
+        } catch (IOException ex) {
+            throw new IllegalActionException(null, ex, "Cannot write Bluetooth event log " + _file);
+        }
+    }
+    
+    /** Write the record count, truncate the record file to its length, and compress the files if requested. */
+    private void _close() throws IOException {
+        long length = _mappedBase + _buffer.position();
+        _header.putInt(12, (int) _records);
+        _buffer.force();
+        _header.force();
+        _buffer = null;
+        _header = null;
+        _channel.truncate(length);
+        _channel.close();
+        _dictionary.close();
+        if (_compress) {
+            _compress(_file);
+            _compress(_dictionaryFile(_file));
+        }
+    }
+    
+    /** Replace a file with its gzip compressed copy. */
+    private static void _compress(File file) throws IOException {
+        try (InputStream input = new FileInputStream(file);
+                OutputStream output = new GZIPOutputStream(new FileOutputStream(file.getPath() + ".gz"))) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                output.write(buffer, 0, read);
+            }
+        }
+        Files.delete(file.toPath());
+    }
+    
+    /** Return the dictionary file of a record file. */
+    private static File _dictionaryFile(File file) {
+        return new File(file.getPath() + ".dict");
+    }
+    
+    /** Map the region of the record file starting at the given offset. */
+    private void _map(long base) throws IOException {
+        if (_buffer != null) {
+            _buffer.force();
+        }
+        _mappedBase = base;
+        _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, base, _CHUNK_SIZE);
+        _buffer.order(ByteOrder.nativeOrder());
+        if (base == 0) {
+            _header = _buffer;
+        }
+    }
+    
+    /** Open a file for reading, or its ".gz" compressed copy if the file does not exist. */
+    private static InputStream _openForReading(File file) throws IOException {
+        if (file.exists()) {
+            return new BufferedInputStream(new FileInputStream(file));
+        }
+        return new BufferedInputStream(new GZIPInputStream(new FileInputStream(file.getPath() + ".gz")));
+    }
+    
+    /** Write an entry to the dictionary. */
+    private void _writeDictionary(int type, int id, byte[] bytes) throws IOException {
+        _dictionary.writeByte(type);
+        _dictionary.writeInt(id);
+        _dictionary.writeInt(bytes.length);
+        _dictionary.write(bytes);
+    }
+    
+    /** Write the name of a device to the dictionary, the first time the device appears in the log. */
+    private void _writeName(int handle) throws IOException {
+        if (handle < 0 || _namesWritten.get(handle)) {
+            return;
+        }
+        _namesWritten.set(handle);
+        _writeDictionary(_DICTIONARY_NAME, handle, BluetoothDeviceRegistry.getName(handle).getBytes(StandardCharsets.UTF_8));
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private static final int _MAGIC = 0x42544c47;
+    private static final int _VERSION = 2;
+    private static final long _CHUNK_SIZE = 16L << 20;
+    private static final int _DICTIONARY_NAME = 0;
+    private static final int _DICTIONARY_PAYLOAD = 1;
+    private static final int _DICTIONARY_DESTINATIONS = 2;
+    
+    // The flag of the record of a response addressed to several devices, whose target device is the index of its list of destinations.
+    private static final int _FLAG_MULTICAST = 1;
+    private static final HashMap<File, BluetoothEventLog> _OPEN_LOGS = new HashMap<File, BluetoothEventLog>();
+    
+    private MappedByteBuffer _buffer;
+    private final FileChannel _channel;
+    private final boolean _compress;
+    private final DataOutputStream _dictionary;
+    private final File _file;
+    private MappedByteBuffer _header;
+    private long _mappedBase;
+    private final BitSet _namesWritten = new BitSet();
+    private int _destinationLists;
+    // The dictionary entry of the text of each payload written so far.
+    private final HashMap<String, Integer> _payloadIds = new HashMap<String, Integer>();
+    private long _records;
+    private int _references;
+}
@@ -0,0 +1,231 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.util.Time;
+import ptolemy.data.StringToken;
+import ptolemy.data.Token;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.expr.Variable;
+import ptolemy.data.type.BaseType;
+import ptolemy.domains.wireless.kernel.WirelessIOPort;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+import ptolemy.kernel.util.StringAttribute;
+
+/**
+ * This actor replays the wireless responses recorded in a BluetoothEventLog, so that a single BluetoothDevice, or a subset of the devices of a model,
+ * can be driven by the traffic of a previous execution without running the rest of the device population.
+ * <p>
+ * The devices to drive are named by the devices parameter. The actor sends every recorded response that was sent by a device that is not one of
+ * these devices, and that is addressed to one of them or broadcast to "scan", on its wireless output port, at the model time at which it was recorded.
+ * The responses sent by the driven devices themselves are not replayed, since those devices are simulated. If the devices parameter is empty,
+ * every recorded response is replayed. A response recorded as addressed to several devices is replayed as a single response addressed to those of
+ * its destinations that are driven, or to all of them if the devices parameter is empty.
+ * <p>
+ * Payloads recorded as expressions are evaluated again to tokens. A payload that cannot be evaluated is replayed as a StringToken holding the expression.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothEventLog
+ * @see BluetoothDevice
+ */
+public class BluetoothEventReplay extends TypedAtomicActor {
+
+    /** Construct an actor with the given container and name.
+     *  @param container The container.
+     *  @param name The name of this actor.
+     *  @exception IllegalActionException If the actor cannot be contained
+     *   by the proposed container.
+     *  @exception NameDuplicationException If the container already has an
+     *   actor with this name.
+     */
+    public BluetoothEventReplay(CompositeEntity container, String name)
+            throws NameDuplicationException, IllegalActionException {
+        super(container, name);
+        
+        eventLog = new StringParameter(this, "eventLog");
+        eventLog.setExpression("");
+        
+        devices = new StringParameter(this, "devices");
+        devices.setExpression("");
+        
+        wirelessOutputChannelName = new StringParameter(this, "wirelessOutputChannelName");
+        wirelessOutputChannelName.setExpression("WirelessInputChannel");
+        
+        wirelessOutput = new WirelessIOPort(this, "Wireless Output", false, true);
+        new Parameter(wirelessOutput, "_showName").setExpression("true");
+        new StringAttribute(wirelessOutput, "_cardinal").setExpression("SOUTH");
+        wirelessOutput.outsideChannel.setExpression("$wirelessOutputChannelName");
+        wirelessOutput.setTypeEquals(BaseType.GENERAL);
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                     ports and parameters                  ////
+    
+    /** The name of the record file of the log to replay. */
+    public StringParameter eventLog;
+    
+    /** A comma separated list of the names of the devices driven by this actor. This is a string that defaults to the empty string,
+     *  which means that every recorded response is replayed.
+     */
+    public StringParameter devices;
+    
+    /** The output port on which the recorded responses are sent. */
+    public WirelessIOPort wirelessOutput;
+    
+    /** Name of the wireless output channel. This should be the wireless input channel of the driven devices, and defaults to
+     *  "WirelessInputChannel".
+     */
+    public StringParameter wirelessOutputChannelName;
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+    
+    /** Send the recorded responses whose time is the current model time.
+     *  @exception IllegalActionException If the responses cannot be sent.
+     */
+    @Override
+    public void fire() throws IllegalActionException {
+        super.fire();
+        double now = getDirector().getModelTime().getDoubleValue();
+        while (_next < _times.size() && _times.get(_next) <= now) {
+            wirelessOutput.send(0, _responses.get(_next));
+            _next++;
+        }
+    }
+    
+    /** Read the log and select the responses to replay, and request a firing at the time of the first one.
+     *  @exception IllegalActionException If the log cannot be read.
+     */
+    @Override
+    public void initialize() throws IllegalActionException {
+        super.initialize();
+        HashSet<String> driven = new HashSet<String>();
+        for (String device : devices.stringValue().split(",")) {
+            if (!device.trim().isEmpty()) {
+                driven.add(device.trim());
+            }
+        }
+        
+        List<BluetoothEventLog.Event> events;
+        try {
+            events = BluetoothEventLog.read(eventLog.stringValue().trim());
+        } catch (IOException ex) {
+            throw new IllegalActionException(this, ex, "Cannot read Bluetooth event log " + eventLog.stringValue());
+        }
+        
+        BluetoothResponse[] responses = BluetoothResponse.values();
+        _times = new ArrayList<Double>();
+        _responses = new ArrayList<BluetoothResponseToken>();
+        _next = 0;
+        for (BluetoothEventLog.Event event : events) {
+            if (event.kind != BluetoothEventLog.KIND_SEND) {
+                continue;
+            }
+            if (!driven.isEmpty() && driven.contains(event.source)) {
+                continue;
+            }
+            if (event.source == null || (event.destination == null && event.destinations == null)) {
+                throw new IllegalActionException(this, "Recorded response at time " + event.time + " has no source or target device.");
+            }
+            BluetoothResponse response = responses[event.ordinal];
+            int source = BluetoothDeviceRegistry.intern(event.source);
+            BluetoothResponseToken token;
+            if (event.destinations != null) {
+                int[] destinations = new int[event.destinations.size()];
+                int count = 0;
+                for (String name : event.destinations) {
+                    if (driven.isEmpty() || driven.contains(name)) {
+                        destinations[count++] = BluetoothDeviceRegistry.intern(name);
+                    }
+                }
+                if (count == 0) {
+                    continue;
+                }
+                destinations = Arrays.copyOf(destinations, count);
+                if (event.payloadKind == BluetoothEventLog.PAYLOAD_NONE) {
+                    token = new BluetoothResponseToken<String>(response, destinations, source, "");
+                }
+                else if (event.payloadKind == BluetoothEventLog.PAYLOAD_TOKEN) {
+                    token = new BluetoothResponseToken<Token>(response, destinations, source, _evaluate(event.payload));
+                }
+                else {
+                    token = new BluetoothResponseToken<String>(response, destinations, source, event.payload);
+                }
+                _times.add(event.time);
+                _responses.add(token);
+                continue;
+            }
+            if (!driven.isEmpty() && !(driven.contains(event.destination) || BluetoothDeviceRegistry.BROADCAST_NAME.equals(event.destination))) {
+                continue;
+            }
+            int destination = BluetoothDeviceRegistry.intern(event.destination);
+            if (event.payloadKind == BluetoothEventLog.PAYLOAD_NONE) {
+                token = BluetoothResponseToken.getControlToken(response, destination, source);
+            }
+            else if (event.payloadKind == BluetoothEventLog.PAYLOAD_TOKEN) {
+                token = new BluetoothResponseToken<Token>(response, destination, source, _evaluate(event.payload));
+            }
+            else {
+                token = new BluetoothResponseToken<String>(response, destination, source, event.payload);
+            }
+            _times.add(event.time);
+            _responses.add(token);
+        }
+        if (!_times.isEmpty()) {
+            getDirector().fireAt(this, new Time(getDirector(), _times.get(0)));
+        }
+    }
+    
+    /** Request a firing at the time of the next response to replay, if any.
+     *  @exception IllegalActionException If the firing cannot be requested.
+     */
+    @Override
+    public boolean postfire() throws IllegalActionException {
+        if (_next < _times.size()) {
+            getDirector().fireAt(this, new Time(getDirector(), _times.get(_next)));
+        }
+        return super.postfire();
+    }
+    
+    /** Discard the responses selected by a previous execution.
+     *  @exception IllegalActionException If the superclass throws it.
+     */
+    @Override
+    public void preinitialize() throws IllegalActionException {
+        super.preinitialize();
+        _times = new ArrayList<Double>();
+        _responses = new ArrayList<BluetoothResponseToken>();
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+    
+    /** Evaluate a recorded expression, or return it as a StringToken if it cannot be evaluated. */
+    private Token _evaluate(String expression) {
+        try {
+            if (_parser == null) {
+                _parser = new Variable(workspace());
+            }
+            _parser.setExpression(expression);
+            return _parser.getToken();
+        } catch (IllegalActionException ex) {
+            return new StringToken(expression);
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private int _next;
+    private Variable _parser;
+    private ArrayList<BluetoothResponseToken> _responses;
+    private ArrayList<Double> _times;
+}
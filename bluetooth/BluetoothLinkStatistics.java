@@ -0,0 +1,95 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+/**
+ * The figures of a connection between two BluetoothDevice actors, as seen by one of them: the data responses it sent, the number of
+ * them acknowledged by the other device, and the data responses it received, over the model time the connection has been open.
+ * <p>
+ * The throughput is the rate at which data responses were sent, and the goodput the rate at which they were acknowledged, both in
+ * responses per unit of model time. Responses are only acknowledged on connections under flow control, see the flowControlWindow
+ * parameter of BluetoothDevice. A device outputs the figures of a connection, as the data of a LINK_STATISTICS status token, when
+ * the connection is closed. The fields of this class are immutable.
+ *
+ * @author Phillip Azar
+ * @see BluetoothDevice
+ */
+public class BluetoothLinkStatistics {
+
+    /**
+     * Construct the figures of a connection.
+     * @param sent : The number of data responses sent.
+     * @param acknowledged : The number of data responses sent that were acknowledged.
+     * @param received : The number of data responses received.
+     * @param duration : The model time the connection has been open.
+     */
+    public BluetoothLinkStatistics(long sent, long acknowledged, long received, double duration) {
+        _sent = sent;
+        _acknowledged = acknowledged;
+        _received = received;
+        _duration = duration;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+
+    /**
+     * Return the number of data responses sent that were acknowledged.
+     * @return The number of responses.
+     */
+    public long getAcknowledged() {
+        return _acknowledged;
+    }
+
+    /**
+     * Return the model time the connection has been open.
+     * @return The model time.
+     */
+    public double getDuration() {
+        return _duration;
+    }
+
+    /**
+     * Return the rate at which data responses were acknowledged.
+     * @return The number of responses acknowledged per unit of model time, or 0.0 if the connection was open for no time.
+     */
+    public double getGoodput() {
+        return _duration > 0.0 ? _acknowledged / _duration : 0.0;
+    }
+
+    /**
+     * Return the number of data responses received.
+     * @return The number of responses.
+     */
+    public long getReceived() {
+        return _received;
+    }
+
+    /**
+     * Return the number of data responses sent.
+     * @return The number of responses.
+     */
+    public long getSent() {
+        return _sent;
+    }
+
+    /**
+     * Return the rate at which data responses were sent.
+     * @return The number of responses sent per unit of model time, or 0.0 if the connection was open for no time.
+     */
+    public double getThroughput() {
+        return _duration > 0.0 ? _sent / _duration : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return "sent " + _sent + ", acknowledged " + _acknowledged + ", received " + _received + " in " + _duration
+                + ", throughput " + getThroughput() + ", goodput " + getGoodput();
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    private final long _acknowledged;
+    private final double _duration;
+    private final long _received;
+    private final long _sent;
+}
@@ -0,0 +1,265 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The counters of a BluetoothDevice or a BluetoothChannel, kept in contention-free adders so that they can be updated by
+ * concurrently fired actors and read by a JMX client at any time.
+ * <p>
+ * A device counts the responses it sends and receives per BluetoothResponse type, the status tokens it outputs per
+ * BluetoothStatus, the high-water mark of its inbox, the wall time of each fire() in a histogram with one bucket per power of two
+ * nanoseconds, the firings skipped by prefire(), and the model time spent in each of its states. A channel counts the responses it
+ * transmits and the deliveries it makes to receivers, as sent and received responses respectively.
+ * <p>
+ * The counters are published as an MXBean named ptolemy.domains.wireless.lib.bluetooth:type=&lt;type&gt;,name=&lt;full name&gt;
+ * while registered.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothMetricsMXBean
+ */
+public class BluetoothMetrics implements BluetoothMetricsMXBean {
+
+    /** Create the counters of an actor.
+     *  @param name The full name of the actor.
+     *  @param states The names of the states of the actor, or an empty array if it has none.
+     */
+    public BluetoothMetrics(String name, String[] states) {
+        _name = name;
+        _states = states.clone();
+        _sent = _adders(_RESPONSES.length);
+        _received = _adders(_RESPONSES.length);
+        _statuses = _adders(_STATUSES.length);
+        _fireTimes = _adders(64);
+        _dwell = new DoubleAdder[_states.length];
+        for (int i = 0; i < _dwell.length; i++) {
+            _dwell[i] = new DoubleAdder();
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+    
+    /** Record the wall time of a fire().
+     *  @param nanoseconds The wall time, in nanoseconds.
+     */
+    public void fired(long nanoseconds) {
+        _fireTimes[nanoseconds <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanoseconds)].increment();
+    }
+    
+    /** Record the time spent in a state.
+     *  @param state The index of the state.
+     *  @param time The model time spent in the state.
+     */
+    public void dwelled(int state, double time) {
+        _dwell[state].add(time);
+    }
+    
+    @Override
+    public long getFireCount() {
+        long result = 0;
+        for (LongAdder adder : _fireTimes) {
+            result += adder.sum();
+        }
+        return result;
+    }
+    
+    @Override
+    public Map<String, Long> getFireTimeHistogram() {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < _fireTimes.length; i++) {
+            long count = _fireTimes[i].sum();
+            if (count > 0) {
+                result.put(i == 63 ? "inf" : Long.toString(1L << (i + 1)), count);
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public long getInboxHighWaterMark() {
+        return _inboxHighWaterMark.get();
+    }
+    
+    @Override
+    public String getName() {
+        return _name;
+    }
+    
+    @Override
+    public Map<String, Long> getReceivedCounts() {
+        return _counts(_received, _RESPONSES);
+    }
+    
+    @Override
+    public Map<String, Long> getSentCounts() {
+        return _counts(_sent, _RESPONSES);
+    }
+    
+    @Override
+    public Map<String, Double> getStateDwellTimes() {
+        Map<String, Double> result = new LinkedHashMap<String, Double>();
+        for (int i = 0; i < _states.length; i++) {
+            result.put(_states[i], _dwell[i].sum());
+        }
+        return result;
+    }
+    
+    @Override
+    public long getSkippedFireCount() {
+        return _skippedFires.sum();
+    }
+    
+    @Override
+    public Map<String, Long> getStatusCounts() {
+        return _counts(_statuses, _STATUSES);
+    }
+    
+    /** Record the depth of the inbox.
+     *  @param depth The number of responses waiting in the inbox.
+     */
+    public void inboxDepth(long depth) {
+        _inboxHighWaterMark.accumulate(depth);
+    }
+    
+    /** Record a response received, or delivered by a channel.
+     *  @param response The response.
+     */
+    public void received(BluetoothResponse response) {
+        _received[response.ordinal()].increment();
+    }
+    
+    /** Publish these counters with the platform MBean server, replacing the counters registered under the same name, if any.
+     *  @param type The type of the actor, such as BluetoothDevice.
+     *  @exception JMException If the counters cannot be registered.
+     */
+    public void register(String type) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(_name));
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        server.registerMBean(this, objectName);
+        _objectName = objectName;
+    }
+    
+    @Override
+    public void reset() {
+        for (LongAdder[] adders : new LongAdder[][] {_sent, _received, _statuses, _fireTimes}) {
+            for (LongAdder adder : adders) {
+                adder.reset();
+            }
+        }
+        for (DoubleAdder adder : _dwell) {
+            adder.reset();
+        }
+        _inboxHighWaterMark.reset();
+        _skippedFires.reset();
+    }
+    
+    /** Record a firing skipped by prefire(). */
+    public void skipped() {
+        _skippedFires.increment();
+    }
+    
+    /** Record a response sent, or transmitted by a channel.
+     *  @param response The response.
+     */
+    public void sent(BluetoothResponse response) {
+        _sent[response.ordinal()].increment();
+    }
+    
+    /** Record a status token output.
+     *  @param status The status.
+     */
+    public void status(BluetoothStatus status) {
+        _statuses[status.ordinal()].increment();
+    }
+    
+    /** Return a summary of the counters, one counter per line, omitting the counters that are zero.
+     *  @return The summary.
+     */
+    public String summary() {
+        StringBuilder result = new StringBuilder(_name).append(':');
+        _append(result, "sent", getSentCounts());
+        _append(result, "received", getReceivedCounts());
+        _append(result, "status", getStatusCounts());
+        _append(result, "fire time (ns, upper bound)", getFireTimeHistogram());
+        _append(result, "dwell time", getStateDwellTimes());
+        if (getSkippedFireCount() > 0) {
+            result.append(System.lineSeparator()).append("    skipped fires: ").append(getSkippedFireCount());
+        }
+        if (getInboxHighWaterMark() > 0) {
+            result.append(System.lineSeparator()).append("    inbox high-water mark: ").append(getInboxHighWaterMark());
+        }
+        return result.toString();
+    }
+    
+    /** Withdraw these counters from the platform MBean server, if they are registered.
+     *  @exception JMException If the counters cannot be unregistered.
+     */
+    public void unregister() throws JMException {
+        if (_objectName != null) {
+            ObjectName objectName = _objectName;
+            _objectName = null;
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+    
+    private static LongAdder[] _adders(int length) {
+        LongAdder[] result = new LongAdder[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = new LongAdder();
+        }
+        return result;
+    }
+    
+    private static void _append(StringBuilder result, String title, Map<String, ? extends Number> counts) {
+        for (Map.Entry<String, ? extends Number> entry : counts.entrySet()) {
+            if (entry.getValue().doubleValue() != 0.0) {
+                result.append(System.lineSeparator()).append("    ").append(title).append(' ')
+                        .append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+        }
+    }
+    
+    private static Map<String, Long> _counts(LongAdder[] adders, Enum[] names) {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < adders.length; i++) {
+            result.put(names[i].name(), adders[i].sum());
+        }
+        return result;
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private static final String _DOMAIN = "ptolemy.domains.wireless.lib.bluetooth";
+    private static final BluetoothResponse[] _RESPONSES = BluetoothResponse.values();
+    private static final BluetoothStatus[] _STATUSES = BluetoothStatus.values();
+    
+    private final DoubleAdder[] _dwell;
+    private final LongAdder[] _fireTimes;
+    private final LongAccumulator _inboxHighWaterMark = new LongAccumulator(Math::max, 0L);
+    private final String _name;
+    private ObjectName _objectName;
+    private final LongAdder[] _received;
+    private final LongAdder[] _sent;
+    private final LongAdder _skippedFires = new LongAdder();
+    private final String[] _states;
+    private final LongAdder[] _statuses;
+}
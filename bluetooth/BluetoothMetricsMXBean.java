@@ -0,0 +1,62 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.util.Map;
+
+/**
+ * The management interface of BluetoothMetrics, through which the counters of a BluetoothDevice or a BluetoothChannel
+ * are published as an MXBean.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothMetrics
+ */
+public interface BluetoothMetricsMXBean {
+
+    /** Return the number of fire() calls measured.
+     *  @return The number of fire() calls.
+     */
+    public long getFireCount();
+    
+    /** Return the histogram of the wall time of fire(), as a map from the upper bound of each non-empty bucket,
+     *  in nanoseconds, to the number of fire() calls in the bucket.
+     *  @return The histogram.
+     */
+    public Map<String, Long> getFireTimeHistogram();
+    
+    /** Return the largest number of responses waiting in the inbox.
+     *  @return The high-water mark of the inbox.
+     */
+    public long getInboxHighWaterMark();
+    
+    /** Return the full name of the measured actor.
+     *  @return The name of the actor.
+     */
+    public String getName();
+    
+    /** Return the number of responses received, or delivered by a channel, per response type.
+     *  @return The counts, by response type.
+     */
+    public Map<String, Long> getReceivedCounts();
+    
+    /** Return the number of responses sent, or transmitted by a channel, per response type.
+     *  @return The counts, by response type.
+     */
+    public Map<String, Long> getSentCounts();
+    
+    /** Return the model time spent in each state.
+     *  @return The dwell times, by state.
+     */
+    public Map<String, Double> getStateDwellTimes();
+    
+    /** Return the number of iterations in which a device was not fired, because prefire() found it had nothing to do.
+     *  @return The number of skipped fire() calls.
+     */
+    public long getSkippedFireCount();
+    
+    /** Return the number of status tokens output, per status.
+     *  @return The counts, by status.
+     */
+    public Map<String, Long> getStatusCounts();
+    
+    /** Reset every counter to zero. */
+    public void reset();
+}
@@ -0,0 +1,470 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import ptolemy.actor.Actor;
+import ptolemy.actor.IOPort;
+import ptolemy.actor.util.Time;
+import ptolemy.data.BooleanToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.domains.de.kernel.DEEvent;
+import ptolemy.domains.wireless.kernel.AtomicWirelessChannel;
+import ptolemy.domains.wireless.kernel.WirelessChannel;
+import ptolemy.domains.wireless.kernel.WirelessDirector;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.Attribute;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+import ptolemy.kernel.util.NamedObj;
+
+/**
+ * A WirelessDirector that fires the BluetoothDevice actors of independent partitions of the model concurrently.
+ * <p>
+ * The devices are partitioned by wireless channel: two devices are in the same partition if they share a channel, directly or
+ * through other devices. A partition is independent if every port listening to its channels belongs to one of its devices, so that
+ * its devices only exchange tokens among themselves within an iteration. Devices whose channels have other listeners, and devices
+ * that are not contained by the container of this director, are fired as by WirelessDirector.
+ * <p>
+ * When the next event to process is addressed to a device of an independent partition, this director takes every following event
+ * of the same tag that is addressed to such a device, and fires the devices of each partition on a fork-join pool, one task per
+ * partition, the devices of a partition being fired in the order of their events. The last device of the last partition is fired
+ * afterwards by the superclass, as the actor of the current event, so that the iteration goes on as with WirelessDirector. While they are fired, the status outputs of the
+ * devices, their event log records, the events they schedule and the events triggered by their wireless transmissions are deferred.
+ * They are then carried out in the order of the partitions, and within a partition in the order in which they were produced, so
+ * that the outputs seen by the rest of the model do not depend on the scheduling of the tasks. The tokens on each channel of each
+ * port, and hence the results of the model, are the same as with WirelessDirector.
+ * <p>
+ * The partitions are computed again whenever the workspace version changes.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothDevice
+ */
+public class BluetoothParallelDirector extends WirelessDirector {
+
+    /** Construct a director with the given container and name.
+     *  @param container The container.
+     *  @param name The name of the director.
+     *  @exception IllegalActionException If the director is not compatible
+     *   with the specified container.
+     *  @exception NameDuplicationException If the container already has an
+     *   attribute with this name.
+     */
+    public BluetoothParallelDirector(CompositeEntity container, String name)
+            throws IllegalActionException, NameDuplicationException {
+        super(container, name);
+        
+        parallel = new Parameter(this, "parallel");
+        parallel.setTypeEquals(BaseType.BOOLEAN);
+        parallel.setExpression("true");
+        
+        parallelism = new Parameter(this, "parallelism");
+        parallelism.setTypeEquals(BaseType.INT);
+        parallelism.setExpression("0");
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         parameters                        ////
+    
+    /** True to fire the devices of independent partitions concurrently, false to behave as WirelessDirector.
+     *  This is a boolean that defaults to true.
+     */
+    public Parameter parallel;
+    
+    /** The number of threads firing the partitions, or 0 for the number of available processors.
+     *  This is an int that defaults to 0.
+     */
+    public Parameter parallelism;
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+    
+    /** Check the values of the parameters.
+     *  @param attribute The attribute that changed.
+     *  @exception IllegalActionException If the parallelism is negative, or if the superclass throws it.
+     */
+    @Override
+    public void attributeChanged(Attribute attribute) throws IllegalActionException {
+        if (attribute == parallel) {
+            _parallel = ((BooleanToken) parallel.getToken()).booleanValue();
+        }
+        else if (attribute == parallelism) {
+            int value = ((IntToken) parallelism.getToken()).intValue();
+            if (value < 0) {
+                throw new IllegalActionException(this, "parallelism cannot be negative: " + value);
+            }
+            _parallelism = value;
+        }
+        else {
+            super.attributeChanged(attribute);
+        }
+    }
+    
+    /** Request a firing of the given actor at the given time, deferring the request if it is made by a concurrently fired device.
+     *  @param actor The actor scheduled to be fired.
+     *  @param time The requested time.
+     *  @return The requested time.
+     *  @exception IllegalActionException If the superclass throws it.
+     */
+    @Override
+    public Time fireAt(Actor actor, Time time) throws IllegalActionException {
+        List<Object[]> deferred = _DEFERRED.get();
+        if (deferred != null) {
+            deferred.add(new Object[] {_FIRE_AT, actor, time, null});
+            return time;
+        }
+        return super.fireAt(actor, time);
+    }
+    
+    /** Request a firing of the given actor at the given time and microstep, deferring the request if it is made by a
+     *  concurrently fired device.
+     *  @param actor The actor scheduled to be fired.
+     *  @param time The requested time.
+     *  @param microstep The requested microstep.
+     *  @return The requested time.
+     *  @exception IllegalActionException If the superclass throws it.
+     */
+    @Override
+    public Time fireAt(Actor actor, Time time, int microstep) throws IllegalActionException {
+        List<Object[]> deferred = _DEFERRED.get();
+        if (deferred != null) {
+            deferred.add(new Object[] {_FIRE_AT_MICROSTEP, actor, time, microstep});
+            return time;
+        }
+        return super.fireAt(actor, time, microstep);
+    }
+    
+    /** Request a firing of the given actor at the current time, deferring the request if it is made by a concurrently fired device.
+     *  @param actor The actor scheduled to be fired.
+     *  @return The current time.
+     *  @exception IllegalActionException If the superclass throws it.
+     */
+    @Override
+    public Time fireAtCurrentTime(Actor actor) throws IllegalActionException {
+        List<Object[]> deferred = _DEFERRED.get();
+        if (deferred != null) {
+            deferred.add(new Object[] {_FIRE_AT_CURRENT_TIME, actor, null, null});
+            return getModelTime();
+        }
+        return super.fireAtCurrentTime(actor);
+    }
+    
+    /** Create the pool of threads firing the partitions, if the parallel parameter is true.
+     *  @exception IllegalActionException If the superclass throws it.
+     */
+    @Override
+    public void initialize() throws IllegalActionException {
+        super.initialize();
+        _partitionVersion = -1;
+        if (_parallel && _pool == null) {
+            _pool = _parallelism == 0 ? new ForkJoinPool() : new ForkJoinPool(_parallelism);
+        }
+    }
+    
+    /** Shut the pool of threads down.
+     *  @exception IllegalActionException If the superclass throws it.
+     */
+    @Override
+    public void wrapup() throws IllegalActionException {
+        try {
+            super.wrapup();
+        } finally {
+            if (_pool != null) {
+                _pool.shutdown();
+                _pool = null;
+            }
+            _partitionOf = null;
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         protected methods                 ////
+    
+    /** Trigger an event on the given port, deferring it if it is triggered by a concurrently fired device.
+     *  @param port The port receiving the token.
+     *  @param time The time stamp of the event.
+     *  @exception IllegalActionException If the superclass throws it.
+     */
+    @Override
+    protected void _enqueueTriggerEvent(IOPort port, Time time) throws IllegalActionException {
+        List<Object[]> deferred = _DEFERRED.get();
+        if (deferred != null) {
+            deferred.add(new Object[] {_TRIGGER, port, time, null});
+            return;
+        }
+        super._enqueueTriggerEvent(port, time);
+    }
+    
+    /** Return the next actor to fire, as WirelessDirector does, unless that actor is a device of an independent partition.
+     *  In that case, fire it along with the devices of independent partitions that have an event at the same tag, concurrently
+     *  across partitions, but for the last device of the last partition, which is returned and fired by the superclass. Returning
+     *  null would tell the superclass that the event queue is empty, and stop the model.
+     *  @return The next actor to fire, or null if there is none.
+     *  @exception IllegalActionException If a device throws it, or if the superclass throws it.
+     */
+    @Override
+    protected Actor _getNextActorToFire() throws IllegalActionException {
+        Actor actor = super._getNextActorToFire();
+        if (!_parallel || _pool == null || !(actor instanceof BluetoothDevice)) {
+            return actor;
+        }
+        _updatePartitions();
+        Integer partition = _partitionOf.get(actor);
+        if (partition == null) {
+            return actor;
+        }
+        
+        // The devices to fire, grouped by partition, in the order of their events.
+        LinkedHashMap<Integer, ArrayList<BluetoothDevice>> batch = new LinkedHashMap<Integer, ArrayList<BluetoothDevice>>();
+        _addToBatch(batch, partition, (BluetoothDevice) actor);
+        Time now = getModelTime();
+        int microstep = getMicrostep();
+        while (!_eventQueue.isEmpty()) {
+            DEEvent event = _eventQueue.get();
+            Integer eventPartition = _partitionOf.get(event.actor());
+            if (eventPartition == null || microstep != event.microstep() || !now.equals(event.timeStamp())) {
+                break;
+            }
+            _eventQueue.take();
+            _addToBatch(batch, eventPartition, (BluetoothDevice) event.actor());
+        }
+        
+        // Hold the last device of the last partition back for the superclass. Within its partition, it is fired last,
+        // as it would be by WirelessDirector.
+        Integer lastPartition = null;
+        for (Integer key : batch.keySet()) {
+            lastPartition = key;
+        }
+        ArrayList<BluetoothDevice> lastDevices = batch.get(lastPartition);
+        BluetoothDevice last = lastDevices.remove(lastDevices.size() - 1);
+        if (lastDevices.isEmpty()) {
+            batch.remove(lastPartition);
+        }
+        if (batch.isEmpty()) {
+            return last;
+        }
+        
+        if (batch.size() == 1) {
+            for (BluetoothDevice device : batch.values().iterator().next()) {
+                _iterate(device);
+            }
+            return last;
+        }
+        
+        ArrayList<Callable<List<Object[]>>> tasks = new ArrayList<Callable<List<Object[]>>>(batch.size());
+        for (final ArrayList<BluetoothDevice> devices : batch.values()) {
+            tasks.add(new Callable<List<Object[]>>() {
+                @Override
+                public List<Object[]> call() throws IllegalActionException {
+                    return _fireConcurrently(devices);
+                }
+            });
+        }
+        List<Future<List<Object[]>>> results = _pool.invokeAll(tasks);
+        
+        Iterator<ArrayList<BluetoothDevice>> partitions = batch.values().iterator();
+        for (Future<List<Object[]>> result : results) {
+            ArrayList<BluetoothDevice> devices = partitions.next();
+            List<Object[]> deferred;
+            try {
+                deferred = result.get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IllegalActionException) {
+                    throw (IllegalActionException) cause;
+                }
+                throw new IllegalActionException(this, cause, "Failed to fire " + devices.get(0).getFullName());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalActionException(this, ex, "Interrupted while firing the devices.");
+            }
+            for (BluetoothDevice device : devices) {
+                device._flushDeferredOutputs();
+            }
+            for (Object[] request : deferred) {
+                _carryOut(request);
+            }
+        }
+        return last;
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+    
+    /** Add a device to the batch of its partition, unless it is already there. */
+    private static void _addToBatch(LinkedHashMap<Integer, ArrayList<BluetoothDevice>> batch, Integer partition, BluetoothDevice device) {
+        ArrayList<BluetoothDevice> devices = batch.get(partition);
+        if (devices == null) {
+            devices = new ArrayList<BluetoothDevice>();
+            batch.put(partition, devices);
+        }
+        if (!devices.contains(device)) {
+            devices.add(device);
+        }
+    }
+    
+    /** Carry out a deferred request. */
+    private void _carryOut(Object[] request) throws IllegalActionException {
+        int kind = (Integer) request[0];
+        if (kind == _TRIGGER) {
+            super._enqueueTriggerEvent((IOPort) request[1], (Time) request[2]);
+        }
+        else if (kind == _FIRE_AT) {
+            super.fireAt((Actor) request[1], (Time) request[2]);
+        }
+        else if (kind == _FIRE_AT_MICROSTEP) {
+            super.fireAt((Actor) request[1], (Time) request[2], (Integer) request[3]);
+        }
+        else {
+            super.fireAtCurrentTime((Actor) request[1]);
+        }
+    }
+    
+    /** Fire the devices of a partition in the calling thread, deferring their outputs and requests.
+     *  @return The deferred requests, in the order in which they were made.
+     */
+    private List<Object[]> _fireConcurrently(List<BluetoothDevice> devices) throws IllegalActionException {
+        ArrayList<Object[]> deferred = new ArrayList<Object[]>();
+        _DEFERRED.set(deferred);
+        try {
+            for (BluetoothDevice device : devices) {
+                device._setDeferOutputs(true);
+                try {
+                    _iterate(device);
+                } finally {
+                    device._setDeferOutputs(false);
+                }
+            }
+        } finally {
+            _DEFERRED.remove();
+        }
+        return deferred;
+    }
+    
+    /** Iterate a device, as long as it has pending commands at the current tag. */
+    private static void _iterate(BluetoothDevice device) throws IllegalActionException {
+        do {
+            if (!device.prefire()) {
+                return;
+            }
+            device.fire();
+            device.postfire();
+        } while (device.wiredInput.hasToken(0));
+    }
+    
+    /** Compute the partitions of the devices contained by the container of this director, if the workspace changed. */
+    private void _updatePartitions() throws IllegalActionException {
+        long version = workspace().getVersion();
+        if (_partitionOf != null && version == _partitionVersion) {
+            return;
+        }
+        NamedObj container = getContainer();
+        List devices = ((CompositeEntity) container).entityList(BluetoothDevice.class);
+        
+        // Union the devices with their channels.
+        HashMap<Object, Object> parent = new HashMap<Object, Object>();
+        for (Object device : devices) {
+            _union(parent, device, ((BluetoothDevice) device).wirelessInput.getOutsideChannel());
+            _union(parent, device, ((BluetoothDevice) device).wirelessOutput.getOutsideChannel());
+        }
+        
+        // A partition is not independent if one of its channels has another listener.
+        HashMap<Object, Boolean> independent = new HashMap<Object, Boolean>();
+        for (Object device : devices) {
+            for (WirelessChannel channel : new WirelessChannel[] {((BluetoothDevice) device).wirelessInput.getOutsideChannel(),
+                    ((BluetoothDevice) device).wirelessOutput.getOutsideChannel()}) {
+                if (channel == null) {
+                    continue;
+                }
+                Object root = _find(parent, channel);
+                if (!(channel instanceof AtomicWirelessChannel)) {
+                    independent.put(root, Boolean.FALSE);
+                    continue;
+                }
+                AtomicWirelessChannel atomic = (AtomicWirelessChannel) channel;
+                boolean onlyDevices = atomic.listeningOutputPorts().isEmpty();
+                for (Object port : atomic.listeningInputPorts()) {
+                    NamedObj owner = ((IOPort) port).getContainer();
+                    if (!(owner instanceof BluetoothDevice) || owner.getContainer() != container) {
+                        onlyDevices = false;
+                    }
+                }
+                if (!onlyDevices) {
+                    independent.put(root, Boolean.FALSE);
+                }
+            }
+        }
+        
+        HashMap<Object, Integer> partitions = new HashMap<Object, Integer>();
+        _partitionOf = new HashMap<Actor, Integer>();
+        for (Object device : devices) {
+            Object root = _find(parent, device);
+            if (independent.get(root) == Boolean.FALSE) {
+                continue;
+            }
+            Integer partition = partitions.get(root);
+            if (partition == null) {
+                partition = partitions.size();
+                partitions.put(root, partition);
+            }
+            _partitionOf.put((Actor) device, partition);
+        }
+        _partitionVersion = version;
+    }
+    
+    /** Return the representative of the set of an element, adding the element if needed. */
+    private static Object _find(HashMap<Object, Object> parent, Object element) {
+        Object root = element;
+        Object next = parent.get(root);
+        while (next != null && next != root) {
+            root = next;
+            next = parent.get(root);
+        }
+        // Compress the path.
+        while (element != root) {
+            Object up = parent.get(element);
+            parent.put(element, root);
+            element = up == null ? root : up;
+        }
+        parent.put(root, root);
+        return root;
+    }
+    
+    /** Merge the sets of a device and a channel. */
+    private static void _union(HashMap<Object, Object> parent, Object device, Object channel) {
+        Object deviceRoot = _find(parent, device);
+        if (channel != null) {
+            Object channelRoot = _find(parent, channel);
+            if (deviceRoot != channelRoot) {
+                parent.put(channelRoot, deviceRoot);
+            }
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    /** The requests deferred by the devices fired by the current thread, or null if the thread is not firing a partition. */
+    private static final ThreadLocal<List<Object[]>> _DEFERRED = new ThreadLocal<List<Object[]>>();
+    
+    // The kinds of deferred requests.
+    private static final int _TRIGGER = 0;
+    private static final int _FIRE_AT = 1;
+    private static final int _FIRE_AT_MICROSTEP = 2;
+    private static final int _FIRE_AT_CURRENT_TIME = 3;
+    
+    private boolean _parallel = true;
+    private int _parallelism;
+    private HashMap<Actor, Integer> _partitionOf;
+    private long _partitionVersion = -1;
+    private ForkJoinPool _pool;
+}
@@ -0,0 +1,277 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+
+/**
+ * This class builds a population of BluetoothDevice actors, and the BluetoothChannel actors they communicate on, from a file listing
+ * the name, the channel and the initial state of each device, much faster than from MoML. The devices are constructed without the
+ * attributes that only affect how their ports are rendered, and with no parameters but their channel names, so that they take no
+ * more attributes than at first. BluetoothDevice.createParameters() creates the others on a device that needs them. The ports of
+ * the devices are left unconnected.
+ * <p>
+ * The file is either text or binary. A text file holds one device per line, as comma separated values:
+ * <pre>
+ * # name, channel, initial state
+ * device0, channel0, discoverable
+ * device1, channel0, on
+ * </pre>
+ * The initial state is "off", "on", or "discoverable" for a device that is switched on and discoverable, and defaults to "off".
+ * Empty lines and lines starting with # are ignored. A binary file, written by writeBinary() from a text file, starts with a header,
+ * followed by the names of the channels and by one record per device holding its name, the index of its channel and its initial
+ * state. The names are written as in BluetoothTokenCodec.
+ * <p>
+ * A channel is only created if the container holds no entity of its name.
+ *
+ * @author Phillip Azar
+ * @see BluetoothDevice
+ * @see BluetoothChannel
+ */
+public class BluetoothPopulationBuilder {
+
+    /**
+     * Construct a builder adding the devices to the given container.
+     * @param container : The container of the devices and channels.
+     */
+    public BluetoothPopulationBuilder(CompositeEntity container) {
+        _container = container;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+
+    /**
+     * Build the devices listed in a file, and the channels they communicate on.
+     * @param path : The name of the text or binary file.
+     * @return The devices, in the order of the file.
+     * @exception IllegalActionException If the file cannot be read or is malformed, or if a device or a channel cannot be created.
+     * @exception NameDuplicationException If the container already holds an entity with the name of a device.
+     */
+    public List<BluetoothDevice> build(String path) throws IllegalActionException, NameDuplicationException {
+        long start = System.nanoTime();
+        _Population population = _read(new File(path));
+        for (String channel : population.channels) {
+            if (_container.getEntity(channel) == null) {
+                new BluetoothChannel(_container, channel);
+            }
+        }
+        List<BluetoothDevice> devices = new ArrayList<BluetoothDevice>(population.names.size());
+        for (int i = 0; i < population.names.size(); i++) {
+            BluetoothDevice device = new BluetoothDevice(_container, population.names.get(i), false);
+            String channel = population.channels.get(population.channelIndices[i]);
+            device.wirelessInputChannelName.setExpression(channel);
+            device.wirelessOutputChannelName.setExpression(channel);
+            byte initial = population.initialStates[i];
+            device._setInitialState(initial != _OFF, initial == _DISCOVERABLE);
+            devices.add(device);
+        }
+        _buildNanos = System.nanoTime() - start;
+        _deviceCount = devices.size();
+        return devices;
+    }
+
+    /**
+     * Return the wall time taken by the last call to build(), including reading the file.
+     * @return The time in nanoseconds.
+     */
+    public long getBuildNanos() {
+        return _buildNanos;
+    }
+
+    /**
+     * Return the number of devices built by the last call to build().
+     * @return The number of devices.
+     */
+    public int getDeviceCount() {
+        return _deviceCount;
+    }
+
+    /**
+     * Return the mean wall time taken to build a device by the last call to build().
+     * @return The time in microseconds, or 0.0 if no device was built.
+     */
+    public double getMicrosPerDevice() {
+        return _deviceCount == 0 ? 0.0 : _buildNanos / 1e3 / _deviceCount;
+    }
+
+    /**
+     * Convert a text file listing devices to the binary format.
+     * @param textPath : The name of the text file.
+     * @param binaryPath : The name of the binary file, whose content is replaced.
+     * @exception IllegalActionException If the text file cannot be read or is malformed, or if the binary file cannot be written.
+     */
+    public static void writeBinary(String textPath, String binaryPath) throws IllegalActionException {
+        _Population population = _read(new File(textPath));
+        int size = 18;
+        for (String channel : population.channels) {
+            size += 5 + 3 * channel.length();
+        }
+        for (String name : population.names) {
+            size += 11 + 3 * name.length();
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(_MAGIC);
+        out.putInt(_VERSION);
+        BluetoothTokenCodec.writeVarInt(population.channels.size(), out);
+        for (String channel : population.channels) {
+            BluetoothTokenCodec.writeString(channel, out);
+        }
+        BluetoothTokenCodec.writeVarInt(population.names.size(), out);
+        for (int i = 0; i < population.names.size(); i++) {
+            BluetoothTokenCodec.writeString(population.names.get(i), out);
+            BluetoothTokenCodec.writeVarInt(population.channelIndices[i], out);
+            out.put(population.initialStates[i]);
+        }
+        out.flip();
+        File file = new File(binaryPath);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        } catch (IOException ex) {
+            throw new IllegalActionException(null, ex, "Cannot write Bluetooth population " + file);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Read a text or binary file, telling them apart by the header of the binary format. */
+    private static _Population _read(File file) throws IllegalActionException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+            }
+            if (header.position() == 4 && header.getInt(0) == _MAGIC) {
+                return _readBinary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        } catch (IOException | RuntimeException ex) {
+            throw new IllegalActionException(null, ex, "Cannot read Bluetooth population " + file);
+        }
+        return _readText(file);
+    }
+
+    /** Read a binary file. */
+    private static _Population _readBinary(ByteBuffer in) throws IOException {
+        in.getInt();
+        int version = in.getInt();
+        if (version != _VERSION) {
+            throw new IOException("Unsupported Bluetooth population version " + version);
+        }
+        List<String> channels = new ArrayList<String>();
+        for (int i = BluetoothTokenCodec.readVarInt(in); i > 0; i--) {
+            channels.add(BluetoothTokenCodec.readString(in));
+        }
+        int devices = BluetoothTokenCodec.readVarInt(in);
+        _Population population = new _Population(devices, channels);
+        for (int i = 0; i < devices; i++) {
+            population.names.add(BluetoothTokenCodec.readString(in));
+            population.channelIndices[i] = BluetoothTokenCodec.readVarInt(in);
+            population.initialStates[i] = in.get();
+        }
+        return population;
+    }
+
+    /** Read a text file. */
+    private static _Population _readText(File file) throws IllegalActionException {
+        List<String[]> lines = new ArrayList<String[]>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    lines.add(null);
+                    continue;
+                }
+                lines.add(line.split(","));
+            }
+        } catch (IOException ex) {
+            throw new IllegalActionException(null, ex, "Cannot read Bluetooth population " + file);
+        }
+        _Population population = new _Population(lines.size());
+        HashMap<String, Integer> channels = new HashMap<String, Integer>();
+        for (int i = 0; i < lines.size(); i++) {
+            String[] fields = lines.get(i);
+            if (fields == null) {
+                continue;
+            }
+            if (fields.length < 2 || fields.length > 3) {
+                throw new IllegalActionException("Line " + (i + 1) + " of " + file + " must hold a name, a channel and an initial state.");
+            }
+            String channel = fields[1].trim();
+            Integer index = channels.get(channel);
+            if (index == null) {
+                index = population.channels.size();
+                channels.put(channel, index);
+                population.channels.add(channel);
+            }
+            String initial = fields.length < 3 ? "off" : fields[2].trim();
+            int device = population.names.size();
+            population.names.add(fields[0].trim());
+            population.channelIndices[device] = index;
+            if (initial.equals("off")) {
+                population.initialStates[device] = _OFF;
+            }
+            else if (initial.equals("on")) {
+                population.initialStates[device] = _ON;
+            }
+            else if (initial.equals("discoverable")) {
+                population.initialStates[device] = _DISCOVERABLE;
+            }
+            else {
+                throw new IllegalActionException("Line " + (i + 1) + " of " + file + " has an unrecognized initial state: " + initial);
+            }
+        }
+        return population;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         inner classes                     ////
+
+    /** The devices listed in a file: their names, the index of their channel and their initial state, and the names of the channels. */
+    private static class _Population {
+        _Population(int capacity) {
+            this(capacity, new ArrayList<String>());
+        }
+
+        _Population(int capacity, List<String> channels) {
+            this.names = new ArrayList<String>(capacity);
+            this.channelIndices = new int[capacity];
+            this.initialStates = new byte[capacity];
+            this.channels = channels;
+        }
+
+        final List<String> channels;
+        final int[] channelIndices;
+        final byte[] initialStates;
+        final List<String> names;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    private static final int _MAGIC = 0x42545050;
+    private static final int _VERSION = 1;
+
+    // The initial states of a device.
+    private static final byte _OFF = 0;
+    private static final byte _ON = 1;
+    private static final byte _DISCOVERABLE = 2;
+
+    private long _buildNanos;
+    private final CompositeEntity _container;
+    private int _deviceCount;
+}
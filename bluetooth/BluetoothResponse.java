@@ -15,5 +15,7 @@ public enum BluetoothResponse {
     COMMAND_REQUESTPAIR,
     COMMAND_REQUESTCONNECT,
     COMMAND_DISCONNECT,
-    COMMAND_SCAN
+    COMMAND_SCAN,
+    RESPONSE_ACK,
+    RESPONSE_ADVERTISEMENT
 }
@@ -1,5 +1,7 @@
 package ptolemy.domains.wireless.lib.bluetooth;
 
+import java.util.Arrays;
+
 import ptolemy.data.BooleanToken;
 import ptolemy.data.Token;
 import ptolemy.kernel.util.IllegalActionException;
@@ -8,18 +10,34 @@ import ptolemy.kernel.util.IllegalActionException;
  * This class represents a wireless response from one BluetoothDevice actor to another. It is essentially reimagining of the ObjectToken type, with a few more members critical to making the
  * Bluetooth to Bluetooth communication possible. These include a device identifier, a source identifier, and data.
  * <p>
- * The device identifier field represents the target device for this response token.
- * The source identifier field represents the current device this response token is bieng sent from. This will be set to the return value of this.getName() in all cases except when scanning, where it will be set to "scan".
+ * The device identifier field represents the target device for this response token. This will be set to "scan" when scanning.
+ * The source identifier field represents the current device this response token is bieng sent from. This will be set to the return value of this.getName().
+ * Both identifiers are held as the integer handles given out by the BluetoothDeviceRegistry, so that a receiving device can compare them without
+ * comparing strings. The names are resolved from the registry when getDeviceIdentifier() or getSourceIdentifier() is called.
  * The data field represents an arbitrary peice of data to communicate to another BluetoothDevice actor.
  * <p>
  * Construction of an object of this class requires a BluetoothResponse enum element, a device identifier, a source identifier, and an arbitrary peice of data. The fields of this class are immutable.
  * <p>
+ * A request may carry a correlation ID, chosen by the requesting device, which the answering device copies into its answer, so that the
+ * requesting device can match the answer to the request among the many it may have in flight. A correlation ID of 0 means none.
+ * The same field holds the sequence number of the data sent on a flow controlled connection, and the sequence number acknowledged
+ * by a RESPONSE_ACK, see getSequenceNumber().
+ * <p>
+ * A response may be addressed to several devices at once, in which case its target device is BluetoothDeviceRegistry.MULTICAST and the
+ * devices are listed in the token, see getDestinations(). A single token is then transmitted, and delivered to each of the devices.
+ * <p>
+ * Because the fields are immutable, tokens that carry no data and no correlation ID can be shared. getControlToken() returns the canonical token for a response, target device
+ * and source device, so that discovery and handshake traffic does not create a new token on every send. The tokens are found without
+ * locking, so that the devices fired in parallel do not wait on each other. They are kept while an execution holds them, see
+ * acquireControlTokens(), and forgotten when the last execution that held them releases them.
+ * <p>
  * The toString() method will return the string equivalent of the BluetoothResponse enum element contained within this object.
  * @author Phillip Azar
  *
  * @param <T> - the type for the data contained within this token.
  * @see BluetoothResponse
  * @see BluetoothDevice
+ * @see BluetoothDeviceRegistry
  */
 public class BluetoothResponseToken<T> extends BluetoothToken {
     
@@ -31,10 +49,182 @@ public class BluetoothResponseToken<T> extends BluetoothToken {
      * @param data : The arbitrary data to send.
      */
     public BluetoothResponseToken(BluetoothResponse response, String deviceIdentifier, String sourceIdentifier, T data){
+        this(response, BluetoothDeviceRegistry.intern(deviceIdentifier), BluetoothDeviceRegistry.intern(sourceIdentifier), data);
+    }
+    
+    /**
+     * Construct a token with the following parameters:
+     * @param response : The response, request, or command desired. Acceptable entries are contained within the BluetoothResponse enumeration.
+     * @param deviceHandle : The BluetoothDeviceRegistry handle of the target device.
+     * @param sourceHandle : The BluetoothDeviceRegistry handle of the device constructing this token.
+     * @param data : The arbitrary data to send.
+     */
+    public BluetoothResponseToken(BluetoothResponse response, int deviceHandle, int sourceHandle, T data){
+        this(response, deviceHandle, sourceHandle, NO_CORRELATION, data);
+    }
+    
+    /**
+     * Construct a token with the following parameters:
+     * @param response : The response, request, or command desired. Acceptable entries are contained within the BluetoothResponse enumeration.
+     * @param deviceHandle : The BluetoothDeviceRegistry handle of the target device.
+     * @param sourceHandle : The BluetoothDeviceRegistry handle of the device constructing this token.
+     * @param correlationId : The correlation ID of the request this token is, or answers, or NO_CORRELATION.
+     * @param data : The arbitrary data to send.
+     */
+    public BluetoothResponseToken(BluetoothResponse response, int deviceHandle, int sourceHandle, int correlationId, T data){
         this._response = response;
-        this._deviceIdentifier = deviceIdentifier;
-        this._sourceIdentifier = sourceIdentifier;
+        this._deviceHandle = deviceHandle;
+        this._sourceHandle = sourceHandle;
+        this._correlationId = correlationId;
         this._data = data;
+        this._destinations = null;
+    }
+    
+    /**
+     * Construct a token addressed to several devices, with the following parameters:
+     * @param response : The response, request, or command desired. Acceptable entries are contained within the BluetoothResponse enumeration.
+     * @param destinations : The BluetoothDeviceRegistry handles of the target devices. The array is copied.
+     * @param sourceHandle : The BluetoothDeviceRegistry handle of the device constructing this token.
+     * @param data : The arbitrary data to send.
+     */
+    public BluetoothResponseToken(BluetoothResponse response, int[] destinations, int sourceHandle, T data){
+        this._response = response;
+        this._deviceHandle = BluetoothDeviceRegistry.MULTICAST;
+        this._sourceHandle = sourceHandle;
+        this._correlationId = NO_CORRELATION;
+        this._data = data;
+        this._destinations = destinations.clone();
+        Arrays.sort(this._destinations);
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public variables                  ////
+    
+    /** The correlation ID of a token that is not matched to a request. */
+    public static final int NO_CORRELATION = 0;
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+    
+    /**
+     * Return the canonical token carrying no data for the given response, target device and source device. The data of the returned token is the empty string.
+     * @param response : The response, request, or command desired.
+     * @param deviceHandle : The BluetoothDeviceRegistry handle of the target device.
+     * @param sourceHandle : The BluetoothDeviceRegistry handle of the device constructing this token.
+     * @return The canonical token.
+     */
+    public static BluetoothResponseToken<String> getControlToken(BluetoothResponse response, int deviceHandle, int sourceHandle){
+        // The table is read without locking: its slots only go from null to a token, whose fields are final, so a reader sees
+        // either a complete token or null, and then takes the lock to insert it.
+        BluetoothResponseToken<String>[] tokens = _controlTokens;
+        int mask = tokens.length - 1;
+        int index = _hash(response, deviceHandle, sourceHandle) & mask;
+        BluetoothResponseToken<String> token;
+        while ((token = tokens[index]) != null) {
+            if (token._response == response && token._deviceHandle == deviceHandle && token._sourceHandle == sourceHandle) {
+                return token;
+            }
+            index = (index + 1) & mask;
+        }
+        synchronized (_CONTROL_LOCK) {
+            tokens = _controlTokens;
+            mask = tokens.length - 1;
+            index = _hash(response, deviceHandle, sourceHandle) & mask;
+            while ((token = tokens[index]) != null) {
+                if (token._response == response && token._deviceHandle == deviceHandle && token._sourceHandle == sourceHandle) {
+                    return token;
+                }
+                index = (index + 1) & mask;
+            }
+            token = new BluetoothResponseToken<String>(response, deviceHandle, sourceHandle, "");
+            if (_controlCount < _MAX_CONTROL_TOKENS) {
+                tokens[index] = token;
+                _controlCount++;
+                if (_controlCount * 2 > tokens.length) {
+                    _growControlTokens();
+                }
+            }
+            return token;
+        }
+    }
+    
+    /**
+     * Hold the canonical tokens returned by getControlToken() until the matching call to releaseControlTokens(). A BluetoothDevice
+     * holds them from preinitialize() to wrapup(), so that they are kept while any model using them executes.
+     */
+    public static void acquireControlTokens(){
+        synchronized (_CONTROL_LOCK) {
+            _controlReferences++;
+        }
+    }
+    
+    /**
+     * Release the canonical tokens held by a call to acquireControlTokens(), and forget them if nothing holds them anymore, so that
+     * the memory they take is released at the end of the last execution. A token looked up afterwards is created again.
+     */
+    public static void releaseControlTokens(){
+        synchronized (_CONTROL_LOCK) {
+            if (--_controlReferences > 0) {
+                return;
+            }
+            _controlReferences = 0;
+            _controlTokens = new BluetoothResponseToken[_INITIAL_CONTROL_CAPACITY];
+            _controlCount = 0;
+        }
+    }
+    
+    /**
+     * Return the token carrying no data for the given response, target device, source device and correlation ID. If the
+     * correlation ID is NO_CORRELATION, this is the canonical token returned by getControlToken(response, deviceHandle, sourceHandle).
+     * @param response : The response, request, or command desired.
+     * @param deviceHandle : The BluetoothDeviceRegistry handle of the target device.
+     * @param sourceHandle : The BluetoothDeviceRegistry handle of the device constructing this token.
+     * @param correlationId : The correlation ID of the request this token is, or answers, or NO_CORRELATION.
+     * @return The token.
+     */
+    public static BluetoothResponseToken<String> getControlToken(BluetoothResponse response, int deviceHandle, int sourceHandle, int correlationId){
+        if (correlationId == NO_CORRELATION) {
+            return getControlToken(response, deviceHandle, sourceHandle);
+        }
+        return new BluetoothResponseToken<String>(response, deviceHandle, sourceHandle, correlationId, "");
+    }
+    
+    /**
+     * Get the correlation ID of the request this token is, or answers.
+     * @return The correlation ID, or NO_CORRELATION.
+     */
+    public int getCorrelationId(){
+        return this._correlationId;
+    }
+    
+    /**
+     * Get the sequence number of the data this token carries, or, for a RESPONSE_ACK, of the last data acknowledged. Data that is not
+     * flow controlled, and any other response, has no sequence number. The sequence number is held in the correlation ID field.
+     * @return The sequence number, or NO_CORRELATION.
+     */
+    public int getSequenceNumber(){
+        return this._correlationId;
+    }
+    
+    /**
+     * Get the registry handles of the target devices of a token addressed to several devices.
+     * @return A copy of the handles, in increasing order, or null if this token is addressed to a single device.
+     */
+    public int[] getDestinations(){
+        return this._destinations == null ? null : this._destinations.clone();
+    }
+    
+    /**
+     * Return true if this token is addressed to the given device, either as its target device or as one of its destinations.
+     * The "scan" broadcast address is not matched by every device.
+     * @param deviceHandle : The BluetoothDeviceRegistry handle of a device.
+     * @return True if this token is addressed to the device.
+     */
+    public boolean isAddressedTo(int deviceHandle){
+        if (this._destinations == null) {
+            return this._deviceHandle == deviceHandle;
+        }
+        return Arrays.binarySearch(this._destinations, deviceHandle) >= 0;
     }
     
     /**
@@ -47,18 +237,34 @@ public class BluetoothResponseToken<T> extends BluetoothToken {
     
     /**
      * Get the name of the target device associated with this token.
-     * @return _deviceIdentifier
+     * @return the name of the target device
      */
     public String getDeviceIdentifier(){
-        return this._deviceIdentifier;
+        return BluetoothDeviceRegistry.getName(this._deviceHandle);
     }
     
     /**
      * Get the name of the source device associated with this token.
-     * @return _sourceIdentifier
+     * @return the name of the source device
      */
     public String getSourceIdentifier(){
-        return this._sourceIdentifier;
+        return BluetoothDeviceRegistry.getName(this._sourceHandle);
+    }
+    
+    /**
+     * Get the registry handle of the target device associated with this token.
+     * @return _deviceHandle
+     */
+    public int getDeviceHandle(){
+        return this._deviceHandle;
+    }
+    
+    /**
+     * Get the registry handle of the source device associated with this token.
+     * @return _sourceHandle
+     */
+    public int getSourceHandle(){
+        return this._sourceHandle;
     }
     
     /**
@@ -88,6 +294,10 @@ public class BluetoothResponseToken<T> extends BluetoothToken {
             return "FINDME";
         case RESPONSE_OK:
             return "OK";
+        case RESPONSE_ACK:
+            return "ACK";
+        case RESPONSE_ADVERTISEMENT:
+            return "ADVERTISEMENT";
         default:
             return "nil";
         }
@@ -99,23 +309,66 @@ public class BluetoothResponseToken<T> extends BluetoothToken {
             throws IllegalActionException {
         if (rightArgument instanceof BluetoothResponseToken){
             BluetoothResponseToken right = (BluetoothResponseToken) rightArgument;
-            if (this._response == right.getResponse()){
-                return new BooleanToken(true);
-            }
-            else {
-                return new BooleanToken(false);
-            }
+            return this._response == right.getResponse() ? BooleanToken.TRUE : BooleanToken.FALSE;
         }
         else {
             throw new IllegalActionException("The argument must be of type BluetoothResponseToken");
         }
     }
     
+    ///////////////////////////////////////////////////////////////////
+    ////                         package methods                   ////
+    
+    /**
+     * Get the registry handles of the target devices of a token addressed to several devices, without copying them.
+     * @return The handles, in increasing order, or null if this token is addressed to a single device.
+     */
+    int[] _getDestinations(){
+        return this._destinations;
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+    
+    /** Publish a copy of the canonical token table with twice its capacity. Must be called while holding _CONTROL_LOCK. */
+    private static void _growControlTokens() {
+        BluetoothResponseToken<String>[] tokens = _controlTokens;
+        BluetoothResponseToken<String>[] newTokens = new BluetoothResponseToken[tokens.length * 2];
+        int mask = newTokens.length - 1;
+        for (BluetoothResponseToken<String> token : tokens) {
+            if (token != null) {
+                int index = _hash(token._response, token._deviceHandle, token._sourceHandle) & mask;
+                while (newTokens[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                newTokens[index] = token;
+            }
+        }
+        _controlTokens = newTokens;
+    }
+    
+    /** Spread the bits of the response, target handle and source handle of a canonical token. */
+    private static int _hash(BluetoothResponse response, int deviceHandle, int sourceHandle) {
+        return ((response.ordinal() * 31 + sourceHandle) * 0x9E3779B9 + deviceHandle) * 0x85EBCA6B;
+    }
+    
     ///////////////////////////////////////////////////////////////////
     ////                         private variables                 ////
     
     private final BluetoothResponse _response;
-    private final String _deviceIdentifier;
-    private final String _sourceIdentifier;
+    private final int _deviceHandle;
+    private final int _sourceHandle;
+    private final int _correlationId;
     private final T _data;
+    private final int[] _destinations;
+    
+    // The canonical tokens carrying no data, in an open addressing table keyed by response, source handle and target handle.
+    // The table is replaced, never resized in place, when it grows or is cleared, and only written while holding _CONTROL_LOCK.
+    // Past _MAX_CONTROL_TOKENS entries, getControlToken() returns new tokens instead of growing the table further.
+    private static final Object _CONTROL_LOCK = new Object();
+    private static final int _INITIAL_CONTROL_CAPACITY = 1024;
+    private static final int _MAX_CONTROL_TOKENS = 1 << 22;
+    private static volatile BluetoothResponseToken<String>[] _controlTokens = new BluetoothResponseToken[_INITIAL_CONTROL_CAPACITY];
+    private static int _controlCount;
+    private static int _controlReferences;
 }
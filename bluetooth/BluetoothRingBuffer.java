@@ -0,0 +1,198 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A single producer, single consumer queue of variable length records in a memory mapped file, through which a BluetoothShardBridge
+ * sends the wireless traffic of its shard to the bridge of another shard running in another process.
+ * <p>
+ * The file starts with a header holding the write position, the read position and the clock of the producer, each on its own cache
+ * line, followed by a data region whose capacity is a power of two. A record is written as its length followed by its bytes, padded
+ * to a multiple of 8 bytes. A record that does not fit before the end of the data region is preceded by a wrap marker, and written at
+ * its start. The positions grow without bound, and are published with release semantics and read with acquire semantics through
+ * VarHandles, so that the consumer never sees a position before the bytes it covers.
+ * <p>
+ * The clock is the model time up to which the producer has written every record, see BluetoothShardBridge. It is positive infinity
+ * once the producer is closed.
+ * <p>
+ * One process must open the file as a producer and one as a consumer. The file must not hold the records of a previous execution,
+ * so the consumer deletes it when it is closed.
+ *
+ * @author Phillip Azar
+ * @see BluetoothShardBridge
+ */
+public final class BluetoothRingBuffer implements Closeable {
+
+    /**
+     * Open a ring buffer, creating its file if needed.
+     * @param file : The file of the ring buffer.
+     * @param capacity : The capacity of the data region in bytes, a power of two of at least 4096. Both processes must give the same capacity.
+     * @param producer : True to open the ring buffer as its producer, false to open it as its consumer.
+     * @exception IOException If the file cannot be mapped.
+     * @exception IllegalArgumentException If the capacity is not a power of two of at least 4096.
+     */
+    public BluetoothRingBuffer(File file, int capacity, boolean producer) throws IOException {
+        if (capacity < 4096 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity of a ring buffer must be a power of two of at least 4096: " + capacity);
+        }
+        _file = file;
+        _capacity = capacity;
+        _mask = capacity - 1;
+        _producer = producer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            _buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, _DATA + capacity);
+        }
+        _buffer.order(ByteOrder.nativeOrder());
+        _writePosition = (long) _LONGS.getAcquire(_buffer, _WRITE);
+        _readPosition = (long) _LONGS.getAcquire(_buffer, _READ);
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+
+    /**
+     * Close the ring buffer. The producer publishes a clock of positive infinity, so that the consumer never waits for it again.
+     * The consumer deletes the file.
+     */
+    @Override
+    public void close() {
+        if (_producer) {
+            publishClock(Double.POSITIVE_INFINITY);
+        }
+        else {
+            _file.delete();
+        }
+    }
+
+    /**
+     * Return the largest record that can be written.
+     * @return The size in bytes.
+     */
+    public int maxRecordSize() {
+        return _capacity / 2 - 8;
+    }
+
+    /**
+     * Write a record, if there is room for it. This must only be called by the producer.
+     * @param record : The bytes of the record, between its position and its limit. The position of the buffer is not changed.
+     * @return True if the record was written, false if the ring buffer is too full.
+     * @exception IllegalArgumentException If the record is larger than maxRecordSize().
+     */
+    public boolean offer(ByteBuffer record) {
+        int length = record.remaining();
+        if (length > maxRecordSize()) {
+            throw new IllegalArgumentException("Record of " + length + " bytes larger than the ring buffer allows.");
+        }
+        int size = _align(4 + length);
+        long write = _writePosition;
+        int index = (int) (write & _mask);
+        int toEnd = _capacity - index;
+        int needed = size > toEnd ? toEnd + size : size;
+        if (write + needed - (long) _LONGS.getAcquire(_buffer, _READ) > _capacity) {
+            return false;
+        }
+        if (size > toEnd) {
+            _buffer.putInt(_DATA + index, _WRAP);
+            write += toEnd;
+            index = 0;
+        }
+        _buffer.putInt(_DATA + index, length);
+        ByteBuffer target = _buffer.duplicate();
+        target.position(_DATA + index + 4);
+        target.put(record.duplicate());
+        _writePosition = write + size;
+        _LONGS.setRelease(_buffer, _WRITE, _writePosition);
+        return true;
+    }
+
+    /**
+     * Return a view of the next record, without consuming it, or null if there is none. The view is valid until advance() is called.
+     * This must only be called by the consumer.
+     * @return The view of the record, or null.
+     */
+    public ByteBuffer peek() {
+        long read = _readPosition;
+        if (read == (long) _LONGS.getAcquire(_buffer, _WRITE)) {
+            return null;
+        }
+        int index = (int) (read & _mask);
+        int length = _buffer.getInt(_DATA + index);
+        if (length == _WRAP) {
+            read += _capacity - index;
+            _readPosition = read;
+            index = 0;
+            length = _buffer.getInt(_DATA);
+        }
+        _pendingSize = _align(4 + length);
+        ByteBuffer view = _buffer.duplicate();
+        view.position(_DATA + index + 4);
+        view.limit(_DATA + index + 4 + length);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Consume the record returned by the last call to peek(), making its room available to the producer.
+     */
+    public void advance() {
+        _readPosition += _pendingSize;
+        _pendingSize = 0;
+        _LONGS.setRelease(_buffer, _READ, _readPosition);
+    }
+
+    /**
+     * Publish the clock of the producer. This must only be called by the producer, after the records it covers are written.
+     * @param time : The model time up to which every record has been written.
+     */
+    public void publishClock(double time) {
+        _LONGS.setRelease(_buffer, _CLOCK, Double.doubleToRawLongBits(time));
+    }
+
+    /**
+     * Return the clock last published by the producer.
+     * @return The model time up to which every record has been written, or 0.0 if no clock was published.
+     */
+    public double readClock() {
+        return Double.longBitsToDouble((long) _LONGS.getAcquire(_buffer, _CLOCK));
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Round a size up to a multiple of 8 bytes. */
+    private static int _align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    // The offsets of the header fields, each on its own cache line, and of the data region.
+    private static final int _WRITE = 0;
+    private static final int _CLOCK = 64;
+    private static final int _READ = 128;
+    private static final int _DATA = 192;
+
+    // The length written in place of a record that does not fit before the end of the data region.
+    private static final int _WRAP = -1;
+
+    private static final VarHandle _LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final MappedByteBuffer _buffer;
+    private final int _capacity;
+    private final File _file;
+    private final int _mask;
+    private int _pendingSize;
+    private final boolean _producer;
+    private long _readPosition;
+    private long _writePosition;
+}
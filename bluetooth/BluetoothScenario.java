@@ -0,0 +1,593 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ptolemy.actor.IOPort;
+import ptolemy.actor.Manager;
+import ptolemy.actor.TypedCompositeActor;
+import ptolemy.actor.TypedIORelation;
+import ptolemy.domains.wireless.kernel.WirelessDirector;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.KernelException;
+import ptolemy.kernel.util.NameDuplicationException;
+import ptolemy.kernel.util.Workspace;
+
+/**
+ * A headless driver that builds a model of a population of BluetoothDevice actors under a WirelessDirector, runs a workload
+ * generated by a BluetoothWorkload actor against it, and reports how the model performed.
+ * <p>
+ * The devices are named device0, device1, and so on. They are split into cells of cellSize devices, each cell on its own
+ * BluetoothChannel, so that the broadcasts of a device only reach the devices of its cell. A cell size of 0 puts every device
+ * on a single channel. The status outputs of every device are counted by a BluetoothScenarioMonitor.
+ * <p>
+ * The report is a single JSON object holding the parameters of the scenario, the time taken to build the model, in total and per
+ * device, and to run it, the mean and maximum wall time of an iteration of the model, the number of status events and their rate,
+ * the handshakes completed and failed, the data tokens received, the responses dropped by the inboxes of the devices, the prefire()
+ * calls of the devices and how many of them skipped a firing because the device had nothing to do, the heap used after building the
+ * model and at its peak during the run, and the time taken to save the checkpoint, if any. The devices are built without the
+ * attributes that only affect how their ports are rendered.
+ * <pre>
+ * java ptolemy.domains.wireless.lib.bluetooth.BluetoothScenario -devices 10000 -cellSize 16 -workload churn -steps 50
+ * </pre>
+ * The options are:
+ * <p>
+ * -devices N : the number of devices, 10 by default.
+ * <p>
+ * -cellSize K : the number of devices per channel, an even number, or 0 for a single channel. 0 by default.
+ * <p>
+ * -workload W : scanStorm, churn or stream, see BluetoothWorkload. scanStorm by default.
+ * <p>
+ * -steps S : the number of steps of the workload, each taking one unit of model time. 20 by default.
+ * <p>
+ * -activity P : the probability that an initiator is active at a step, see BluetoothWorkload. 1.0 by default.
+ * <p>
+ * -seed S : the seed of the workload. 0 by default.
+ * <p>
+ * -parallelism P : the number of threads firing the devices of different cells concurrently under a BluetoothParallelDirector,
+ * or 0 for the number of available processors. By default, the model runs under a WirelessDirector.
+ * <p>
+ * -verbosity V : the verbosity of the devices, see BluetoothDevice. The handshakes are only counted from the transitions level on.
+ * all by default.
+ * <p>
+ * -propagationDelay D : the propagation delay of the channels, see BluetoothChannel. 0.0 by default.
+ * <p>
+ * -shards N : the number of processes the devices are split between, each running the devices of a range of couples, connected by
+ * a BluetoothShardBridge. The propagation delay must then be positive. This process launches one JVM per shard, with the same class
+ * path and JVM options, and reports the sum of their event counts, and the largest of their times. 1 by default.
+ * <p>
+ * -shard I : run only shard I of the N shards, exchanging traffic with the other shards through the ring buffers in the directory
+ * given by -ringDirectory. This is how the shards are launched.
+ * <p>
+ * -checkpoint F : the file written by BluetoothCheckpoint from which the devices restore their state when the model is initialized,
+ * so that the run starts from the population saved by an earlier run. With several shards, each shard restores from F followed by
+ * ".shard" and its index. By default, the devices start switched off.
+ * <p>
+ * -saveCheckpoint F : the file in which the state of the devices is saved at the end of the run, named as for -checkpoint with
+ * several shards.
+ * <p>
+ * -output F : the file the report is written to, instead of the standard output.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothWorkload
+ * @see BluetoothScenarioMonitor
+ */
+public class BluetoothScenario {
+
+    /** Create a scenario.
+     *  @param devices The number of devices.
+     *  @param cellSize The number of devices per channel, or 0 for a single channel.
+     *  @param workload The name of the workload.
+     *  @param steps The number of steps of the workload.
+     *  @param activity The probability that an initiator is active at a step.
+     *  @param seed The seed of the workload.
+     *  @exception IllegalArgumentException If a number is out of range.
+     */
+    public BluetoothScenario(int devices, int cellSize, String workload, int steps, double activity, long seed) {
+        if (devices < 0 || cellSize < 0 || cellSize % 2 != 0 || steps < 1) {
+            throw new IllegalArgumentException("Invalid scenario: " + devices + " devices, cells of " + cellSize + ", " + steps + " steps.");
+        }
+        _devices = devices;
+        _cellSize = cellSize;
+        _workload = workload;
+        _steps = steps;
+        _activity = activity;
+        _seed = seed;
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+    
+    /** Build the model of the scenario.
+     *  @return The model.
+     *  @exception KernelException If the model cannot be built.
+     */
+    public TypedCompositeActor build() throws KernelException {
+        long start = System.nanoTime();
+        Workspace workspace = new Workspace("scenario");
+        _model = new TypedCompositeActor(workspace);
+        _model.setName("scenario");
+        WirelessDirector director;
+        if (_parallelism < 0) {
+            director = new WirelessDirector(_model, "director");
+        }
+        else {
+            BluetoothParallelDirector parallelDirector = new BluetoothParallelDirector(_model, "director");
+            parallelDirector.parallelism.setExpression(Integer.toString(_parallelism));
+            director = parallelDirector;
+        }
+        director.stopTime.setExpression(Double.toString(_steps - 1));
+        _model.setManager(new Manager(workspace, "manager"));
+        
+        // Every shard holds every channel, and the devices of a range of couples.
+        int cells = _cellSize == 0 ? 1 : (_devices + _cellSize - 1) / _cellSize;
+        for (int cell = 0; cell < Math.max(cells, 1); cell++) {
+            BluetoothChannel channel = new BluetoothChannel(_model, "channel" + cell);
+            channel.propagationDelay.setExpression(Double.toString(_propagationDelay));
+        }
+        int couples = (_devices + 1) / 2;
+        int first = 2 * (int) ((long) couples * _shard / _shards);
+        int last = Math.min(_devices, 2 * (int) ((long) couples * (_shard + 1) / _shards));
+        if (_shards > 1) {
+            BluetoothShardBridge bridge = new BluetoothShardBridge(_model, "bridge");
+            bridge.shards.setExpression(Integer.toString(_shards));
+            bridge.shard.setExpression(Integer.toString(_shard));
+            bridge.ringDirectory.setExpression(_ringDirectory);
+        }
+        
+        BluetoothWorkload workload = new BluetoothWorkload(_model, "workload");
+        workload.firstDevice.setExpression(Integer.toString(first));
+        workload.workload.setExpression(_workload);
+        workload.activity.setExpression(Double.toString(_activity));
+        workload.seed.setExpression(_seed + "L");
+        _monitor = new BluetoothScenarioMonitor(_model, "monitor");
+        
+        _population = new ArrayList<BluetoothDevice>(last - first);
+        for (int i = first; i < last; i++) {
+            BluetoothDevice device = new BluetoothDevice(_model, "device" + i, false);
+            String channel = "channel" + (_cellSize == 0 ? 0 : i / _cellSize);
+            device.wirelessInputChannelName.setExpression(channel);
+            device.wirelessOutputChannelName.setExpression(channel);
+            // The parameters of a lightweight device are only created when a value other than their default is needed.
+            if (!_verbosity.equals("all") || _checkpoint != null) {
+                device.createParameters();
+                device.verbosity.setExpression(_verbosity);
+                if (_checkpoint != null) {
+                    device.checkpointFile.setExpression(_shardFile(_checkpoint));
+                }
+            }
+            _connect("command" + i, workload.command, device.wiredInput);
+            _connect("details" + i, workload.details, device.wiredInputDetails);
+            _connect("data" + i, workload.data, device.wiredInputData);
+            _connect("status" + i, device.wiredOutput, _monitor.input);
+            _population.add(device);
+        }
+        _buildNanos = System.nanoTime() - start;
+        return _model;
+    }
+    
+    /** Run the scenario, building its model first if needed, and return the report.
+     *  @return The report, as an ordered map from the name of each figure to its value.
+     *  @exception KernelException If the model cannot be built or fails while running.
+     */
+    public Map<String, Object> run() throws KernelException {
+        if (_model == null) {
+            build();
+        }
+        long heapAfterBuild = _usedHeap();
+        ArrayList<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        
+        Manager manager = _model.getManager();
+        long start = System.nanoTime();
+        manager.initialize();
+        long iterations = 0;
+        long maxIteration = 0;
+        boolean running = true;
+        while (running) {
+            long iterationStart = System.nanoTime();
+            running = manager.iterate();
+            long iteration = System.nanoTime() - iterationStart;
+            maxIteration = Math.max(maxIteration, iteration);
+            iterations++;
+        }
+        manager.wrapup();
+        long runNanos = System.nanoTime() - start;
+        long checkpointNanos = 0;
+        if (_saveCheckpoint != null) {
+            long checkpointStart = System.nanoTime();
+            BluetoothCheckpoint.write(_model, _shardFile(_saveCheckpoint));
+            checkpointNanos = System.nanoTime() - checkpointStart;
+        }
+        
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        long dropped = 0;
+        long prefires = 0;
+        long skipped = 0;
+        for (BluetoothDevice device : _population) {
+            for (long count : device.getDroppedResponseCounts()) {
+                dropped += count;
+            }
+            prefires += device.getPrefireCount();
+            skipped += device.getSkippedFireCount();
+        }
+        
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("devices", _devices);
+        report.put("cellSize", _cellSize);
+        report.put("workload", _workload);
+        report.put("steps", _steps);
+        report.put("activity", _activity);
+        report.put("seed", _seed);
+        report.put("parallelism", _parallelism);
+        report.put("verbosity", _verbosity);
+        report.put("propagationDelay", _propagationDelay);
+        report.put("shards", _shards);
+        if (_shards > 1) {
+            report.put("shard", _shard);
+        }
+        report.put("buildMillis", _buildNanos / 1e6);
+        report.put("buildMicrosPerDevice", _population.isEmpty() ? 0.0 : _buildNanos / 1e3 / _population.size());
+        report.put("runMillis", runNanos / 1e6);
+        report.put("iterations", iterations);
+        report.put("meanIterationMicros", iterations == 0 ? 0.0 : runNanos / 1e3 / iterations);
+        report.put("maxIterationMicros", maxIteration / 1e3);
+        report.put("events", _monitor.getStatusCount());
+        report.put("eventsPerSecond", runNanos == 0 ? 0.0 : _monitor.getStatusCount() * 1e9 / runNanos);
+        report.put("pairsCompleted", _monitor.getPairCount());
+        report.put("connectionsCompleted", _monitor.getConnectionCount());
+        report.put("handshakesFailed", _monitor.getFailedHandshakeCount());
+        report.put("dataReceived", _monitor.getDataCount());
+        report.put("droppedResponses", dropped);
+        report.put("prefires", prefires);
+        report.put("firesSkipped", skipped);
+        report.put("skippedFireFraction", prefires == 0 ? 0.0 : (double) skipped / prefires);
+        report.put("heapAfterBuildBytes", heapAfterBuild);
+        report.put("peakHeapBytes", peakHeap);
+        if (_saveCheckpoint != null) {
+            report.put("checkpointMillis", checkpointNanos / 1e6);
+        }
+        return report;
+    }
+    
+    /** Restore the state of the devices from a checkpoint when the model is initialized, and save it at the end of the run.
+     *  This must be set before the model is built.
+     *  @param checkpoint The file to restore from, see BluetoothCheckpoint, or null to start from switched off devices.
+     *  @param saveCheckpoint The file to save to, or null.
+     */
+    public void setCheckpoint(String checkpoint, String saveCheckpoint) {
+        _checkpoint = checkpoint;
+        _saveCheckpoint = saveCheckpoint;
+    }
+    
+    /** Run the model under a BluetoothParallelDirector with the given number of threads, or under a WirelessDirector if the
+     *  number is negative. This must be set before the model is built.
+     *  @param parallelism The number of threads, 0 for the number of available processors, or a negative number.
+     */
+    public void setParallelism(int parallelism) {
+        _parallelism = parallelism;
+    }
+    
+    /** Set the propagation delay of the channels. This must be set before the model is built.
+     *  @param delay The propagation delay, see BluetoothChannel.
+     */
+    public void setPropagationDelay(double delay) {
+        _propagationDelay = delay;
+    }
+    
+    /** Run only one shard of the scenario, exchanging traffic with the other shards through a BluetoothShardBridge.
+     *  This must be set before the model is built.
+     *  @param shard The index of the shard.
+     *  @param shards The number of shards.
+     *  @param ringDirectory The directory of the ring buffers, shared by every shard.
+     *  @exception IllegalArgumentException If the shard is not one of the shards.
+     */
+    public void setShard(int shard, int shards, String ringDirectory) {
+        if (shards < 1 || shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("Invalid shard " + shard + " of " + shards + " shards.");
+        }
+        _shard = shard;
+        _shards = shards;
+        _ringDirectory = ringDirectory;
+    }
+    
+    /** Set the verbosity of the devices. This must be set before the model is built.
+     *  @param verbosity One of "none", "errors", "transitions" or "all".
+     */
+    public void setVerbosity(String verbosity) {
+        _verbosity = verbosity;
+    }
+    
+    /** Format a report as a JSON object on a single line.
+     *  @param report The report.
+     *  @return The JSON object.
+     */
+    public static String toJSON(Map<String, Object> report) {
+        StringBuilder result = new StringBuilder("{");
+        for (Map.Entry<String, Object> entry : report.entrySet()) {
+            if (result.length() > 1) {
+                result.append(", ");
+            }
+            result.append('"').append(entry.getKey()).append("\": ");
+            Object value = entry.getValue();
+            if (value instanceof Number || value instanceof Boolean) {
+                result.append(value);
+            }
+            else {
+                result.append('"').append(String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            }
+        }
+        return result.append('}').toString();
+    }
+    
+    /** Run a scenario given on the command line, and print its report.
+     *  @param args The options of the scenario, see the documentation of this class.
+     *  @exception Exception If the options are invalid, or if the scenario fails.
+     */
+    public static void main(String[] args) throws Exception {
+        int devices = 10;
+        int cellSize = 0;
+        String workload = "scanStorm";
+        int steps = 20;
+        double activity = 1.0;
+        long seed = 0L;
+        String output = null;
+        int parallelism = -1;
+        String verbosity = "all";
+        double propagationDelay = 0.0;
+        int shards = 1;
+        int shard = -1;
+        String ringDirectory = "";
+        String checkpoint = null;
+        String saveCheckpoint = null;
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of option " + option);
+            }
+            String value = args[++i];
+            if (option.equals("-devices")) {
+                devices = Integer.parseInt(value);
+            }
+            else if (option.equals("-cellSize")) {
+                cellSize = Integer.parseInt(value);
+            }
+            else if (option.equals("-workload")) {
+                workload = value;
+            }
+            else if (option.equals("-steps")) {
+                steps = Integer.parseInt(value);
+            }
+            else if (option.equals("-activity")) {
+                activity = Double.parseDouble(value);
+            }
+            else if (option.equals("-seed")) {
+                seed = Long.parseLong(value);
+            }
+            else if (option.equals("-parallelism")) {
+                parallelism = Integer.parseInt(value);
+            }
+            else if (option.equals("-verbosity")) {
+                verbosity = value;
+            }
+            else if (option.equals("-propagationDelay")) {
+                propagationDelay = Double.parseDouble(value);
+            }
+            else if (option.equals("-shards")) {
+                shards = Integer.parseInt(value);
+            }
+            else if (option.equals("-shard")) {
+                shard = Integer.parseInt(value);
+            }
+            else if (option.equals("-ringDirectory")) {
+                ringDirectory = value;
+            }
+            else if (option.equals("-checkpoint")) {
+                checkpoint = value;
+            }
+            else if (option.equals("-saveCheckpoint")) {
+                saveCheckpoint = value;
+            }
+            else if (option.equals("-output")) {
+                output = value;
+            }
+            else {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        
+        String report;
+        if (shards > 1 && shard < 0) {
+            report = toJSON(_runShards(args, shards));
+        }
+        else {
+            BluetoothScenario scenario = new BluetoothScenario(devices, cellSize, workload, steps, activity, seed);
+            scenario.setParallelism(parallelism);
+            scenario.setVerbosity(verbosity);
+            scenario.setPropagationDelay(propagationDelay);
+            scenario.setCheckpoint(checkpoint, saveCheckpoint);
+            if (shards > 1) {
+                scenario.setShard(shard, shards, ringDirectory);
+            }
+            report = toJSON(scenario.run());
+        }
+        if (output == null) {
+            System.out.println(report);
+        }
+        else {
+            try (Writer writer = new PrintWriter(new FileWriter(output))) {
+                writer.write(report);
+                writer.write(System.lineSeparator());
+            }
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+    
+    /** Connect two ports through a new relation with the given name. */
+    private void _connect(String name, IOPort source, IOPort destination) throws IllegalActionException, NameDuplicationException {
+        TypedIORelation relation = new TypedIORelation(_model, name);
+        source.link(relation);
+        destination.link(relation);
+    }
+    
+    /** Parse a report formatted by toJSON(). */
+    private static Map<String, Object> _parseJSON(String json) {
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        String body = json.trim();
+        body = body.substring(1, body.length() - 1);
+        int position = 0;
+        while (position < body.length()) {
+            int keyStart = body.indexOf('"', position) + 1;
+            int keyEnd = body.indexOf('"', keyStart);
+            int valueStart = body.indexOf(':', keyEnd) + 1;
+            while (body.charAt(valueStart) == ' ') {
+                valueStart++;
+            }
+            int valueEnd;
+            Object value;
+            if (body.charAt(valueStart) == '"') {
+                StringBuilder text = new StringBuilder();
+                valueEnd = valueStart + 1;
+                while (body.charAt(valueEnd) != '"') {
+                    if (body.charAt(valueEnd) == '\\') {
+                        valueEnd++;
+                    }
+                    text.append(body.charAt(valueEnd++));
+                }
+                valueEnd++;
+                value = text.toString();
+            }
+            else {
+                valueEnd = body.indexOf(',', valueStart);
+                if (valueEnd < 0) {
+                    valueEnd = body.length();
+                }
+                String number = body.substring(valueStart, valueEnd).trim();
+                value = number.indexOf('.') >= 0 || number.indexOf('E') >= 0 || number.indexOf('N') >= 0 || number.indexOf('I') >= 0
+                        ? (Object) Double.valueOf(number) : (Object) Long.valueOf(number);
+            }
+            report.put(body.substring(keyStart, keyEnd), value);
+            int next = body.indexOf(',', valueEnd);
+            position = next < 0 ? body.length() : next + 1;
+        }
+        return report;
+    }
+    
+    /** Run every shard of the scenario in its own JVM, and merge their reports. */
+    private static Map<String, Object> _runShards(String[] args, int shards) throws IOException, InterruptedException {
+        File ringDirectory = Files.createTempDirectory("bluetooth-shards").toFile();
+        List<String> options = new ArrayList<String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].equals("-output")) {
+                options.add(args[i]);
+                options.add(args[i + 1]);
+            }
+        }
+        Process[] processes = new Process[shards];
+        for (int shard = 0; shard < shards; shard++) {
+            List<String> command = new ArrayList<String>();
+            command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(BluetoothScenario.class.getName());
+            command.addAll(options);
+            command.addAll(Arrays.asList("-shard", Integer.toString(shard), "-ringDirectory", ringDirectory.getPath()));
+            processes[shard] = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        }
+        
+        Map<String, Object> merged = null;
+        for (int shard = 0; shard < shards; shard++) {
+            String line;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(processes[shard].getInputStream()))) {
+                line = reader.readLine();
+            }
+            if (processes[shard].waitFor() != 0 || line == null) {
+                throw new IOException("Shard " + shard + " failed.");
+            }
+            Map<String, Object> report = _parseJSON(line);
+            report.remove("shard");
+            if (merged == null) {
+                merged = report;
+                continue;
+            }
+            for (Map.Entry<String, Object> entry : report.entrySet()) {
+                String key = entry.getKey();
+                if (key.endsWith("Millis") || key.endsWith("Micros") || key.endsWith("PerDevice")) {
+                    merged.put(key, Math.max(((Number) merged.get(key)).doubleValue(), ((Number) entry.getValue()).doubleValue()));
+                }
+                else if (key.equals("iterations")) {
+                    merged.put(key, Math.max(((Number) merged.get(key)).longValue(), ((Number) entry.getValue()).longValue()));
+                }
+                else if (key.equals("events") || key.endsWith("Completed") || key.equals("handshakesFailed") || key.equals("dataReceived")
+                        || key.equals("droppedResponses") || key.equals("prefires") || key.equals("firesSkipped") || key.endsWith("Bytes")) {
+                    merged.put(key, ((Number) merged.get(key)).longValue() + ((Number) entry.getValue()).longValue());
+                }
+            }
+        }
+        double runSeconds = ((Number) merged.get("runMillis")).doubleValue() / 1e3;
+        merged.put("eventsPerSecond", runSeconds == 0.0 ? 0.0 : ((Number) merged.get("events")).longValue() / runSeconds);
+        long prefires = ((Number) merged.get("prefires")).longValue();
+        merged.put("skippedFireFraction", prefires == 0 ? 0.0 : ((Number) merged.get("firesSkipped")).doubleValue() / prefires);
+        ringDirectory.delete();
+        return merged;
+    }
+    
+    /** Return the name of the checkpoint file of this shard. */
+    private String _shardFile(String path) {
+        return _shards > 1 ? path + ".shard" + _shard : path;
+    }
+    
+    /** Return the heap in use, after requesting a garbage collection. */
+    private static long _usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private final double _activity;
+    private long _buildNanos;
+    private final int _cellSize;
+    private String _checkpoint;
+    private final int _devices;
+    private BluetoothScenarioMonitor _monitor;
+    private int _parallelism = -1;
+    private double _propagationDelay;
+    private String _ringDirectory = "";
+    private int _shard;
+    private int _shards = 1;
+    private TypedCompositeActor _model;
+    private ArrayList<BluetoothDevice> _population;
+    private String _saveCheckpoint;
+    private final long _seed;
+    private final int _steps;
+    private String _verbosity = "all";
+    private final String _workload;
+}
@@ -0,0 +1,133 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedIOPort;
+import ptolemy.data.Token;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+
+/**
+ * This actor counts the status tokens output by a population of BluetoothDevice actors, whose wired outputs are connected to its
+ * input multiport. Besides the total count, it counts the completed pair and connection handshakes, as reported by the initiating
+ * device, the handshakes that failed for want of an answer, and the data tokens received.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothScenario
+ */
+public class BluetoothScenarioMonitor extends TypedAtomicActor {
+
+    /** Construct an actor with the given container and name.
+     *  @param container The container.
+     *  @param name The name of this actor.
+     *  @exception IllegalActionException If the actor cannot be contained
+     *   by the proposed container.
+     *  @exception NameDuplicationException If the container already has an
+     *   actor with this name.
+     */
+    public BluetoothScenarioMonitor(CompositeEntity container, String name)
+            throws NameDuplicationException, IllegalActionException {
+        super(container, name);
+        input = new TypedIOPort(this, "input", true, false);
+        input.setMultiport(true);
+        input.setTypeEquals(BaseType.GENERAL);
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                     ports and parameters                  ////
+    
+    /** The input port for the status tokens. */
+    public TypedIOPort input;
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+    
+    /** Count the available status tokens.
+     *  @exception IllegalActionException If a token cannot be read.
+     */
+    @Override
+    public void fire() throws IllegalActionException {
+        super.fire();
+        int width = input.getWidth();
+        for (int i = 0; i < width; i++) {
+            while (input.hasToken(i)) {
+                Token token = input.get(i);
+                _statuses++;
+                if (!(token instanceof BluetoothStatusToken)) {
+                    continue;
+                }
+                BluetoothEvent event = ((BluetoothStatusToken) token).getEvent();
+                if (event == BluetoothEvent.PAIR_ACCEPTED) {
+                    _pairs++;
+                }
+                else if (event == BluetoothEvent.CONNECT_ACCEPTED) {
+                    _connections++;
+                }
+                else if (event == BluetoothEvent.DATA_RECEIVED) {
+                    _dataReceived++;
+                }
+                else if (event == BluetoothEvent.HANDSHAKE_FAILED) {
+                    _failedHandshakes++;
+                }
+            }
+        }
+    }
+    
+    /** Return the number of connection handshakes completed.
+     *  @return The number of connection handshakes completed.
+     */
+    public long getConnectionCount() {
+        return _connections;
+    }
+    
+    /** Return the number of data tokens received.
+     *  @return The number of data tokens received.
+     */
+    public long getDataCount() {
+        return _dataReceived;
+    }
+    
+    /** Return the number of pair and connection handshakes that failed because no answer was received.
+     *  @return The number of handshakes failed.
+     */
+    public long getFailedHandshakeCount() {
+        return _failedHandshakes;
+    }
+    
+    /** Return the number of pair handshakes completed.
+     *  @return The number of pair handshakes completed.
+     */
+    public long getPairCount() {
+        return _pairs;
+    }
+    
+    /** Return the number of status tokens received.
+     *  @return The number of status tokens received.
+     */
+    public long getStatusCount() {
+        return _statuses;
+    }
+    
+    /** Reset the counts.
+     *  @exception IllegalActionException If the superclass throws it.
+     */
+    @Override
+    public void initialize() throws IllegalActionException {
+        super.initialize();
+        _connections = 0;
+        _dataReceived = 0;
+        _failedHandshakes = 0;
+        _pairs = 0;
+        _statuses = 0;
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private long _connections;
+    private long _dataReceived;
+    private long _failedHandshakes;
+    private long _pairs;
+    private long _statuses;
+}
@@ -0,0 +1,95 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import ptolemy.data.BooleanToken;
+import ptolemy.data.Token;
+import ptolemy.kernel.util.IllegalActionException;
+
+/**
+ * This class represents a segment of a BluetoothBufferToken payload that is larger than the maximum segment size of the sending
+ * BluetoothDevice, in the manner of L2CAP segmentation. Each segment is sent in its own RESPONSE_OK BluetoothResponseToken, and the
+ * receiving BluetoothDevice reassembles the payload from the segments before outputting it.
+ * <p>
+ * A segment holds the identifier of the payload it belongs to, unique for the sending device, the position of the segment in the
+ * payload, the length of the whole payload, and a view of the bytes of the segment.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothBufferToken
+ * @see BluetoothDevice
+ */
+public class BluetoothSegmentToken extends BluetoothToken {
+
+    /**
+     * Construct a segment.
+     * @param payloadIdentifier : The identifier of the payload, unique for the sending device.
+     * @param offset : The position of the segment in the payload.
+     * @param payloadLength : The number of bytes of the whole payload.
+     * @param segment : The bytes of the segment.
+     */
+    public BluetoothSegmentToken(int payloadIdentifier, int offset, int payloadLength, BluetoothBufferToken segment) {
+        this._payloadIdentifier = payloadIdentifier;
+        this._offset = offset;
+        this._payloadLength = payloadLength;
+        this._segment = segment;
+    }
+    
+    /**
+     * Return the position of this segment in the payload.
+     * @return The offset.
+     */
+    public int getOffset() {
+        return this._offset;
+    }
+    
+    /**
+     * Return the identifier of the payload this segment belongs to.
+     * @return The identifier.
+     */
+    public int getPayloadIdentifier() {
+        return this._payloadIdentifier;
+    }
+    
+    /**
+     * Return the number of bytes of the whole payload.
+     * @return The length of the payload.
+     */
+    public int getPayloadLength() {
+        return this._payloadLength;
+    }
+    
+    /**
+     * Return the bytes of this segment.
+     * @return The view of the bytes of this segment.
+     */
+    public BluetoothBufferToken getSegment() {
+        return this._segment;
+    }
+    
+    @Override
+    public BooleanToken isEqualTo(Token rightArgument)
+            throws IllegalActionException {
+        if (rightArgument instanceof BluetoothSegmentToken) {
+            BluetoothSegmentToken right = (BluetoothSegmentToken) rightArgument;
+            if (right._payloadIdentifier != this._payloadIdentifier || right._offset != this._offset
+                    || right._payloadLength != this._payloadLength) {
+                return BooleanToken.FALSE;
+            }
+            return this._segment.isEqualTo(right._segment);
+        }
+        else {
+            throw new IllegalActionException("The argument must be of type BluetoothSegmentToken");
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "segment(" + this._payloadIdentifier + ", " + this._offset + "+" + this._segment.length() + " of " + this._payloadLength + " bytes)";
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    private final int _offset;
+    private final int _payloadIdentifier;
+    private final int _payloadLength;
+    private final BluetoothBufferToken _segment;
+}
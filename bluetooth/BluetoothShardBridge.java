@@ -0,0 +1,531 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import ptolemy.actor.IOPort;
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.util.Time;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.Attribute;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+
+/**
+ * This actor connects the BluetoothChannels of its model to the same channels in the models of other processes, so that a population of
+ * BluetoothDevice actors can be split into shards, each run by its own JVM.
+ * <p>
+ * Every shard runs a model holding the same channels, its own subset of the devices, and a bridge whose shard parameter is the index of
+ * the shard and whose shards parameter is the number of shards. The bridges exchange the responses transmitted by their devices through
+ * BluetoothRingBuffers in the ringDirectory, one per ordered pair of shards, encoded by a BluetoothTokenCodec. When the execution starts,
+ * each bridge announces the devices listening to each channel of its shard, so that a unicast response is only sent to the shard of its
+ * target device, and a broadcast only to the shards with devices on its channel.
+ * <p>
+ * The shards are synchronized conservatively. Every channel must have a positive propagationDelay, and the lookahead of the bridge must be
+ * smaller than the smallest of them. The bridge fires every lookahead units of model time. At each of these window boundaries, it
+ * publishes that its shard has sent every response transmitted before the boundary, waits until every other shard has published the same,
+ * and hands the responses received from the other shards to their channels, as if they had been transmitted by local devices at the time
+ * they were sent. Since these responses are delivered a propagation delay after they were sent, which is more than a window later, they
+ * are delivered at the same model time, and in the same order, as in a single process run of the whole population.
+ * <p>
+ * Every shard must be given the same stop time. The ring buffer files must not exist when the execution starts, and are deleted when it
+ * ends. Only BluetoothDevice actors receive the traffic of other shards: other actors listening to a channel only see the traffic of
+ * their shard.
+ *
+ * @author Phillip Azar
+ * @see BluetoothChannel
+ * @see BluetoothRingBuffer
+ * @see BluetoothTokenCodec
+ */
+public class BluetoothShardBridge extends TypedAtomicActor {
+
+    /** Construct an actor with the given container and name.
+     *  @param container The container.
+     *  @param name The name of this actor.
+     *  @exception IllegalActionException If the actor cannot be contained
+     *   by the proposed container.
+     *  @exception NameDuplicationException If the container already has an
+     *   actor with this name.
+     */
+    public BluetoothShardBridge(CompositeEntity container, String name)
+            throws NameDuplicationException, IllegalActionException {
+        super(container, name);
+
+        ringDirectory = new StringParameter(this, "ringDirectory");
+        ringDirectory.setExpression("");
+
+        shard = new Parameter(this, "shard");
+        shard.setTypeEquals(BaseType.INT);
+        shard.setExpression("0");
+
+        shards = new Parameter(this, "shards");
+        shards.setTypeEquals(BaseType.INT);
+        shards.setExpression("1");
+
+        lookahead = new Parameter(this, "lookahead");
+        lookahead.setTypeEquals(BaseType.DOUBLE);
+        lookahead.setExpression("0.0");
+
+        ringCapacity = new Parameter(this, "ringCapacity");
+        ringCapacity.setTypeEquals(BaseType.INT);
+        ringCapacity.setExpression("4194304");
+
+        syncTimeout = new Parameter(this, "syncTimeout");
+        syncTimeout.setTypeEquals(BaseType.DOUBLE);
+        syncTimeout.setExpression("60.0");
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                     ports and parameters                  ////
+
+    /** The model time between two window boundaries. This is a double that defaults to 0.0, which means half the smallest
+     *  propagation delay of the channels.
+     */
+    public Parameter lookahead;
+
+    /** The capacity in bytes of each ring buffer, a power of two. This is an int that defaults to 4194304. */
+    public Parameter ringCapacity;
+
+    /** The directory holding the ring buffer files, shared by every shard. This is a string that defaults to the empty string,
+     *  which means the temporary directory.
+     */
+    public StringParameter ringDirectory;
+
+    /** The index of the shard of this model. This is an int that defaults to 0. */
+    public Parameter shard;
+
+    /** The number of shards. This is an int that defaults to 1, which means that this actor does nothing. */
+    public Parameter shards;
+
+    /** The wall time in seconds after which waiting for another shard fails. This is a double that defaults to 60.0. */
+    public Parameter syncTimeout;
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+
+    /** Check the values of the parameters.
+     *  @param attribute The attribute that changed.
+     *  @exception IllegalActionException If the lookahead is negative, or the timeout is not positive.
+     */
+    @Override
+    public void attributeChanged(Attribute attribute) throws IllegalActionException {
+        if (attribute == lookahead) {
+            double value = ((DoubleToken) lookahead.getToken()).doubleValue();
+            if (value < 0.0) {
+                throw new IllegalActionException(this, "lookahead cannot be negative: " + value);
+            }
+        }
+        else if (attribute == syncTimeout) {
+            double value = ((DoubleToken) syncTimeout.getToken()).doubleValue();
+            if (value <= 0.0) {
+                throw new IllegalActionException(this, "syncTimeout must be positive: " + value);
+            }
+            _timeoutNanos = (long) (value * 1e9);
+        }
+        else {
+            super.attributeChanged(attribute);
+        }
+    }
+
+    /** At a window boundary, publish the clock of this shard, wait for the clocks of the other shards, and hand the responses
+     *  they sent before the boundary to the channels of this model.
+     *  @exception IllegalActionException If another shard does not reach the boundary in time, or if a response cannot be delivered.
+     */
+    @Override
+    public void fire() throws IllegalActionException {
+        super.fire();
+        Time now = getDirector().getModelTime();
+        if (_shards == 1 || _windowEnd == null || now.compareTo(_windowEnd) < 0) {
+            return;
+        }
+        synchronized (this) {
+            double boundary = now.getDoubleValue();
+            for (int peer = 0; peer < _shards; peer++) {
+                if (peer != _shard) {
+                    _out[peer].publishClock(boundary);
+                }
+            }
+            long deadline = System.nanoTime() + _timeoutNanos;
+            for (int peer = 0, spins = 0; peer < _shards; ) {
+                if (peer == _shard || _in[peer].readClock() >= boundary) {
+                    peer++;
+                    continue;
+                }
+                _drain();
+                spins = _await(spins, deadline, peer);
+            }
+            // The records written before the clocks are visible once the clocks are.
+            _drain();
+            for (int peer = 0; peer < _shards; peer++) {
+                if (peer == _shard) {
+                    continue;
+                }
+                ArrayDeque<_Remote> inbox = _inbox[peer];
+                while (!inbox.isEmpty() && inbox.peek().time < boundary) {
+                    _Remote remote = inbox.poll();
+                    BluetoothChannel channel = _peerChannels[peer][remote.channel];
+                    if (channel != null) {
+                        channel._transmitRemote(remote.token, new Time(getDirector(), remote.time));
+                    }
+                }
+            }
+        }
+        _windowEnd = now.add(_lookahead);
+    }
+
+    /** Open the ring buffers, exchange the devices of each channel with the other shards, and request a firing at the end of the first window.
+     *  @exception IllegalActionException If the shard is not one of the shards, a channel has no propagation delay, the lookahead is not smaller than the propagation delays,
+     *   the ring buffers cannot be opened, or another shard does not start in time.
+     */
+    @Override
+    public void initialize() throws IllegalActionException {
+        super.initialize();
+        _windowEnd = null;
+        _shard = ((IntToken) shard.getToken()).intValue();
+        _shards = ((IntToken) shards.getToken()).intValue();
+        if (_shards < 1 || _shard < 0 || _shard >= _shards) {
+            throw new IllegalActionException(this, "Invalid shard " + _shard + " of " + _shards + " shards.");
+        }
+        if (_shards == 1) {
+            return;
+        }
+        List channels = ((CompositeEntity) getContainer()).entityList(BluetoothChannel.class);
+        _channels = (BluetoothChannel[]) channels.toArray(new BluetoothChannel[channels.size()]);
+        double smallestDelay = Double.POSITIVE_INFINITY;
+        for (BluetoothChannel channel : _channels) {
+            smallestDelay = Math.min(smallestDelay, ((DoubleToken) channel.propagationDelay.getToken()).doubleValue());
+        }
+        if (_channels.length == 0 || smallestDelay <= 0.0) {
+            throw new IllegalActionException(this, "Every channel of a shard must have a positive propagationDelay.");
+        }
+        _lookahead = ((DoubleToken) lookahead.getToken()).doubleValue();
+        if (_lookahead == 0.0) {
+            _lookahead = smallestDelay / 2.0;
+        }
+        if (_lookahead >= smallestDelay) {
+            throw new IllegalActionException(this, "lookahead must be smaller than the propagationDelay of every channel: " + _lookahead);
+        }
+
+        _open();
+        _exchangeDevices();
+        for (BluetoothChannel channel : _channels) {
+            channel._setBridge(this);
+        }
+        _windowEnd = getDirector().getModelTime().add(_lookahead);
+        getDirector().fireAt(this, _windowEnd);
+        _requestedTime = _windowEnd;
+    }
+
+    /** Request a firing at the next window boundary.
+     *  @exception IllegalActionException If the firing cannot be requested.
+     */
+    @Override
+    public boolean postfire() throws IllegalActionException {
+        if (_windowEnd != null && _windowEnd != _requestedTime) {
+            getDirector().fireAt(this, _windowEnd);
+            _requestedTime = _windowEnd;
+        }
+        return super.postfire();
+    }
+
+    /** Detach this bridge from the channels and close the ring buffers, so that the other shards no longer wait for this one.
+     *  @exception IllegalActionException If the superclass throws it.
+     */
+    @Override
+    public void wrapup() throws IllegalActionException {
+        super.wrapup();
+        if (_channels != null) {
+            for (BluetoothChannel channel : _channels) {
+                channel._setBridge(null);
+            }
+            _channels = null;
+        }
+        _close();
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         package methods                   ////
+
+    /** Send a response transmitted by a device of this shard to the shards with devices that may receive it.
+     *  @param channel The channel on which the response is transmitted.
+     *  @param token The response.
+     *  @exception IllegalActionException If the response cannot be encoded, or another shard does not read its ring buffer in time.
+     */
+    synchronized void _forward(BluetoothChannel channel, BluetoothResponseToken token) throws IllegalActionException {
+        Integer index = _channelIndexes.get(channel);
+        if (index == null) {
+            return;
+        }
+        int destination = token.getDeviceHandle();
+        if (destination == BluetoothDeviceRegistry.BROADCAST) {
+            BitSet listeners = _listeners[index];
+            for (int peer = listeners.nextSetBit(0); peer >= 0; peer = listeners.nextSetBit(peer + 1)) {
+                _send(peer, index, token);
+            }
+        }
+        else if (destination == BluetoothDeviceRegistry.MULTICAST) {
+            // One copy per shard owning any of the destinations.
+            BitSet peers = new BitSet();
+            for (int member : token._getDestinations()) {
+                if (member < _owners.length && _owners[member] >= 0 && _listeners[index].get(_owners[member])) {
+                    peers.set(_owners[member]);
+                }
+            }
+            for (int peer = peers.nextSetBit(0); peer >= 0; peer = peers.nextSetBit(peer + 1)) {
+                _send(peer, index, token);
+            }
+        }
+        else if (destination >= 0 && destination < _owners.length) {
+            int peer = _owners[destination];
+            if (peer >= 0 && _listeners[index].get(peer)) {
+                _send(peer, index, token);
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Wait a little, spinning at first, and fail if the deadline has passed.
+     *  @return The number of times this was called while waiting for the same condition.
+     */
+    private int _await(int spins, long deadline, int peer) throws IllegalActionException {
+        if (spins < 100) {
+            Thread.onSpinWait();
+        }
+        else if (spins < 1000) {
+            Thread.yield();
+        }
+        else {
+            LockSupport.parkNanos(50000L);
+            if (System.nanoTime() > deadline) {
+                throw new IllegalActionException(this, "Timed out waiting for shard " + peer + ".");
+            }
+        }
+        return spins + 1;
+    }
+
+    /** Close the ring buffers that are open. */
+    private void _close() {
+        if (_out == null) {
+            return;
+        }
+        for (int peer = 0; peer < _shards; peer++) {
+            if (_out[peer] != null) {
+                _out[peer].close();
+            }
+            if (_in[peer] != null) {
+                _in[peer].close();
+            }
+        }
+        _out = null;
+        _in = null;
+    }
+
+    /** Read every record available from the other shards into their inboxes. */
+    private void _drain() throws IllegalActionException {
+        for (int peer = 0; peer < _shards; peer++) {
+            if (peer == _shard) {
+                continue;
+            }
+            ByteBuffer record;
+            while ((record = _in[peer].peek()) != null) {
+                double time = record.getDouble();
+                int channel = BluetoothTokenCodec.readVarInt(record);
+                BluetoothResponseToken token = _decoders[peer].decode(record);
+                _in[peer].advance();
+                _inbox[peer].add(new _Remote(time, channel, token));
+            }
+        }
+    }
+
+    /** Send the devices listening to each channel to the other shards, and read theirs. */
+    private void _exchangeDevices() throws IllegalActionException {
+        _channelIndexes.clear();
+        ByteBuffer announcement = ByteBuffer.allocate(_out[_shard == 0 ? 1 : 0].maxRecordSize()).order(ByteOrder.nativeOrder());
+        BluetoothTokenCodec.writeVarInt(_channels.length, announcement);
+        try {
+            for (int i = 0; i < _channels.length; i++) {
+                _channelIndexes.put(_channels[i], i);
+                BluetoothTokenCodec.writeString(_channels[i].getName(), announcement);
+                ArrayList<String> devices = new ArrayList<String>();
+                Iterator ports = _channels[i].listeningInputPorts().iterator();
+                while (ports.hasNext()) {
+                    Object container = ((IOPort) ports.next()).getContainer();
+                    if (container instanceof BluetoothDevice) {
+                        devices.add(((BluetoothDevice) container).getName());
+                    }
+                }
+                BluetoothTokenCodec.writeVarInt(devices.size(), announcement);
+                for (String device : devices) {
+                    BluetoothTokenCodec.writeString(device, announcement);
+                }
+            }
+        } catch (BufferOverflowException ex) {
+            throw new IllegalActionException(this, "Too many devices for the capacity of the ring buffers.");
+        }
+        announcement.flip();
+        long deadline = System.nanoTime() + _timeoutNanos;
+        for (int peer = 0; peer < _shards; peer++) {
+            if (peer != _shard) {
+                for (int spins = 0; !_out[peer].offer(announcement); ) {
+                    spins = _await(spins, deadline, peer);
+                }
+            }
+        }
+
+        HashMap<String, BluetoothChannel> byName = new HashMap<String, BluetoothChannel>();
+        for (BluetoothChannel channel : _channels) {
+            byName.put(channel.getName(), channel);
+        }
+        _listeners = new BitSet[_channels.length];
+        for (int i = 0; i < _channels.length; i++) {
+            _listeners[i] = new BitSet(_shards);
+        }
+        _owners = new int[BluetoothDeviceRegistry.size()];
+        Arrays.fill(_owners, -1);
+        _peerChannels = new BluetoothChannel[_shards][];
+        for (int peer = 0; peer < _shards; peer++) {
+            if (peer == _shard) {
+                continue;
+            }
+            ByteBuffer record;
+            for (int spins = 0; (record = _in[peer].peek()) == null; ) {
+                spins = _await(spins, deadline, peer);
+            }
+            int count = BluetoothTokenCodec.readVarInt(record);
+            _peerChannels[peer] = new BluetoothChannel[count];
+            for (int i = 0; i < count; i++) {
+                BluetoothChannel channel = byName.get(BluetoothTokenCodec.readString(record));
+                _peerChannels[peer][i] = channel;
+                int devices = BluetoothTokenCodec.readVarInt(record);
+                for (int j = 0; j < devices; j++) {
+                    int handle = BluetoothDeviceRegistry.intern(BluetoothTokenCodec.readString(record));
+                    if (handle >= _owners.length) {
+                        int length = _owners.length;
+                        _owners = Arrays.copyOf(_owners, Math.max(handle + 1, length * 2));
+                        Arrays.fill(_owners, length, _owners.length, -1);
+                    }
+                    _owners[handle] = peer;
+                }
+                if (channel != null && devices > 0) {
+                    _listeners[_channelIndexes.get(channel)].set(peer);
+                }
+            }
+            _in[peer].advance();
+        }
+    }
+
+    /** Open the ring buffers to and from every other shard, with a codec for each. */
+    private void _open() throws IllegalActionException {
+        String directory = ringDirectory.stringValue().trim();
+        File root = new File(directory.isEmpty() ? System.getProperty("java.io.tmpdir") : directory);
+        int capacity = ((IntToken) ringCapacity.getToken()).intValue();
+        _out = new BluetoothRingBuffer[_shards];
+        _in = new BluetoothRingBuffer[_shards];
+        _encoders = new BluetoothTokenCodec[_shards];
+        _decoders = new BluetoothTokenCodec[_shards];
+        _inbox = new ArrayDeque[_shards];
+        try {
+            for (int peer = 0; peer < _shards; peer++) {
+                if (peer == _shard) {
+                    continue;
+                }
+                _out[peer] = new BluetoothRingBuffer(new File(root, "ring-" + _shard + "-" + peer), capacity, true);
+                _in[peer] = new BluetoothRingBuffer(new File(root, "ring-" + peer + "-" + _shard), capacity, false);
+                _encoders[peer] = new BluetoothTokenCodec();
+                _decoders[peer] = new BluetoothTokenCodec();
+                _inbox[peer] = new ArrayDeque<_Remote>();
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            _close();
+            throw new IllegalActionException(this, ex, "Cannot open the ring buffers in " + root);
+        }
+        _scratch = ByteBuffer.allocate(4096).order(ByteOrder.nativeOrder());
+    }
+
+    /** Write a response to the ring buffer of a shard, reading the ring buffers of the other shards while it is full. */
+    private void _send(int peer, int channel, BluetoothResponseToken token) throws IllegalActionException {
+        while (true) {
+            try {
+                _scratch.clear();
+                _scratch.putDouble(getDirector().getModelTime().getDoubleValue());
+                BluetoothTokenCodec.writeVarInt(channel, _scratch);
+                _encoders[peer].encode(token, _scratch);
+                break;
+            } catch (BufferOverflowException ex) {
+                if (_scratch.capacity() >= _out[peer].maxRecordSize()) {
+                    throw new IllegalActionException(this, "Response too large for the capacity of the ring buffers: " + token);
+                }
+                _scratch = ByteBuffer.allocate(Math.min(_scratch.capacity() * 2, _out[peer].maxRecordSize())).order(ByteOrder.nativeOrder());
+            }
+        }
+        _scratch.flip();
+        long deadline = System.nanoTime() + _timeoutNanos;
+        for (int spins = 0; !_out[peer].offer(_scratch); ) {
+            // The other shard may itself be waiting for room in the ring buffers of this one.
+            _drain();
+            spins = _await(spins, deadline, peer);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    // The channels of this model, and their index in the records.
+    private BluetoothChannel[] _channels;
+    private final HashMap<BluetoothChannel, Integer> _channelIndexes = new HashMap<BluetoothChannel, Integer>();
+
+    // The shards with devices on each channel, the shard of each remote device by handle, or -1, and the
+    // channel of this model for each channel index of each shard, or null.
+    private BitSet[] _listeners;
+    private int[] _owners;
+    private BluetoothChannel[][] _peerChannels;
+
+    // The ring buffers and codecs to and from each shard, indexed by shard, and the responses read but not yet due.
+    private BluetoothRingBuffer[] _out;
+    private BluetoothRingBuffer[] _in;
+    private BluetoothTokenCodec[] _encoders;
+    private BluetoothTokenCodec[] _decoders;
+    private ArrayDeque<_Remote>[] _inbox;
+    private ByteBuffer _scratch;
+
+    private double _lookahead;
+    private int _shard;
+    private int _shards = 1;
+    private long _timeoutNanos = 60000000000L;
+    private Time _windowEnd;
+    private Time _requestedTime;
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         inner classes                     ////
+
+    /** A response received from another shard. */
+    private static class _Remote {
+        _Remote(double time, int channel, BluetoothResponseToken token) {
+            this.time = time;
+            this.channel = channel;
+            this.token = token;
+        }
+
+        final double time;
+        final int channel;
+        final BluetoothResponseToken token;
+    }
+}
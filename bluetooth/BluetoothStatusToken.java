@@ -12,7 +12,11 @@ import ptolemy.kernel.util.IllegalActionException;
  * This class represents a status token generated by the BluetoothDevice actor that is output when a command has successfully or unsuccessfully been executed, or when data has been received. It contains
  * the generic type T that is formed by any arbitrary piece of data. This data is not represented in the toString() of the object. If the data is a string, however, it will be represented when toString() is called.
  * <p>
- * This class must be instantiated with two parameters: a BluetoothStatus enum element, and a data of type T.
+ * This class may be instantiated with two parameters: a BluetoothStatus enum element, and a data of type T.
+ * <p>
+ * The tokens output by a BluetoothDevice are instead instantiated with a BluetoothEvent code and the handle of the device the event
+ * refers to. Their message is only formatted when getData() or toString() is called, so that a status that is never read costs no
+ * string building. For these tokens, getData() returns the message, unless the token carries data, such as the data received by the device.
  * <p>
  * 
  * @author Phillip Azar
@@ -28,9 +32,86 @@ public class BluetoothStatusToken<T> extends BluetoothToken {
      */
     public BluetoothStatusToken(BluetoothStatus status, T data){
         this._status = status;
+        this._event = null;
+        this._deviceHandle = BluetoothDeviceRegistry.NO_DEVICE;
+        this._argument = 0;
         this._data = data;
     }
     
+    /**
+     * Constructs a status token reporting an event about a device.
+     * @param status The status.
+     * @param event The event.
+     * @param deviceHandle The BluetoothDeviceRegistry handle of the device the event refers to, or BluetoothDeviceRegistry.NO_DEVICE.
+     */
+    public BluetoothStatusToken(BluetoothStatus status, BluetoothEvent event, int deviceHandle){
+        this(status, event, deviceHandle, 0, null);
+    }
+    
+    /**
+     * Constructs a status token reporting an event about a device, with an argument and data.
+     * @param status The status.
+     * @param event The event.
+     * @param deviceHandle The BluetoothDeviceRegistry handle of the device the event refers to, or BluetoothDeviceRegistry.NO_DEVICE.
+     * @param argument The argument of the event, such as a count.
+     * @param data The data carried by the token, or null if the token only reports the event.
+     */
+    public BluetoothStatusToken(BluetoothStatus status, BluetoothEvent event, int deviceHandle, int argument, T data){
+        this._status = status;
+        this._event = event;
+        this._deviceHandle = deviceHandle;
+        this._argument = argument;
+        this._data = data;
+    }
+    
+    /**
+     * Returns the argument of the event reported by this token.
+     * @return The argument, or 0.
+     */
+    public int getArgument(){
+        return this._argument;
+    }
+    
+    /**
+     * Returns the handle of the device the event reported by this token refers to.
+     * @return The BluetoothDeviceRegistry handle, or BluetoothDeviceRegistry.NO_DEVICE.
+     */
+    public int getDeviceHandle(){
+        return this._deviceHandle;
+    }
+    
+    /**
+     * Returns the name of the device the event reported by this token refers to.
+     * @return The name of the device, or null.
+     */
+    public String getDeviceIdentifier(){
+        return this._deviceHandle < 0 ? null : BluetoothDeviceRegistry.getName(this._deviceHandle);
+    }
+    
+    /**
+     * Returns the event reported by this token.
+     * @return The event, or null if this token was constructed with free-form data.
+     */
+    public BluetoothEvent getEvent(){
+        return this._event;
+    }
+    
+    /**
+     * Returns the message of this token, formatted from its event if it has one.
+     * @return The message.
+     */
+    public String getMessage(){
+        if (this._event == null) {
+            return String.valueOf(this._data);
+        }
+        String message = this._message;
+        if (message == null) {
+            message = this._event.format(this._argument, getDeviceIdentifier());
+            this._message = message;
+        }
+        return message;
+    }
+    
     /**
      * Returns the status value held by this token.
      * @return BluetoothStatus status
@@ -40,10 +121,14 @@ public class BluetoothStatusToken<T> extends BluetoothToken {
     }
     
     /**
-     * Returns the data held by this status token.
+     * Returns the data held by this status token. If the token reports an event and carries no data, this is the message of the token.
      * @return T data
      */
+    @SuppressWarnings("unchecked")
     public T getData() {
+        if (this._data == null && this._event != null) {
+            return (T) getMessage();
+        }
         return this._data;
     }
 
@@ -52,12 +137,7 @@ public class BluetoothStatusToken<T> extends BluetoothToken {
             throws IllegalActionException {
         if (rightArgument instanceof BluetoothStatusToken){
             BluetoothStatusToken right = (BluetoothStatusToken) rightArgument;
-            if (this._status == right.getStatusValue()){
-                return new BooleanToken(true);
-            }
-            else {
-                return new BooleanToken(false);
-            }
+            return this._status == right.getStatusValue() ? BooleanToken.TRUE : BooleanToken.FALSE;
         }
         else {
             throw new IllegalActionException("The argument must be of type BluetoothStatusToken");
@@ -67,14 +147,15 @@ public class BluetoothStatusToken<T> extends BluetoothToken {
 
     @Override
     public String toString() {
-        if (_data instanceof String || _data instanceof StringToken) {
+        T data = getData();
+        if (data instanceof String || data instanceof StringToken) {
             switch (_status){
                 case STATUS_ERROR:
-                    return ("ERROR," + this._data);
+                    return ("ERROR," + data);
                 case STATUS_OK:
-                    return ("OK,"+ this._data);
+                    return ("OK,"+ data);
                 default:
-                    return ("nil,"+ this._data); 
+                    return ("nil,"+ data); 
             }
         }
         else {
@@ -93,5 +174,11 @@ public class BluetoothStatusToken<T> extends BluetoothToken {
     ////                         private variables                 ////
     
     private final BluetoothStatus _status;
+    private final BluetoothEvent _event;
+    private final int _deviceHandle;
+    private final int _argument;
     private final T _data;
+    
+    // The message, once formatted. Formatting is idempotent, so racing threads at worst format it twice.
+    private String _message;
 }
@@ -0,0 +1,391 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import ptolemy.data.BooleanToken;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.LongToken;
+import ptolemy.data.StringToken;
+import ptolemy.data.Token;
+import ptolemy.data.expr.Variable;
+import ptolemy.kernel.util.IllegalActionException;
+
+/**
+ * This class encodes BluetoothResponseTokens to a compact binary form and decodes them back, so that they can cross the boundary
+ * between two processes, see BluetoothShardBridge.
+ * <p>
+ * A token is encoded as the ordinal of its response, its target and source devices, its correlation ID, and its payload. The handles given out by the
+ * BluetoothDeviceRegistry differ from one process to the other, so devices are encoded as identifiers local to the stream: the first
+ * time a device is encoded, its identifier is followed by its name, and the decoder interns the name in its own registry. A codec
+ * therefore holds the state of one stream, and must encode, or decode, the tokens of that stream in order. The broadcast address
+ * is always encoded as the identifier 0.
+ * <p>
+ * Control tokens are decoded to the canonical token returned by BluetoothResponseToken.getControlToken(). Strings, StringTokens,
+ * IntTokens, LongTokens, DoubleTokens, BooleanTokens, BluetoothBatchTokens, BluetoothBufferTokens and BluetoothSegmentTokens are
+ * encoded in binary. Any other token is encoded as its expression, and evaluated again when it is decoded, as by BluetoothEventReplay.
+ * <p>
+ * Encoding writes to a ByteBuffer, and throws a BufferOverflowException if the buffer is too small, in which case the state of the
+ * codec is unchanged only if the caller encodes the same token again into a larger buffer.
+ * <p>
+ * A token addressed to several devices is flagged in the high bit of its response ordinal, and its target device is replaced by the
+ * number of its destinations followed by the identifier of each of them.
+ *
+ * @author Phillip Azar
+ * @see BluetoothShardBridge
+ * @see BluetoothResponseToken
+ */
+public class BluetoothTokenCodec {
+
+    /** Construct a codec for a new stream. */
+    public BluetoothTokenCodec() {
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+
+    /**
+     * Decode the next token of the stream.
+     * @param in : The buffer holding the encoded token, from its position. The position is moved past the token.
+     * @return The token.
+     * @exception IllegalActionException If the buffer does not hold an encoded token.
+     */
+    public BluetoothResponseToken decode(ByteBuffer in) throws IllegalActionException {
+        int ordinal = in.get() & 0xFF;
+        boolean multicast = (ordinal & _MULTICAST) != 0;
+        ordinal &= ~_MULTICAST;
+        BluetoothResponse[] responses = BluetoothResponse.values();
+        if (ordinal >= responses.length) {
+            throw new IllegalActionException("Invalid response in encoded token: " + ordinal);
+        }
+        BluetoothResponse response = responses[ordinal];
+        if (multicast) {
+            int[] destinations = new int[readVarInt(in)];
+            for (int i = 0; i < destinations.length; i++) {
+                destinations[i] = _readDevice(in);
+            }
+            int source = _readDevice(in);
+            readVarInt(in);
+            int kind = in.get();
+            if (kind == _STRING) {
+                return new BluetoothResponseToken<String>(response, destinations, source, readString(in));
+            }
+            return new BluetoothResponseToken<Token>(response, destinations, source, _readToken(kind, in));
+        }
+        int destination = _readDevice(in);
+        int source = _readDevice(in);
+        int correlationId = readVarInt(in);
+        int kind = in.get();
+        if (kind == _CONTROL) {
+            return BluetoothResponseToken.getControlToken(response, destination, source, correlationId);
+        }
+        if (kind == _STRING) {
+            return new BluetoothResponseToken<String>(response, destination, source, correlationId, readString(in));
+        }
+        return new BluetoothResponseToken<Token>(response, destination, source, correlationId, _readToken(kind, in));
+    }
+
+    /**
+     * Encode a token at the end of the stream.
+     * @param token : The token.
+     * @param out : The buffer to which the token is written, from its position. The position is moved past the token.
+     * @exception IllegalActionException If the payload of the token is neither a String nor a Token.
+     */
+    public void encode(BluetoothResponseToken token, ByteBuffer out) throws IllegalActionException {
+        int mark = _nextIdentifier;
+        int[] destinations = token._getDestinations();
+        try {
+            if (destinations == null) {
+                out.put((byte) token.getResponse().ordinal());
+                _writeDevice(token.getDeviceHandle(), out);
+            }
+            else {
+                out.put((byte) (token.getResponse().ordinal() | _MULTICAST));
+                writeVarInt(destinations.length, out);
+                for (int destination : destinations) {
+                    _writeDevice(destination, out);
+                }
+            }
+            _writeDevice(token.getSourceHandle(), out);
+            writeVarInt(token.getCorrelationId(), out);
+            _writePayload(token, out);
+        } catch (BufferOverflowException ex) {
+            // Forget the devices first written by this call, so that their names are written again by the next one.
+            if (destinations == null) {
+                _forget(token.getDeviceHandle(), mark);
+            }
+            else {
+                for (int destination : destinations) {
+                    _forget(destination, mark);
+                }
+            }
+            _forget(token.getSourceHandle(), mark);
+            _nextIdentifier = mark;
+            throw ex;
+        }
+    }
+
+    /**
+     * Read a string written by writeString().
+     * @param in : The buffer, from its position. The position is moved past the string.
+     * @return The string.
+     */
+    public static String readString(ByteBuffer in) {
+        int length = readVarInt(in);
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        }
+        else {
+            byte[] bytes = new byte[length];
+            in.duplicate().get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + length);
+        return value;
+    }
+
+    /**
+     * Read a non-negative int written by writeVarInt().
+     * @param in : The buffer, from its position. The position is moved past the int.
+     * @return The int.
+     */
+    public static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Write a string as its length followed by its UTF-8 bytes.
+     * @param value : The string.
+     * @param out : The buffer, from its position. The position is moved past the string.
+     */
+    public static void writeString(String value, ByteBuffer out) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length, out);
+        out.put(bytes);
+    }
+
+    /**
+     * Write a non-negative int in 1 to 5 bytes, 7 bits per byte.
+     * @param value : The int.
+     * @param out : The buffer, from its position. The position is moved past the int.
+     */
+    public static void writeVarInt(int value, ByteBuffer out) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Forget the identifier of a device if it was taken at or after the given mark. */
+    private void _forget(int handle, int mark) {
+        if (handle >= 0 && handle < _identifiers.length && _identifiers[handle] >= mark) {
+            _identifiers[handle] = 0;
+        }
+    }
+
+    /** Write the payload of a token, preceded by its kind. */
+    private void _writePayload(BluetoothResponseToken token, ByteBuffer out) throws IllegalActionException {
+        Object data = token.getData();
+        if (data instanceof String) {
+            if (((String) data).isEmpty() && token._getDestinations() == null && (token.getCorrelationId() != BluetoothResponseToken.NO_CORRELATION
+                    || token == BluetoothResponseToken.getControlToken(token.getResponse(), token.getDeviceHandle(), token.getSourceHandle()))) {
+                out.put(_CONTROL);
+            }
+            else {
+                out.put(_STRING);
+                writeString((String) data, out);
+            }
+        }
+        else if (data instanceof Token) {
+            _writeToken((Token) data, out);
+        }
+        else {
+            throw new IllegalActionException("Cannot encode the payload of a response: " + data);
+        }
+    }
+
+    /** Evaluate an expression, or return it as a StringToken if it cannot be evaluated. */
+    private Token _evaluate(String expression) {
+        try {
+            if (_parser == null) {
+                _parser = new Variable();
+            }
+            _parser.setExpression(expression);
+            return _parser.getToken();
+        } catch (IllegalActionException ex) {
+            return new StringToken(expression);
+        }
+    }
+
+    /** Read a device identifier, and the name of the device if the identifier is new to the stream. */
+    private int _readDevice(ByteBuffer in) {
+        int value = readVarInt(in);
+        int identifier = value >>> 1;
+        if ((value & 1) != 0) {
+            if (identifier >= _handles.length) {
+                _handles = Arrays.copyOf(_handles, Math.max(identifier + 1, _handles.length * 2));
+            }
+            _handles[identifier] = BluetoothDeviceRegistry.intern(readString(in));
+        }
+        return identifier == 0 ? BluetoothDeviceRegistry.BROADCAST : _handles[identifier];
+    }
+
+    /** Read a payload token of the given kind. */
+    private Token _readToken(int kind, ByteBuffer in) throws IllegalActionException {
+        switch (kind) {
+        case _STRING_TOKEN:
+            return new StringToken(readString(in));
+        case _INT:
+            return new IntToken(in.getInt());
+        case _LONG:
+            return new LongToken(in.getLong());
+        case _DOUBLE:
+            return new DoubleToken(in.getDouble());
+        case _BOOLEAN:
+            return BooleanToken.getInstance(in.get() != 0);
+        case _BATCH:
+            Token[] tokens = new Token[readVarInt(in)];
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = _readToken(in.get(), in);
+            }
+            return new BluetoothBatchToken(tokens, tokens.length);
+        case _BUFFER:
+            return _readBuffer(in);
+        case _SEGMENT:
+            int identifier = in.getInt();
+            int offset = readVarInt(in);
+            int length = readVarInt(in);
+            return new BluetoothSegmentToken(identifier, offset, length, _readBuffer(in));
+        case _EXPRESSION:
+            return _evaluate(readString(in));
+        default:
+            throw new IllegalActionException("Invalid payload in encoded token: " + kind);
+        }
+    }
+
+    /** Read the bytes of a BluetoothBufferToken into a new heap buffer. */
+    private BluetoothBufferToken _readBuffer(ByteBuffer in) {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.get(bytes);
+        return new BluetoothBufferToken(bytes);
+    }
+
+    /** Write a device identifier, and the name of the device if the identifier is new to the stream. */
+    private void _writeDevice(int handle, ByteBuffer out) {
+        if (handle == BluetoothDeviceRegistry.BROADCAST) {
+            writeVarInt(0, out);
+            return;
+        }
+        if (handle >= _identifiers.length) {
+            _identifiers = Arrays.copyOf(_identifiers, Math.max(handle + 1, _identifiers.length * 2));
+        }
+        int identifier = _identifiers[handle];
+        if (identifier != 0) {
+            writeVarInt(identifier << 1, out);
+            return;
+        }
+        // The identifier is only taken once the name is written, so that a failed write can be retried.
+        identifier = _nextIdentifier;
+        writeVarInt((identifier << 1) | 1, out);
+        writeString(BluetoothDeviceRegistry.getName(handle), out);
+        _identifiers[handle] = identifier;
+        _nextIdentifier++;
+    }
+
+    /** Write a payload token, preceded by its kind. */
+    private void _writeToken(Token token, ByteBuffer out) {
+        if (token instanceof StringToken) {
+            out.put(_STRING_TOKEN);
+            writeString(((StringToken) token).stringValue(), out);
+        }
+        else if (token instanceof IntToken) {
+            out.put(_INT);
+            out.putInt(((IntToken) token).intValue());
+        }
+        else if (token instanceof LongToken) {
+            out.put(_LONG);
+            out.putLong(((LongToken) token).longValue());
+        }
+        else if (token instanceof DoubleToken) {
+            out.put(_DOUBLE);
+            out.putDouble(((DoubleToken) token).doubleValue());
+        }
+        else if (token instanceof BooleanToken) {
+            out.put(_BOOLEAN);
+            out.put((byte) (((BooleanToken) token).booleanValue() ? 1 : 0));
+        }
+        else if (token instanceof BluetoothBatchToken) {
+            BluetoothBatchToken batch = (BluetoothBatchToken) token;
+            out.put(_BATCH);
+            writeVarInt(batch.length(), out);
+            for (int i = 0; i < batch.length(); i++) {
+                _writeToken(batch.getElement(i), out);
+            }
+        }
+        else if (token instanceof BluetoothBufferToken) {
+            out.put(_BUFFER);
+            _writeBuffer((BluetoothBufferToken) token, out);
+        }
+        else if (token instanceof BluetoothSegmentToken) {
+            BluetoothSegmentToken segment = (BluetoothSegmentToken) token;
+            out.put(_SEGMENT);
+            out.putInt(segment.getPayloadIdentifier());
+            writeVarInt(segment.getOffset(), out);
+            writeVarInt(segment.getPayloadLength(), out);
+            _writeBuffer(segment.getSegment(), out);
+        }
+        else {
+            out.put(_EXPRESSION);
+            writeString(token.toString(), out);
+        }
+    }
+
+    /** Write the bytes of a BluetoothBufferToken, preceded by their number. */
+    private void _writeBuffer(BluetoothBufferToken buffer, ByteBuffer out) {
+        writeVarInt(buffer.length(), out);
+        out.put(buffer.getBuffer());
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    // The flag of the response ordinal of a token addressed to several devices.
+    private static final int _MULTICAST = 0x80;
+
+    // The kinds of payload.
+    private static final byte _CONTROL = 0;
+    private static final byte _STRING = 1;
+    private static final byte _STRING_TOKEN = 2;
+    private static final byte _INT = 3;
+    private static final byte _LONG = 4;
+    private static final byte _DOUBLE = 5;
+    private static final byte _BOOLEAN = 6;
+    private static final byte _BATCH = 7;
+    private static final byte _BUFFER = 8;
+    private static final byte _SEGMENT = 9;
+    private static final byte _EXPRESSION = 10;
+
+    // The local handle of each stream identifier, when decoding.
+    private int[] _handles = new int[64];
+
+    // The stream identifier of each local handle, or 0 if it has none yet, when encoding.
+    private int[] _identifiers = new int[64];
+    private int _nextIdentifier = 1;
+
+    private Variable _parser;
+}
@@ -0,0 +1,302 @@
+package ptolemy.domains.wireless.lib.bluetooth;
+
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedIOPort;
+import ptolemy.actor.util.Time;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.LongToken;
+import ptolemy.data.StringToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.Attribute;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+
+/**
+ * This actor generates the commands of a population of BluetoothDevice actors. Channel i of each output port is meant to be
+ * connected to the corresponding wired input of the device named deviceNamePrefix followed by firstDevice + i. The devices are taken
+ * in couples, device 2k being the initiator and device 2k+1 its partner. A population split between several actors, such as the shards
+ * of a BluetoothScenario, must therefore be split at even indices.
+ * <p>
+ * The actor fires once per period, starting at the start time of the model. At each firing, each device is issued the command of
+ * the current step of the workload, which is one of the following:
+ * <p>
+ * scanStorm : At step 0, every device is switched on. At step 1, the partners are made discoverable. From step 2 on, the initiators
+ * alternately scan and stop scanning.
+ * <p>
+ * churn : At step 0, every device is switched on. At step 1, the partners are made discoverable. At step 2 the initiators scan, at
+ * step 3 they stop scanning and at step 4 they pair with their partner. From step 5 on, the initiators alternately connect to and
+ * disconnect from their partner.
+ * <p>
+ * stream : As churn up to step 4. At step 5 the initiators connect to their partner, and from step 6 on they send a data token to
+ * their partner at each step.
+ * <p>
+ * Past the set up steps, each initiator is only issued its command with the probability given by the activity parameter, drawn from a
+ * hash of the seed parameter, the step and the index of the initiator, so that the workload is reproducible, and the same whichever
+ * actor drives the initiator.
+ * 
+ * @author Phillip Azar
+ * @see BluetoothScenario
+ */
+public class BluetoothWorkload extends TypedAtomicActor {
+
+    /** Construct an actor with the given container and name.
+     *  @param container The container.
+     *  @param name The name of this actor.
+     *  @exception IllegalActionException If the actor cannot be contained
+     *   by the proposed container.
+     *  @exception NameDuplicationException If the container already has an
+     *   actor with this name.
+     */
+    public BluetoothWorkload(CompositeEntity container, String name)
+            throws NameDuplicationException, IllegalActionException {
+        super(container, name);
+        
+        workload = new StringParameter(this, "workload");
+        workload.addChoice("scanStorm");
+        workload.addChoice("churn");
+        workload.addChoice("stream");
+        workload.setExpression("scanStorm");
+        
+        deviceNamePrefix = new StringParameter(this, "deviceNamePrefix");
+        deviceNamePrefix.setExpression("device");
+        
+        firstDevice = new Parameter(this, "firstDevice");
+        firstDevice.setTypeEquals(BaseType.INT);
+        firstDevice.setExpression("0");
+        
+        period = new Parameter(this, "period");
+        period.setTypeEquals(BaseType.DOUBLE);
+        period.setExpression("1.0");
+        
+        activity = new Parameter(this, "activity");
+        activity.setTypeEquals(BaseType.DOUBLE);
+        activity.setExpression("1.0");
+        
+        seed = new Parameter(this, "seed");
+        seed.setTypeEquals(BaseType.LONG);
+        seed.setExpression("0L");
+        
+        command = new TypedIOPort(this, "command", false, true);
+        command.setMultiport(true);
+        command.setTypeEquals(BaseType.GENERAL);
+        
+        details = new TypedIOPort(this, "details", false, true);
+        details.setMultiport(true);
+        details.setTypeEquals(BaseType.STRING);
+        
+        data = new TypedIOPort(this, "data", false, true);
+        data.setMultiport(true);
+        data.setTypeEquals(BaseType.GENERAL);
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                     ports and parameters                  ////
+    
+    /** The probability that an initiator is issued its command at a step past the set up steps. This is a double that defaults to 1.0. */
+    public Parameter activity;
+    
+    /** The output port for the commands, one channel per device. */
+    public TypedIOPort command;
+    
+    /** The output port for the data sent by the stream workload, one channel per device. */
+    public TypedIOPort data;
+    
+    /** The output port for the details of the commands, one channel per device. */
+    public TypedIOPort details;
+    
+    /** The prefix of the names of the devices. This is a string that defaults to "device". */
+    public StringParameter deviceNamePrefix;
+    
+    /** The index of the device connected to channel 0 of the output ports, an even number. This is an int that defaults to 0. */
+    public Parameter firstDevice;
+    
+    /** The model time between two steps of the workload. This is a double that defaults to 1.0. */
+    public Parameter period;
+    
+    /** The seed of the generator deciding which initiators are active. This is a long that defaults to 0L. */
+    public Parameter seed;
+    
+    /** The workload, one of "scanStorm", "churn" or "stream". */
+    public StringParameter workload;
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+    
+    /** Check the values of the parameters.
+     *  @param attribute The attribute that changed.
+     *  @exception IllegalActionException If the period is not positive, the activity is not a probability,
+     *   the first device is not even, or the workload is not supported.
+     */
+    @Override
+    public void attributeChanged(Attribute attribute) throws IllegalActionException {
+        if (attribute == period) {
+            _period = ((DoubleToken) period.getToken()).doubleValue();
+            if (_period <= 0.0) {
+                throw new IllegalActionException(this, "period must be positive: " + _period);
+            }
+        }
+        else if (attribute == activity) {
+            _activity = ((DoubleToken) activity.getToken()).doubleValue();
+            if (_activity < 0.0 || _activity > 1.0) {
+                throw new IllegalActionException(this, "activity must be between 0.0 and 1.0: " + _activity);
+            }
+        }
+        else if (attribute == firstDevice) {
+            _firstDevice = ((IntToken) firstDevice.getToken()).intValue();
+            if (_firstDevice < 0 || _firstDevice % 2 != 0) {
+                throw new IllegalActionException(this, "firstDevice must be even and not negative: " + _firstDevice);
+            }
+        }
+        else if (attribute == workload) {
+            String value = workload.stringValue();
+            if (value.equals("scanStorm")) {
+                _workload = _SCAN_STORM;
+            }
+            else if (value.equals("churn")) {
+                _workload = _CHURN;
+            }
+            else if (value.equals("stream")) {
+                _workload = _STREAM;
+            }
+            else {
+                throw new IllegalActionException(this, "Unsupported workload: " + value);
+            }
+        }
+        else {
+            super.attributeChanged(attribute);
+        }
+    }
+    
+    /** Issue the commands of the current step of the workload.
+     *  @exception IllegalActionException If the commands cannot be sent.
+     */
+    @Override
+    public void fire() throws IllegalActionException {
+        super.fire();
+        int width = command.getWidth();
+        for (int initiator = 0; initiator + 1 < width; initiator += 2) {
+            int partner = initiator + 1;
+            switch (_step) {
+            case 0:
+                _issue(initiator, BluetoothCommand.COMMAND_SWITCHON, -1);
+                _issue(partner, BluetoothCommand.COMMAND_SWITCHON, -1);
+                break;
+            case 1:
+                _issue(partner, BluetoothCommand.COMMAND_DISCOVERABLE, -1);
+                break;
+            default:
+                _issueStep(initiator, partner);
+            }
+        }
+    }
+    
+    /** Start the workload at the current time.
+     *  @exception IllegalActionException If the firing cannot be requested.
+     */
+    @Override
+    public void initialize() throws IllegalActionException {
+        super.initialize();
+        _step = 0;
+        _seed = ((LongToken) seed.getToken()).longValue();
+        String prefix = deviceNamePrefix.stringValue();
+        int width = command.getWidth();
+        _names = new StringToken[width];
+        for (int i = 0; i < width; i++) {
+            _names[i] = new StringToken(prefix + (_firstDevice + i));
+        }
+        getDirector().fireAt(this, getDirector().getModelTime());
+    }
+    
+    /** Move to the next step of the workload, and request a firing one period later.
+     *  @exception IllegalActionException If the firing cannot be requested.
+     */
+    @Override
+    public boolean postfire() throws IllegalActionException {
+        _step++;
+        Time next = getDirector().getModelTime().add(_period);
+        getDirector().fireAt(this, next);
+        return super.postfire();
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+    
+    /** Send a command to a device, with the name of the target device as details if target is not negative. */
+    private void _issue(int device, BluetoothCommand bluetoothCommand, int target) throws IllegalActionException {
+        command.send(device, BluetoothCommandToken.getInstance(bluetoothCommand));
+        if (target >= 0) {
+            details.send(device, _names[target]);
+        }
+    }
+    
+    /** Issue the command of the current step, past the first two, to an initiator. */
+    private void _issueStep(int initiator, int partner) throws IllegalActionException {
+        if (_workload == _SCAN_STORM) {
+            if (_active(initiator)) {
+                _issue(initiator, _step % 2 == 0 ? BluetoothCommand.COMMAND_SCAN : BluetoothCommand.COMMAND_STOPSCAN, -1);
+            }
+            return;
+        }
+        switch (_step) {
+        case 2:
+            _issue(initiator, BluetoothCommand.COMMAND_SCAN, -1);
+            return;
+        case 3:
+            _issue(initiator, BluetoothCommand.COMMAND_STOPSCAN, -1);
+            return;
+        case 4:
+            _issue(initiator, BluetoothCommand.COMMAND_PAIR, partner);
+            return;
+        case 5:
+            _issue(initiator, BluetoothCommand.COMMAND_CONNECT, partner);
+            return;
+        default:
+            if (!_active(initiator)) {
+                return;
+            }
+            if (_workload == _STREAM) {
+                _issue(initiator, BluetoothCommand.COMMAND_SENDDATA, partner);
+                data.send(initiator, new IntToken(_step));
+            }
+            else if (_step % 2 == 0) {
+                _issue(initiator, BluetoothCommand.COMMAND_DISCONNECT, partner);
+            }
+            else {
+                _issue(initiator, BluetoothCommand.COMMAND_CONNECT, partner);
+            }
+        }
+    }
+    
+    /** Return true if an initiator is to be issued its command at this step. */
+    private boolean _active(int initiator) {
+        if (_activity >= 1.0) {
+            return true;
+        }
+        // The finalizer of SplitMix64, applied to the seed, the step and the index of the initiator.
+        long z = _seed + _step * 0x9E3779B97F4A7C15L + (_firstDevice + initiator) * 0xC2B2AE3D27D4EB4FL;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53 < _activity;
+    }
+    
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+    
+    // The workloads.
+    private static final int _SCAN_STORM = 0;
+    private static final int _CHURN = 1;
+    private static final int _STREAM = 2;
+    
+    private double _activity = 1.0;
+    private StringToken[] _names;
+    private double _period = 1.0;
+    private int _firstDevice;
+    private long _seed;
+    private int _step;
+    private int _workload = _SCAN_STORM;
+}